@@ -0,0 +1,181 @@
+package tech.simter.jxls.ext;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * Generate the benchmark data of the bundled templates.
+ *
+ * @author RJ
+ */
+final class BenchmarkData {
+  private BenchmarkData() {
+  }
+
+  /**
+   * Generate the data of the template with the specified number of main rows.
+   *
+   * @param template the template file name under templates/
+   * @param rows     the number of main rows
+   * @return the data
+   */
+  static Map<String, Object> generate(String template, int rows) {
+    switch (template) {
+      case "each-merge.xlsx":
+        return eachMerge(rows, false);
+      case "each-merge2.xlsx":
+        return eachMerge(rows, true);
+      case "two-sub-list.xlsx":
+        return twoSubList(rows);
+      case "dynamic-column.xlsx":
+        return dynamicColumn(rows);
+      case "common-functions.xlsx":
+        return commonFunctions();
+      case "common-functions-complex.xls":
+      case "common-functions-complex.xlsx":
+        return commonFunctionsComplex(rows);
+      default:
+        throw new IllegalArgumentException("Unknown template: " + template);
+    }
+  }
+
+  /**
+   * Count the sheet rows the template renders with the specified number of main rows, without the fixed rows.
+   *
+   * @param template the template file name under templates/
+   * @param rows     the number of main rows
+   * @return the number of sheet rows
+   */
+  static long sheetRows(String template, int rows) {
+    switch (template) {
+      case "each-merge.xlsx":
+      case "each-merge2.xlsx":
+        // as many rows as the subs of each main row, see eachMerge
+        long count = 0;
+        for (int i = 1; i <= rows; i++) count += 1 + i % 3;
+        return count;
+      case "two-sub-list.xlsx":
+        return 2L * rows;
+      case "common-functions.xlsx":
+        return 0;
+      default:
+        return rows;
+    }
+  }
+
+  private static Map<String, Object> eachMerge(int count, boolean twoSubs) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS merge cell benchmark");
+    List<Map<String, Object>> rows = new ArrayList<>(count);
+    data.put("rows", rows);
+    for (int i = 1; i <= count; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      row.put("subs", subs(i, 1 + i % 3));
+      if (twoSubs) row.put("subs1", subs(i, 1 + i % 3));
+      rows.add(row);
+    }
+    return data;
+  }
+
+  private static Map<String, Object> twoSubList(int count) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS two-sub-list benchmark");
+    List<Map<String, Object>> rows = new ArrayList<>(count);
+    data.put("rows", rows);
+    for (int i = 1; i <= count; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      row.put("subs1", subs(i, 2));
+      row.put("subs2", subs(i, 2));
+      rows.add(row);
+    }
+    return data;
+  }
+
+  private static List<Map<String, Object>> subs(int rowNumber, int count) {
+    List<Map<String, Object>> subs = new ArrayList<>(count);
+    for (int i = 1; i <= count; i++) {
+      Map<String, Object> sub = new HashMap<>();
+      sub.put("sn", rowNumber + "-" + i);
+      sub.put("name", "row" + rowNumber + "sub" + i);
+      subs.add(sub);
+    }
+    return subs;
+  }
+
+  private static Map<String, Object> dynamicColumn(int count) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS dynamic columns benchmark");
+    List<String> itemNames = Arrays.asList("Item1", "Item2", "Item3", "Item4", "Item5");
+    data.put("itemNames", itemNames);
+    List<Map<String, Object>> rows = new ArrayList<>(count);
+    data.put("rows", rows);
+    for (int i = 1; i <= count; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      List<Object> itemValues = new ArrayList<>(itemNames.size());
+      for (int j = 1; j <= itemNames.size(); j++) itemValues.add(100000000.345678 * i + j);
+      row.put("itemValues", itemValues);
+      rows.add(row);
+    }
+    return data;
+  }
+
+  private static Map<String, Object> commonFunctions() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("num", new BigDecimal("123.456"));
+    data.put("datetime", LocalDateTime.of(2017, 1, 2, 10, 20, 30));
+    data.put("date", LocalDate.of(2017, 1, 2));
+    data.put("time", LocalTime.of(10, 20, 30));
+    data.put("str", "123");
+    return data;
+  }
+
+  private static Map<String, Object> commonFunctionsComplex(int count) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("stage", 0);
+    Map<Integer, Object> stageLabels = new HashMap<>();
+    stageLabels.put(0, "TODO");
+    stageLabels.put(1, "ALLOW");
+    data.put("stageLabels", stageLabels);
+    List<Map<String, Object>> rows = new ArrayList<>(count);
+    data.put("rows", rows);
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("yearMonth", YearMonth.of(2017, 1 + i % 12));
+      row.put("dateTime", LocalDateTime.of(2017, 1, 2, 10, 20, 30).plusMinutes(i));
+      row.put("str", "test");
+      row.put("money", new BigDecimal(i).movePointLeft(2));
+      row.put("stage", i % 2);
+      if (i % 2 == 0) row.put("remark", "remark" + (i + 1));
+      rows.add(row);
+    }
+    return data;
+  }
+
+  /**
+   * An {@link OutputStream} that drops the data and counts the bytes.
+   */
+  static class CountingNullOutputStream extends OutputStream {
+    long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
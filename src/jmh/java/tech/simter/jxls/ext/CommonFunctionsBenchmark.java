@@ -0,0 +1,61 @@
+package tech.simter.jxls.ext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the {@link CommonFunctions} methods in isolation.
+ *
+ * @author RJ
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CommonFunctionsBenchmark {
+  private final CommonFunctions fn = CommonFunctions.getSingleton();
+  private final LocalDateTime dateTime = LocalDateTime.of(2017, 1, 2, 10, 20, 30);
+  private final BigDecimal decimal = new BigDecimal("123456789.456");
+  private final Double number = 123456789.456;
+  private final Integer integer = 123456789;
+
+  @Benchmark
+  public String formatDateTime() {
+    return fn.format(dateTime, "yyyy-MM-dd HH:mm:ss");
+  }
+
+  @Benchmark
+  public String formatNumber() {
+    return fn.format(number, "#,###.00");
+  }
+
+  @Benchmark
+  public Number roundDecimal() {
+    return fn.round(decimal, 2);
+  }
+
+  @Benchmark
+  public Number roundDouble() {
+    return fn.round(number, 2);
+  }
+
+  @Benchmark
+  public Number roundInteger() {
+    return fn.round(integer, 2);
+  }
+
+  @Benchmark
+  public String concat() {
+    return fn.concat("ab", integer, "c");
+  }
+
+  @Benchmark
+  public Integer toInt() {
+    return fn.toInt("123456");
+  }
+}
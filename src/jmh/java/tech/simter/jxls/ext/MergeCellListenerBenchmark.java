@@ -0,0 +1,81 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.jxls.common.AreaRef;
+import org.jxls.common.CellRef;
+import org.jxls.common.Context;
+import org.jxls.transform.poi.PoiTransformer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the {@link EachMergeCommand.MergeCellListener} in isolation.
+ * <p>
+ * The main rows span columns A:D, the sub rows span columns C:D, and every main row has 3 sub rows.
+ *
+ * @author RJ
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeCellListenerBenchmark {
+  private static final String SHEET = "Sheet1";
+  private static final int SUBS = 3;
+
+  @Param({"1000", "10000", "100000"})
+  public int groups;
+
+  // merge every group at once or all groups at the end
+  @Param({"false", "true"})
+  public boolean incremental;
+
+  private XSSFWorkbook workbook;
+  private EachMergeCommand.MergeCellListener listener;
+  private final Context context = new Context();
+  private final CellRef src = new CellRef(SHEET, 0, 0);
+  private CellRef[] parentCells;
+  private CellRef[] childCells;
+
+  @Setup(Level.Trial)
+  public void createCells() {
+    parentCells = new CellRef[groups];
+    childCells = new CellRef[groups * SUBS];
+    for (int i = 0; i < groups; i++) {
+      parentCells[i] = new CellRef(SHEET, i * SUBS, 0);
+      for (int j = 0; j < SUBS; j++) childCells[i * SUBS + j] = new CellRef(SHEET, i * SUBS + j, 2);
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void createListener() {
+    workbook = new XSSFWorkbook();
+    workbook.createSheet(SHEET);
+    PoiTransformer transformer = PoiTransformer.createTransformer(workbook);
+    AreaRef parent = new AreaRef(new CellRef(SHEET, 0, 0), new CellRef(SHEET, 0, 3));
+    AreaRef child = new AreaRef(new CellRef(SHEET, 0, 2), new CellRef(SHEET, 0, 3));
+    listener = new EachMergeCommand.MergeCellListener(transformer, parent, Collections.singletonList(child),
+      incremental);
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeWorkbook() throws IOException {
+    workbook.close();
+  }
+
+  // the per-cell path plus the merge of all groups at the end
+  @Benchmark
+  @BenchmarkMode({Mode.SingleShotTime})
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int transformAndMerge() {
+    for (int i = 0; i < groups; i++) {
+      for (int j = 0; j < SUBS; j++) listener.afterTransformCell(src, childCells[i * SUBS + j], context);
+      listener.afterTransformCell(src, parentCells[i], context);
+    }
+    listener.finish();
+    return workbook.getSheet(SHEET).getNumMergedRegions();
+  }
+}
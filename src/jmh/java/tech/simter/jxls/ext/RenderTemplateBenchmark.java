@@ -0,0 +1,140 @@
+package tech.simter.jxls.ext;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark {@link JxlsUtils#renderTemplate} and {@link JxlsUtils#renderTemplate2FlatFile} with the bundled templates.
+ * <p>
+ * Run a subset by the jmh args, for example: {@code -Djmh.args="RenderTemplate -p rows=1000 -prof gc"}.
+ * A combination that renders more rows than a sheet holds fails its setup instead of rendering fewer rows.
+ *
+ * @author RJ
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RenderTemplateBenchmark {
+  @State(Scope.Benchmark)
+  public static class Xlsx {
+    @Param({"each-merge.xlsx", "each-merge2.xlsx", "two-sub-list.xlsx", "dynamic-column.xlsx",
+      "common-functions-complex.xlsx"})
+    public String template;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    CompiledTemplate compiledTemplate;
+    Map<String, Object> data;
+    RenderOptions options;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      checkSheetRows(template, rows, RenderOptions.XLSX_MAX_ROWS);
+      compiledTemplate = load(template);
+      data = BenchmarkData.generate(template, rows);
+      options = new RenderOptions().setStreaming(streaming);
+    }
+  }
+
+  // xls could not be streamed
+  @State(Scope.Benchmark)
+  public static class Xls {
+    @Param({"common-functions-complex.xls"})
+    public String template;
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    CompiledTemplate compiledTemplate;
+    Map<String, Object> data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      checkSheetRows(template, rows, RenderOptions.XLS_MAX_ROWS);
+      compiledTemplate = load(template);
+      data = BenchmarkData.generate(template, rows);
+    }
+  }
+
+  // the templates without jx:grid, to compare the csv with the xlsx of the same rows
+  @State(Scope.Benchmark)
+  public static class Flat {
+    @Param({"each-merge.xlsx", "each-merge2.xlsx", "two-sub-list.xlsx", "common-functions-complex.xlsx"})
+    public String template;
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    CompiledTemplate compiledTemplate;
+    Map<String, Object> data;
+    FlatFileOptions options;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      compiledTemplate = load(template);
+      data = BenchmarkData.generate(template, rows);
+      options = FlatFileOptions.csv();
+    }
+  }
+
+  // a template of no rows
+  @State(Scope.Benchmark)
+  public static class Fixed {
+    CompiledTemplate compiledTemplate;
+    Map<String, Object> data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      compiledTemplate = load("common-functions.xlsx");
+      data = BenchmarkData.generate("common-functions.xlsx", 0);
+    }
+  }
+
+  @Benchmark
+  public long renderXlsx(Xlsx state) {
+    return render(state.compiledTemplate, state.data, state.options);
+  }
+
+  @Benchmark
+  public long renderXls(Xls state) {
+    return render(state.compiledTemplate, state.data, null);
+  }
+
+  @Benchmark
+  public long renderFixed(Fixed state) {
+    return render(state.compiledTemplate, state.data, null);
+  }
+
+  @Benchmark
+  public long renderFlat(Flat state) {
+    BenchmarkData.CountingNullOutputStream output = new BenchmarkData.CountingNullOutputStream();
+    JxlsUtils.renderTemplate2FlatFile(state.compiledTemplate, state.data, output, state.options);
+    return output.count;
+  }
+
+  private static long render(CompiledTemplate template, Map<String, Object> data, RenderOptions options) {
+    BenchmarkData.CountingNullOutputStream output = new BenchmarkData.CountingNullOutputStream();
+    JxlsUtils.renderTemplate(template, data, output, options);
+    return output.count;
+  }
+
+  private static CompiledTemplate load(String template) {
+    return CompiledTemplate.of(template,
+      RenderTemplateBenchmark.class.getClassLoader().getResourceAsStream("templates/" + template));
+  }
+
+  private static void checkSheetRows(String template, int rows, int maxRows) {
+    long sheetRows = BenchmarkData.sheetRows(template, rows);
+    if (sheetRows > maxRows)
+      throw new IllegalArgumentException(template + " renders " + sheetRows + " sheet rows by " + rows
+        + " rows, over the " + maxRows + " rows of a sheet");
+  }
+}
@@ -0,0 +1,52 @@
+package tech.simter.jxls.ext;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+/**
+ * The result of {@link JxlsUtils#renderBatch}.
+ *
+ * @author RJ
+ */
+public final class BatchResult {
+  private final int total;
+  private final SortedMap<Integer, Throwable> failures;
+
+  BatchResult(int total, SortedMap<Integer, Throwable> failures) {
+    this.total = total;
+    this.failures = Collections.unmodifiableSortedMap(failures);
+  }
+
+  /**
+   * @return the number of items in the batch
+   */
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * @return the number of items rendered successfully
+   */
+  public int getSucceeded() {
+    return total - failures.size();
+  }
+
+  /**
+   * @return the failure of each failed item, keyed by the item index
+   */
+  public SortedMap<Integer, Throwable> getFailures() {
+    return failures;
+  }
+
+  /**
+   * @return true if all items are rendered successfully
+   */
+  public boolean isAllSucceeded() {
+    return failures.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "BatchResult{total=" + total + ", failed=" + failures.keySet() + "}";
+  }
+}
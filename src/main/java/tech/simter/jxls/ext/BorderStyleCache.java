@@ -0,0 +1,91 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A workbook-scoped cache that maps a (base style, border set) pair to one shared {@link CellStyle}.
+ * <p>
+ * {@link org.apache.poi.ss.util.RegionUtil} sets each border side of each cell through
+ * {@link org.apache.poi.ss.util.CellUtil}, which searches all the workbook styles for every call.
+ * This cache creates the bordered style once for each distinct pair,
+ * so xls outputs also stay away from the 4000 styles limit.
+ *
+ * @author RJ
+ */
+final class BorderStyleCache {
+  private static final Map<Workbook, BorderStyleCache> caches = Collections.synchronizedMap(new WeakHashMap<>());
+  private static final int KEEP = 0xF; // keep the border of the base style
+
+  // base style index and border codes - style index.
+  // keep the index but not the style, styles reference their workbook and would never let it be collected
+  private final Map<Long, Short> styles = new HashMap<>();
+
+  private BorderStyleCache() {
+  }
+
+  static BorderStyleCache of(Workbook workbook) {
+    return caches.computeIfAbsent(workbook, k -> new BorderStyleCache());
+  }
+
+  /**
+   * Set the borders on the outline of the region, like {@link org.apache.poi.ss.util.RegionUtil} does.
+   *
+   * @param sheet  the sheet of the region
+   * @param region the region
+   * @param top    the top border
+   * @param right  the right border
+   * @param bottom the bottom border
+   * @param left   the left border
+   */
+  synchronized void setBorders(Sheet sheet, CellRangeAddress region,
+                               BorderStyle top, BorderStyle right, BorderStyle bottom, BorderStyle left) {
+    Row row;
+    Cell cell;
+    for (int r = region.getFirstRow(); r <= region.getLastRow(); r++) {
+      row = sheet.getRow(r);
+      if (row == null) row = sheet.createRow(r);
+      for (int c = region.getFirstColumn(); c <= region.getLastColumn(); c++) {
+        cell = row.getCell(c);
+        if (cell == null) cell = row.createCell(c);
+        cell.setCellStyle(getStyle(sheet.getWorkbook(), cell.getCellStyle(),
+          r == region.getFirstRow() ? top : null,
+          c == region.getLastColumn() ? right : null,
+          r == region.getLastRow() ? bottom : null,
+          c == region.getFirstColumn() ? left : null));
+      }
+    }
+  }
+
+  // null border means keep the border of the base style
+  private CellStyle getStyle(Workbook workbook, CellStyle base,
+                             BorderStyle top, BorderStyle right, BorderStyle bottom, BorderStyle left) {
+    if ((top == null || top == base.getBorderTopEnum())
+      && (right == null || right == base.getBorderRightEnum())
+      && (bottom == null || bottom == base.getBorderBottomEnum())
+      && (left == null || left == base.getBorderLeftEnum())) return base;
+
+    long key = ((long) base.getIndex() & 0xFFFF) << 16
+      | code(top) << 12 | code(right) << 8 | code(bottom) << 4 | code(left);
+    Short index = styles.get(key);
+    if (index != null) return workbook.getCellStyleAt(index);
+
+    CellStyle style = workbook.createCellStyle();
+    style.cloneStyleFrom(base);
+    if (top != null) style.setBorderTop(top);
+    if (right != null) style.setBorderRight(right);
+    if (bottom != null) style.setBorderBottom(bottom);
+    if (left != null) style.setBorderLeft(left);
+    styles.put(key, style.getIndex());
+    return style;
+  }
+
+  private static int code(BorderStyle border) {
+    return border == null ? KEEP : border.getCode();
+  }
+}
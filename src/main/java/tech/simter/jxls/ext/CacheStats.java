@@ -0,0 +1,62 @@
+package tech.simter.jxls.ext;
+
+/**
+ * An immutable snapshot of a cache's statistics.
+ *
+ * @author RJ
+ */
+public final class CacheStats {
+  private final long hitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final int size;
+
+  public CacheStats(long hitCount, long missCount, long evictionCount, int size) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+  }
+
+  /**
+   * @return the number of lookups that found a cached value
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return the number of lookups that had to create a new value
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * @return the number of values removed because the cache was full
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return the number of values currently in the cache
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the ratio of hits to all lookups, 1.0 if there are no lookups yet
+   */
+  public double getHitRate() {
+    long total = hitCount + missCount;
+    return total == 0 ? 1.0 : (double) hitCount / total;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount
+      + ", evictionCount=" + evictionCount + ", size=" + size + "}";
+  }
+}
@@ -0,0 +1,160 @@
+package tech.simter.jxls.ext;
+
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+import org.apache.commons.logging.LogFactory;
+import org.jxls.common.JxlsException;
+import org.jxls.expression.ExpressionEvaluator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A JEXL {@link ExpressionEvaluator} that compiles each distinct expression once per JVM.
+ * <p>
+ * The default jxls evaluator keeps its compiled expressions per thread and per transformer config.
+ * This one keeps them in a bounded LRU cache shared by all threads and templates, each compiled once
+ * by one thread-safe {@link JexlEngine}. {@link JxlsUtils} installs {@link #getSingleton()} by default.
+ * The properties are read by the generated {@link PropertyAccessors} instead of reflection.
+ *
+ * @author RJ
+ */
+public class CachingExpressionEvaluator implements ExpressionEvaluator {
+  public static final int DEFAULT_MAX_SIZE = 4096;
+  private static CachingExpressionEvaluator singleton = new CachingExpressionEvaluator(DEFAULT_MAX_SIZE);
+
+  public static CachingExpressionEvaluator getSingleton() {
+    return singleton;
+  }
+
+  private final JexlEngine jexl;
+  private final int maxSize;
+  private final LinkedHashMap<String, Expression> expressions; // access order, guarded by itself
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+  private final String expression; // the bound expression of evaluate(Map)
+
+  /**
+   * The engine reads the properties by the {@link PropertyAccessorUberspect}.
+   *
+   * @param maxSize the max number of compiled expressions to keep
+   */
+  public CachingExpressionEvaluator(int maxSize) {
+    this(new JexlEngine(new PropertyAccessorUberspect(LogFactory.getLog(JexlEngine.class)), null, null, null),
+      maxSize);
+  }
+
+  /**
+   * @param jexl    the engine to compile the expressions
+   * @param maxSize the max number of compiled expressions to keep
+   */
+  public CachingExpressionEvaluator(JexlEngine jexl, int maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be greater than 0");
+    this.jexl = jexl;
+    this.maxSize = maxSize;
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+    this.expressions = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+        if (size() <= CachingExpressionEvaluator.this.maxSize) return false;
+        evictions.increment();
+        return true;
+      }
+    };
+    this.expression = null;
+  }
+
+  // share the cache of the parent, bound to the expression
+  private CachingExpressionEvaluator(CachingExpressionEvaluator parent, String expression) {
+    this.jexl = parent.jexl;
+    this.maxSize = parent.maxSize;
+    this.expressions = parent.expressions;
+    this.hits = parent.hits;
+    this.misses = parent.misses;
+    this.evictions = parent.evictions;
+    this.expression = expression;
+    compile(expression); // fail fast on syntax error
+  }
+
+  /**
+   * Create an evaluator bound to the expression, shares the cache of this one.
+   *
+   * @param expression the expression for {@link #evaluate(Map)}
+   * @return the bound evaluator
+   */
+  public CachingExpressionEvaluator bind(String expression) {
+    return new CachingExpressionEvaluator(this, expression);
+  }
+
+  @Override
+  public Object evaluate(String expression, Map<String, Object> context) {
+    try {
+      return compile(expression).evaluate(new MapContext(context));
+    } catch (RuntimeException e) {
+      throw new JxlsException("An error occurred when evaluating expression " + expression, e);
+    }
+  }
+
+  @Override
+  public Object evaluate(Map<String, Object> context) {
+    if (expression == null) throw new IllegalStateException("No bound expression, see bind(String)");
+    return evaluate(expression, context);
+  }
+
+  @Override
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * Get the compiled expression from the cache, compile and cache it if it is not cached yet.
+   *
+   * @param expression the expression
+   * @return the compiled expression
+   */
+  public Expression compile(String expression) {
+    // compiled inside the lock, so an expression is compiled and counted once however many threads miss it
+    synchronized (expressions) {
+      Expression compiled = expressions.get(expression);
+      if (compiled != null) {
+        hits.increment();
+        return compiled;
+      }
+
+      misses.increment();
+      compiled = jexl.createExpression(expression);
+      expressions.put(expression, compiled); // evicts the least recently used one if full
+      return compiled;
+    }
+  }
+
+  /**
+   * @return the engine that compiles the expressions
+   */
+  public JexlEngine getJexlEngine() {
+    return jexl;
+  }
+
+  /**
+   * @return a snapshot of the cache statistics
+   */
+  public CacheStats getStats() {
+    synchronized (expressions) {
+      return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expressions.size());
+    }
+  }
+
+  /**
+   * Remove all compiled expressions.
+   */
+  public void clear() {
+    synchronized (expressions) {
+      expressions.clear();
+    }
+  }
+}
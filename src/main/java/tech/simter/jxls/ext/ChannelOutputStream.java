@@ -0,0 +1,78 @@
+package tech.simter.jxls.ext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An {@link OutputStream} that writes to a channel through a large direct buffer.
+ * <p>
+ * POI writes the workbook package in many small chunks, this gathers them to one channel write per buffer,
+ * without the heap copy of {@link java.nio.channels.Channels#newOutputStream}.
+ * The buffers are pooled, and {@link #close()} flushes and returns the buffer but never closes the channel.
+ *
+ * @author RJ
+ */
+final class ChannelOutputStream extends OutputStream {
+  static final int BUFFER_SIZE = 1 << 20;
+  private static final BlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(16);
+
+  private final WritableByteChannel channel;
+  private ByteBuffer buffer;
+
+  ChannelOutputStream(WritableByteChannel channel) {
+    this.channel = channel;
+    ByteBuffer pooled = POOL.poll();
+    this.buffer = pooled != null ? pooled : ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    if (!buffer.hasRemaining()) drain();
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      if (!buffer.hasRemaining()) drain();
+      int n = Math.min(len, buffer.remaining());
+      buffer.put(b, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    drain();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buffer == null) return;
+    try {
+      drain();
+    } finally {
+      buffer.clear();
+      POOL.offer(buffer);
+      buffer = null;
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (buffer == null) throw new IOException("Stream closed");
+  }
+}
@@ -1,10 +1,16 @@
 package tech.simter.jxls.ext;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAccessor;
-import java.util.Arrays;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
@@ -14,12 +20,33 @@ import java.util.stream.Collectors;
  * 2) format number.<br>
  * 3) concat string.<br>
  * 4) string to int.<br>
+ * 5) round number.<br>
+ * 6) sum, avg and count of the items.<br>
+ * <p>
+ * The compiled {@link DateTimeFormatter}s are shared by all threads,
+ * the compiled {@link DecimalFormat}s are not thread-safe so each thread keeps its own.
+ * Both caches are keyed by pattern and locale and bounded by {@link #MAX_CACHED_FORMATS}.
  *
  * @author RJ
  */
 public final class CommonFunctions {
+  public static final int MAX_CACHED_FORMATS = 256;
   private static CommonFunctions singleton = new CommonFunctions();
 
+  // locale - pattern - formatter
+  private final ConcurrentMap<Locale, ConcurrentMap<String, DateTimeFormatter>> dateTimeFormatters
+    = new ConcurrentHashMap<>();
+  private final LongAdder dateTimeHits = new LongAdder();
+  private final LongAdder dateTimeMisses = new LongAdder();
+  private final LongAdder dateTimeEvictions = new LongAdder();
+
+  // locale - pattern - format of current thread
+  private final ThreadLocal<Map<Locale, Map<String, DecimalFormat>>> numberFormats
+    = ThreadLocal.withInitial(HashMap::new);
+  private final LongAdder numberHits = new LongAdder();
+  private final LongAdder numberMisses = new LongAdder();
+  private final LongAdder numberEvictions = new LongAdder();
+
   public static CommonFunctions getSingleton() {
     return singleton;
   }
@@ -35,7 +62,20 @@ public final class CommonFunctions {
    * @return 格式化后的值
    */
   public String format(TemporalAccessor temporal, String pattern) {
-    return temporal == null ? null : DateTimeFormatter.ofPattern(pattern).format(temporal);
+    return temporal == null ? null : getDateTimeFormatter(pattern, Locale.getDefault(Locale.Category.FORMAT))
+      .format(temporal);
+  }
+
+  /**
+   * java.time 的格式化。
+   *
+   * @param temporal 值
+   * @param pattern  格式
+   * @param locale   区域
+   * @return 格式化后的值
+   */
+  public String format(TemporalAccessor temporal, String pattern, Locale locale) {
+    return temporal == null ? null : getDateTimeFormatter(pattern, locale).format(temporal);
   }
 
   /**
@@ -46,20 +86,246 @@ public final class CommonFunctions {
    * @return 格式化后的值
    */
   public String format(Number number, String pattern) {
-    return number == null ? null : new DecimalFormat(pattern).format(number);
+    return number == null ? null : getDecimalFormat(pattern, Locale.getDefault(Locale.Category.FORMAT))
+      .format(number);
+  }
+
+  /**
+   * 数字的格式化。
+   *
+   * @param number  值
+   * @param pattern 格式
+   * @param locale  区域
+   * @return 格式化后的值
+   */
+  public String format(Number number, String pattern, Locale locale) {
+    return number == null ? null : getDecimalFormat(pattern, locale).format(number);
+  }
+
+  private DateTimeFormatter getDateTimeFormatter(String pattern, Locale locale) {
+    ConcurrentMap<String, DateTimeFormatter> formatters = dateTimeFormatters.get(locale);
+    if (formatters == null) formatters = dateTimeFormatters.computeIfAbsent(locale, k -> new ConcurrentHashMap<>());
+
+    DateTimeFormatter formatter = formatters.get(pattern);
+    if (formatter != null) {
+      dateTimeHits.increment();
+      return formatter;
+    }
+
+    dateTimeMisses.increment();
+    formatter = DateTimeFormatter.ofPattern(pattern, locale);
+    if (formatters.size() >= MAX_CACHED_FORMATS) {
+      // no access order in a concurrent map, just drop any one
+      Iterator<String> it = formatters.keySet().iterator();
+      if (it.hasNext()) {
+        it.next();
+        it.remove();
+        dateTimeEvictions.increment();
+      }
+    }
+    formatters.put(pattern, formatter);
+    return formatter;
+  }
+
+  private DecimalFormat getDecimalFormat(String pattern, Locale locale) {
+    Map<String, DecimalFormat> formats = numberFormats.get().get(locale);
+    if (formats == null) {
+      formats = new LinkedHashMap<String, DecimalFormat>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DecimalFormat> eldest) {
+          if (size() <= MAX_CACHED_FORMATS) return false;
+          numberEvictions.increment();
+          return true;
+        }
+      };
+      numberFormats.get().put(locale, formats);
+    }
+
+    DecimalFormat format = formats.get(pattern);
+    if (format != null) {
+      numberHits.increment();
+      return format;
+    }
+
+    numberMisses.increment();
+    format = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(locale));
+    formats.put(pattern, format);
+    return format;
+  }
+
+  /**
+   * @return the statistics of the {@link DateTimeFormatter} cache shared by all threads
+   */
+  public CacheStats getDateTimeFormatterStats() {
+    int size = dateTimeFormatters.values().stream().mapToInt(Map::size).sum();
+    return new CacheStats(dateTimeHits.sum(), dateTimeMisses.sum(), dateTimeEvictions.sum(), size);
+  }
+
+  /**
+   * @return the statistics of the {@link DecimalFormat} caches, the size is the one of current thread
+   */
+  public CacheStats getNumberFormatStats() {
+    int size = numberFormats.get().values().stream().mapToInt(Map::size).sum();
+    return new CacheStats(numberHits.sum(), numberMisses.sum(), numberEvictions.sum(), size);
   }
 
   /**
    * 数字的四舍五入。
+   * <p>
+   * 整数直接转换，不经过字符串；浮点数按其十进制表示舍入，与 {@link Double#toString} 的结果一致。
    *
    * @param number 值
    * @param scale  小数位数
    * @return 四舍五入后的值
    */
   public Number round(Number number, int scale) {
-    return number == null ? null : (number instanceof BigDecimal ?
-      ((BigDecimal) number).setScale(scale, BigDecimal.ROUND_HALF_UP)
-      : new BigDecimal(number.toString()).setScale(scale, BigDecimal.ROUND_HALF_UP));
+    if (number == null) return null;
+    if (number instanceof BigDecimal) return ((BigDecimal) number).setScale(scale, RoundingMode.HALF_UP);
+    if (isIntegral(number)) {
+      BigDecimal value = BigDecimal.valueOf(number.longValue());
+      return scale >= 0 ? value.setScale(scale) : value.setScale(scale, RoundingMode.HALF_UP);
+    }
+    if (number instanceof Double) return BigDecimal.valueOf(number.doubleValue()).setScale(scale, RoundingMode.HALF_UP);
+    return new BigDecimal(number.toString()).setScale(scale, RoundingMode.HALF_UP);
+  }
+
+  /**
+   * 合计集合中各项的数值。
+   *
+   * @param items 集合、{@link Iterable} 或数组，其中的 null 项被忽略
+   * @return 合计值，整数合计为 {@link Long}，有浮点数时为 {@link Double}，有 {@link BigDecimal} 时为 {@link BigDecimal}
+   */
+  public Number sum(Object items) {
+    return items == null ? null : new Total().addAll(items, null).sum();
+  }
+
+  /**
+   * 合计集合中各项指定属性的数值，如 {@code fn.sum(rows, 'amount')}。
+   *
+   * @param items    集合、{@link Iterable} 或数组
+   * @param property 属性名，项为 {@link Map} 时为键，属性值为 null 的项被忽略
+   * @return 合计值，整数合计为 {@link Long}，有浮点数时为 {@link Double}，有 {@link BigDecimal} 时为 {@link BigDecimal}
+   */
+  public Number sum(Object items, String property) {
+    return items == null ? null : new Total().addAll(items, property).sum();
+  }
+
+  /**
+   * 集合中各项数值的平均值。
+   *
+   * @param items 集合、{@link Iterable} 或数组，其中的 null 项被忽略
+   * @return 平均值，没有值时为 null
+   */
+  public Number avg(Object items) {
+    return items == null ? null : new Total().addAll(items, null).avg();
+  }
+
+  /**
+   * 集合中各项指定属性数值的平均值，如 {@code fn.avg(rows, 'amount')}。
+   *
+   * @param items    集合、{@link Iterable} 或数组
+   * @param property 属性名，项为 {@link Map} 时为键，属性值为 null 的项被忽略
+   * @return 平均值，没有值时为 null
+   */
+  public Number avg(Object items, String property) {
+    return items == null ? null : new Total().addAll(items, property).avg();
+  }
+
+  /**
+   * 集合中非 null 项的个数。
+   *
+   * @param items 集合、{@link Iterable} 或数组
+   * @return 个数
+   */
+  public long count(Object items) {
+    return count(items, null);
+  }
+
+  /**
+   * 集合中指定属性值非 null 的项的个数，如 {@code fn.count(rows, 'amount')}。
+   *
+   * @param items    集合、{@link Iterable} 或数组
+   * @param property 属性名，项为 {@link Map} 时为键
+   * @return 个数
+   */
+  public long count(Object items, String property) {
+    if (items == null) return 0;
+    long count = 0;
+    for (Object item : iterable(items))
+      if (item != null && (property == null || PropertyAccessors.get(item, property) != null)) count++;
+    return count;
+  }
+
+  private static Iterable<?> iterable(Object items) {
+    if (items instanceof Iterable) return (Iterable<?>) items;
+    if (items instanceof Object[]) return Arrays.asList((Object[]) items);
+    throw new IllegalArgumentException("Unsupported items type " + items.getClass().getName());
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+  }
+
+  /**
+   * One pass total of the values, kept in a long until a floating or big decimal value comes,
+   * so no value is boxed while adding.
+   */
+  private static final class Total {
+    private long longSum;
+    private double doubleSum;
+    private BigDecimal decimalSum;
+    private boolean hasDouble;
+    private long count;
+
+    Total addAll(Object items, String property) {
+      for (Object item : iterable(items)) add(item, property);
+      return this;
+    }
+
+    private void add(Object item, String property) {
+      if (item == null) return;
+      Object value = property == null ? item : PropertyAccessors.get(item, property);
+      if (value == null) return;
+      if (!(value instanceof Number))
+        throw new IllegalArgumentException("Not a number: " + value + (property == null ? "" : " of " + property));
+      Number number = (Number) value;
+      count++;
+      if (isIntegral(number)) {
+        long n = number.longValue();
+        long r = longSum + n;
+        if (((longSum ^ r) & (n ^ r)) < 0) { // overflow, move the long total to the big decimal one
+          addDecimal(BigDecimal.valueOf(longSum));
+          longSum = n;
+        } else {
+          longSum = r;
+        }
+      } else if (number instanceof Double || number instanceof Float) {
+        hasDouble = true;
+        doubleSum += number.doubleValue();
+      } else {
+        addDecimal(number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal(number.toString()));
+      }
+    }
+
+    private void addDecimal(BigDecimal value) {
+      decimalSum = decimalSum == null ? value : decimalSum.add(value);
+    }
+
+    Number sum() {
+      if (decimalSum != null) {
+        BigDecimal total = decimalSum.add(BigDecimal.valueOf(longSum));
+        return hasDouble ? total.add(BigDecimal.valueOf(doubleSum)) : total;
+      }
+      if (hasDouble) return doubleSum + longSum;
+      return longSum;
+    }
+
+    Number avg() {
+      if (count == 0) return null;
+      Number sum = sum();
+      if (sum instanceof BigDecimal) return ((BigDecimal) sum).divide(BigDecimal.valueOf(count), MathContext.DECIMAL64);
+      return sum.doubleValue() / count;
+    }
   }
 
   /**
@@ -80,6 +346,6 @@ public final class CommonFunctions {
    * @return 整数
    */
   public Integer toInt(String str) {
-    return str == null ? null : new Integer(str);
+    return str == null ? null : Integer.valueOf(str);
   }
 }
@@ -0,0 +1,270 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+/**
+ * A template that has been read once and can be rendered many times.
+ * <p>
+ * Keeps a pristine copy of the template bytes. Every render opens its own stream over these bytes,
+ * so the workbook jxls builds from it is private to that render.
+ * A large template file is memory-mapped from a private copy instead of read to the heap,
+ * so a later change of the file never changes the instance.
+ * The {@link RenderPlan} of the template comments is read on the first render and builds the areas of every render,
+ * a template loaded by {@link TemplatePrecompiler} has it already.
+ *
+ * @author RJ
+ */
+public final class CompiledTemplate {
+  private static Logger logger = LoggerFactory.getLogger(CompiledTemplate.class);
+  // the template files larger than this are mapped
+  static final long MAP_THRESHOLD = 1 << 20;
+  private final String key;
+  private final ByteBuffer bytes; // read-only, every stream reads its own duplicate
+  private final boolean xlsx;
+  private final RenderPlan plan;  // the precompiled plan, null if not precompiled
+  private volatile Optional<RenderPlan> commentPlan; // read on the first render, empty if the plan not supports
+  private volatile String contentHash; // hashed on the first call
+  volatile FlatTemplate flatTemplate; // read on the first flat file render
+  volatile DirectXlsxWriter directWriter; // read on the first direct render
+
+  CompiledTemplate(String key, byte[] bytes) {
+    this(key, ByteBuffer.wrap(bytes), null);
+  }
+
+  CompiledTemplate(String key, byte[] bytes, RenderPlan plan) {
+    this(key, ByteBuffer.wrap(bytes), plan);
+  }
+
+  private CompiledTemplate(String key, ByteBuffer bytes, RenderPlan plan) {
+    this.key = key;
+    this.bytes = bytes.asReadOnlyBuffer();
+    this.plan = plan;
+    // xlsx is a zip package, starts with 'PK'
+    this.xlsx = bytes.limit() > 1 && bytes.get(0) == 'P' && bytes.get(1) == 'K';
+  }
+
+  /**
+   * Read the template to a new instance that is keyed by the SHA-256 hash of its content.
+   *
+   * @param template the excel template, can be xlsx or xls format
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public static CompiledTemplate of(InputStream template) {
+    byte[] bytes = readAll(template);
+    return new CompiledTemplate(hash(bytes), bytes);
+  }
+
+  /**
+   * Read the template to a new instance with the specified key.
+   *
+   * @param key      the template key
+   * @param template the excel template, can be xlsx or xls format
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public static CompiledTemplate of(String key, InputStream template) {
+    return new CompiledTemplate(key, readAll(template));
+  }
+
+  /**
+   * Read the template file to a new instance that is keyed by the SHA-256 hash of its content,
+   * a file larger than 1 MB is memory-mapped from a private copy.
+   *
+   * @param template the excel template file, can be xlsx or xls format
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public static CompiledTemplate of(Path template) {
+    ByteBuffer bytes = readFile(template);
+    return new CompiledTemplate(hash(bytes), bytes, null);
+  }
+
+  /**
+   * Read the template file to a new instance with the specified key,
+   * a file larger than 1 MB is memory-mapped from a private copy.
+   *
+   * @param key      the template key
+   * @param template the excel template file, can be xlsx or xls format
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public static CompiledTemplate of(String key, Path template) {
+    return new CompiledTemplate(key, readFile(template), null);
+  }
+
+  /**
+   * @return the template key, the template id or the hash of the template content
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return the SHA-256 hash of the template content, the same as the key of a template keyed by its content
+   */
+  public String getContentHash() {
+    String value = contentHash;
+    if (value == null) contentHash = value = hash(bytes);
+    return value;
+  }
+
+  /**
+   * @return true if the template is xlsx format, false if it is xls format
+   */
+  public boolean isXlsx() {
+    return xlsx;
+  }
+
+  /**
+   * Get the render plan to build the areas of every render, the precompiled one,
+   * or the one read from the template comments on the first call.
+   *
+   * @return the render plan, null if the template has a command the plan not supports,
+   * then the areas of every render are built from the template comments
+   * @throws RuntimeException if has IOException inner
+   */
+  public RenderPlan getPlan() {
+    if (plan != null) return plan;
+    Optional<RenderPlan> read = commentPlan;
+    if (read == null) commentPlan = read = readPlan(); // a race only reads twice
+    return read.orElse(null);
+  }
+
+  private Optional<RenderPlan> readPlan() {
+    try (Workbook workbook = WorkbookFactory.create(openStream())) {
+      return Optional.of(RenderPlan.of(workbook));
+    } catch (IllegalArgumentException e) {
+      // such as a custom command only registered to XlsCommentAreaBuilder
+      logger.debug("Build the areas of {} from the template comments: {}", key, e.getMessage());
+      return Optional.empty();
+    } catch (IOException | InvalidFormatException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return the template size in bytes
+   */
+  public int getSize() {
+    return bytes.limit();
+  }
+
+  /**
+   * Open a new stream over the pristine template bytes.
+   *
+   * @return the template stream
+   */
+  public InputStream openStream() {
+    ByteBuffer buffer = bytes.duplicate();
+    return new InputStream() {
+      @Override
+      public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (!buffer.hasRemaining()) return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+      }
+
+      @Override
+      public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+      }
+
+      @Override
+      public int available() {
+        return buffer.remaining();
+      }
+    };
+  }
+
+  // a mapping of the file itself would see a later change of it, or fail on a truncated one
+  private static ByteBuffer readFile(Path template) {
+    try {
+      if (Files.size(template) <= MAP_THRESHOLD) return ByteBuffer.wrap(Files.readAllBytes(template));
+      Path copy = Files.createTempFile("jxls-template-", ".tmp");
+      try {
+        Files.copy(template, copy, StandardCopyOption.REPLACE_EXISTING);
+        // the mapping stays valid after the channel is closed and the copy is deleted
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ)) {
+          return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+      } finally {
+        try {
+          Files.deleteIfExists(copy);
+        } catch (IOException e) {
+          // a mapped file could not be deleted on some platforms
+          copy.toFile().deleteOnExit();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  static byte[] readAll(InputStream in) {
+    if (in == null) throw new IllegalArgumentException("template could not be null");
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(8192, in.available()));
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } finally {
+      try {
+        in.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  static String hash(byte[] bytes) {
+    return hash(ByteBuffer.wrap(bytes));
+  }
+
+  private static String hash(ByteBuffer bytes) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(bytes.duplicate());
+      byte[] digest = md.digest();
+      StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (byte b : digest) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledTemplate{key=" + key + ", size=" + bytes.limit() + ", xlsx=" + xlsx
+      + ", precompiled=" + (plan != null) + "}";
+  }
+}
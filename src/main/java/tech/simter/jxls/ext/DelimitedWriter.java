@@ -0,0 +1,127 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.time.*;
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Write the rendered rows to a delimiter separated text, such as CSV or TSV.
+ * <p>
+ * A value is quoted as RFC 4180 if it has the delimiter, a quote or a line break.
+ * A merged cell is left blank, or repeats the value above if {@link FlatFileOptions#isRepeatMergedCells()}.
+ * A date of a template cell with an excel date format is formatted by that format as excel shows it,
+ * the other numbers and dates are formatted by the patterns of the {@link FlatFileOptions}
+ * through the cached formats of {@link CommonFunctions}.
+ *
+ * @author RJ
+ */
+final class DelimitedWriter implements Consumer<FlatRenderer.FlatRow> {
+  private final Writer out;
+  private final FlatFileOptions options;
+  private final CommonFunctions fn = CommonFunctions.getSingleton();
+  private final DataFormatter formatter = new DataFormatter(); // not thread-safe, one for each writer
+  private final char delimiter;
+  private final String lineSeparator;
+  private final boolean repeatMerged;
+  private Object[] previous = new Object[0]; // the values of the previous row, to repeat the merged cells
+
+  /**
+   * @param out     the output, should be buffered
+   * @param options the options
+   */
+  DelimitedWriter(Writer out, FlatFileOptions options) {
+    this.out = out;
+    this.options = options;
+    this.delimiter = options.getDelimiter();
+    this.lineSeparator = options.getLineSeparator();
+    this.repeatMerged = options.isRepeatMergedCells();
+  }
+
+  /**
+   * @throws RuntimeException if has IOException inner
+   */
+  @Override
+  public void accept(FlatRenderer.FlatRow row) {
+    Object[] values = row.values;
+    if (repeatMerged) {
+      for (int i = 0; i < values.length; i++) if (row.merged[i] && i < previous.length) values[i] = previous[i];
+      previous = values;
+    }
+    try {
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) out.write(delimiter);
+        if (values[i] != null) write(format(values[i], row.cells[i]));
+      }
+      out.write(lineSeparator);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  private void write(String text) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < text.length() && !quote; i++) {
+      char c = text.charAt(i);
+      quote = c == delimiter || c == '"' || c == '\r' || c == '\n';
+    }
+    if (!quote) {
+      out.write(text);
+      return;
+    }
+    out.write('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"') out.write('"');
+      out.write(c);
+    }
+    out.write('"');
+  }
+
+  private String format(Object value, FlatTemplate.TemplateCell cell) {
+    if (value instanceof String) return (String) value;
+    if (cell != null && cell.dateFormat != null) {
+      Date date = toDate(value);
+      if (date != null)
+        return formatter.formatRawCellContents(DateUtil.getExcelDate(date), cell.dateFormatIndex, cell.dateFormat);
+    }
+    if (value instanceof Number) {
+      if (options.getNumberPattern() != null) return fn.format((Number) value, options.getNumberPattern());
+      if (value instanceof BigDecimal) return ((BigDecimal) value).toPlainString();
+      if (value instanceof Double || value instanceof Float) {
+        double d = ((Number) value).doubleValue();
+        // the integral values of the excel cells, without the ".0"
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) return Long.toString((long) d);
+      }
+      return value.toString();
+    }
+    if (value instanceof LocalDate) return fn.format((LocalDate) value, options.getDatePattern());
+    if (value instanceof LocalDateTime || value instanceof OffsetDateTime || value instanceof ZonedDateTime)
+      return fn.format((TemporalAccessor) value, options.getDateTimePattern());
+    if (value instanceof Date) return fn.format(LocalDateTime.ofInstant(((Date) value).toInstant(),
+      ZoneId.systemDefault()), options.getDateTimePattern());
+    if (value instanceof Calendar) return fn.format(LocalDateTime.ofInstant(((Calendar) value).toInstant(),
+      ZoneId.systemDefault()), options.getDateTimePattern());
+    return value.toString();
+  }
+
+  // the date of the value in the default time zone, the same as the excel cell of it, null if not a date
+  private static Date toDate(Object value) {
+    if (value instanceof Date) return (Date) value;
+    if (value instanceof Calendar) return ((Calendar) value).getTime();
+    if (value instanceof LocalDate)
+      return Date.from(((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    if (value instanceof LocalDateTime)
+      return Date.from(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant());
+    if (value instanceof OffsetDateTime) return Date.from(((OffsetDateTime) value).toInstant());
+    if (value instanceof ZonedDateTime) return Date.from(((ZonedDateTime) value).toInstant());
+    return null;
+  }
+}
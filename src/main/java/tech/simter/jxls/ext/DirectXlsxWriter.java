@@ -0,0 +1,367 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.model.CalculationChain;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Write an xlsx template straight to the SpreadsheetML parts of the output zip, without a POI workbook.
+ * <p>
+ * The package of the template is read once: the parts are copied as is, except the sheets of the areas,
+ * their comments that hold the commands and the calculation chain.
+ * A rendered sheet keeps its template XML around the sheet data, such as the columns, the panes and the page setup,
+ * its sheet data is written row by row from the {@link FlatRenderer}, with the cell styles of the template cells.
+ * The merged regions of the template cells are collected by a {@link MergeCollector}, the merge commands are not
+ * supported, because their merged cells take new bordered styles. The rendered strings are written inline,
+ * so a render never holds its distinct strings in memory, the shared strings of the template are kept
+ * for the sheets without area.
+ *
+ * @author RJ
+ */
+final class DirectXlsxWriter {
+  private static final Pattern DIMENSION = Pattern.compile("<dimension\\b[^>]*/>");
+  private static final Pattern LEGACY_DRAWING = Pattern.compile("<legacyDrawing\\b[^>]*/>");
+  private static final Pattern MERGE_CELLS = Pattern.compile("<mergeCells\\b[^>]*/>|<mergeCells\\b.*?</mergeCells>",
+    Pattern.DOTALL);
+  // the elements after the merged cells, see CT_Worksheet
+  private static final Pattern AFTER_MERGE_CELLS = Pattern.compile("<(phoneticPr|conditionalFormatting"
+    + "|dataValidations|hyperlinks|printOptions|pageMargins|pageSetup|headerFooter|rowBreaks|colBreaks"
+    + "|customProperties|cellWatches|ignoredErrors|smartTags|drawing|legacyDrawing|legacyDrawingHF|picture"
+    + "|oleObjects|controls|webPublishItems|tableParts|extLst|/worksheet)[\\s/>]");
+  // the references count of the shared strings, not the unique count
+  private static final Pattern SHARED_STRINGS_COUNT = Pattern.compile("(<sst\\b[^>]*?)\\scount=\"\\d*\"");
+
+  private final FlatTemplate template;
+  private final Map<String, byte[]> parts;         // part name - content, in the template order
+  private final Map<String, SheetPart> sheets;     // part name - the rendered sheet
+  private final Map<String, List<RenderPlan.AreaDef>> areas; // part name - the top areas by their first rows
+
+  private DirectXlsxWriter(CompiledTemplate compiled) {
+    this.template = FlatTemplate.of(compiled);
+    template.plan.getAreas().forEach(DirectXlsxWriter::checkCommands);
+    this.parts = readParts(compiled.openStream());
+    this.sheets = new HashMap<>();
+    this.areas = new HashMap<>();
+    Set<String> removed = new HashSet<>();
+    try (XSSFWorkbook workbook = new XSSFWorkbook(compiled.openStream())) {
+      for (RenderPlan.AreaDef area : template.plan.getAreas()) {
+        XSSFSheet sheet = workbook.getSheet(area.sheetName);
+        if (sheet == null) throw new IllegalArgumentException("No sheet of the area " + area);
+        String partName = partName(sheet.getPackagePart());
+        areas.computeIfAbsent(partName, name -> new ArrayList<>()).add(area);
+        if (!sheets.containsKey(partName)) {
+          // the comments hold the commands, they are not rendered
+          List<String> ids = removeRelationships(sheet.getPackagePart(), removed,
+            XSSFRelation.SHEET_COMMENTS.getRelation(), XSSFRelation.VML_DRAWINGS.getRelation());
+          sheets.put(partName, SheetPart.of(partName, text(parts.get(partName)), !ids.isEmpty()));
+        }
+      }
+      areas.values().forEach(list -> list.sort(Comparator.comparingInt(area -> area.firstRow)));
+
+      // no formula is written, so the calculation chain is out of date
+      CalculationChain chain = workbook.getCalculationChain();
+      if (chain != null) removeRelationships(workbook.getPackagePart(), removed, XSSFRelation.CALC_CHAIN.getRelation());
+
+      // the rendered sheets no longer refer to the template strings, so their references count is out of date
+      SharedStringsTable strings = workbook.getSharedStringSource();
+      String stringsPart = strings == null ? null : partName(strings.getPackagePart());
+      if (stringsPart != null && parts.containsKey(stringsPart)) {
+        String xml = SHARED_STRINGS_COUNT.matcher(text(parts.get(stringsPart))).replaceFirst("$1");
+        parts.put(stringsPart, xml.getBytes(StandardCharsets.UTF_8));
+      }
+    } catch (IOException | InvalidFormatException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+
+    // drop the removed parts and their content types
+    String types = "[Content_Types].xml";
+    String typesXml = text(parts.get(types));
+    for (String part : removed) {
+      parts.remove(part);
+      typesXml = typesXml.replaceAll("<Override\\b[^>]*\\bPartName=\"/" + Pattern.quote(part) + "\"[^>]*/>", "");
+    }
+    parts.put(types, typesXml.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Get the writer of the compiled template, created once and kept by it.
+   *
+   * @param template the compiled template, must be xlsx format
+   * @return the writer
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the template is not xlsx format or has a command not supported
+   */
+  static DirectXlsxWriter of(CompiledTemplate template) {
+    if (!template.isXlsx())
+      throw new IllegalArgumentException("Direct render only support xlsx template: " + template.getKey());
+    DirectXlsxWriter writer = template.directWriter;
+    if (writer == null) template.directWriter = writer = new DirectXlsxWriter(template); // a race only reads twice
+    return writer;
+  }
+
+  // the merged cells of the merge commands take new bordered styles, see BorderStyleCache
+  private static void checkCommands(RenderPlan.AreaDef area) {
+    for (RenderPlan.CommandDef command : area.commands) {
+      if (command.name.equals(EachMergeCommand.COMMAND_NAME) || command.name.equals(GroupMergeCommand.COMMAND_NAME))
+        throw new IllegalArgumentException("Direct render not supports the merge command jx:" + command.name
+          + " at " + command.ref + ", use the POI render instead");
+      command.areas.forEach(DirectXlsxWriter::checkCommands);
+    }
+  }
+
+  // remove the relationships of the types from the part, return their ids and add their targets to the removed
+  private List<String> removeRelationships(PackagePart part, Set<String> removed, String... types)
+    throws InvalidFormatException {
+    List<String> ids = new ArrayList<>();
+    for (PackageRelationship relationship : part.getRelationships()) {
+      if (!Arrays.asList(types).contains(relationship.getRelationshipType())) continue;
+      ids.add(relationship.getId());
+      if (relationship.getTargetMode() != TargetMode.EXTERNAL) removed.add(PackagingURIHelper.resolvePartUri(
+        part.getPartName().getURI(), relationship.getTargetURI()).getPath().substring(1));
+    }
+    if (ids.isEmpty()) return ids;
+    String relsPart = PackagingURIHelper.getRelationshipPartName(part.getPartName()).getName().substring(1);
+    String rels = text(parts.get(relsPart));
+    for (String id : ids) rels = rels.replaceAll("<Relationship\\b[^>]*\\bId=\"" + Pattern.quote(id) + "\"[^>]*/>", "");
+    parts.put(relsPart, rels.getBytes(StandardCharsets.UTF_8));
+    return ids;
+  }
+
+  private static String partName(PackagePart part) {
+    return part.getPartName().getName().substring(1);
+  }
+
+  private static Map<String, byte[]> readParts(InputStream template) {
+    Map<String, byte[]> parts = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(template)) {
+      byte[] buffer = new byte[8192];
+      for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+        if (entry.isDirectory()) continue;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int n; (n = zip.read(buffer)) != -1; ) out.write(buffer, 0, n);
+        parts.put(entry.getName(), out.toByteArray());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+    return parts;
+  }
+
+  private static String text(byte[] bytes) {
+    if (bytes == null) throw new IllegalArgumentException("A part of the template package is missing");
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Render the template with the vars and write the xlsx package to the target.
+   *
+   * @param vars     the vars of the expressions
+   * @param target   the output target, not closed
+   * @param recorder the recorder of the render stats
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the template has a command not supported
+   */
+  void write(Map<String, Object> vars, OutputStream target, RenderRecorder recorder) {
+    RenderSession session = new RenderSession(new FlatRenderer(template, vars));
+    try {
+      ZipOutputStream zip = new ZipOutputStream(target);
+      Writer out = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 64 * 1024);
+      for (Map.Entry<String, byte[]> part : parts.entrySet()) {
+        zip.putNextEntry(new ZipEntry(part.getKey()));
+        SheetPart sheet = sheets.get(part.getKey());
+        if (sheet != null) {
+          session.writeSheet(out, sheet, areas.get(part.getKey()));
+          out.flush();
+        } else {
+          zip.write(part.getValue());
+        }
+        zip.closeEntry();
+      }
+      zip.finish();
+      target.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+    recorder.written(session.rows, session.cells, session.regions);
+  }
+
+  /**
+   * The template XML of a rendered sheet around its sheet data and merged cells.
+   */
+  private static final class SheetPart {
+    final String head;   // before the sheet data
+    final String middle; // after the sheet data, before the merged cells
+    final String tail;   // after the merged cells
+
+    private SheetPart(String head, String middle, String tail) {
+      this.head = head;
+      this.middle = middle;
+      this.tail = tail;
+    }
+
+    static SheetPart of(String name, String xml, boolean noLegacyDrawing) {
+      xml = DIMENSION.matcher(xml).replaceFirst(""); // the rendered size is unknown
+      if (noLegacyDrawing) xml = LEGACY_DRAWING.matcher(xml).replaceAll("");
+      int start = xml.indexOf("<sheetData");
+      if (start < 0) throw new IllegalArgumentException("No sheet data in the template part " + name);
+      int end = xml.startsWith("<sheetData/>", start) ? start + "<sheetData/>".length()
+        : xml.indexOf("</sheetData>", start) + "</sheetData>".length();
+      String rest = xml.substring(end);
+      Matcher matcher = MERGE_CELLS.matcher(rest);
+      if (matcher.find()) return new SheetPart(xml.substring(0, start), rest.substring(0, matcher.start()),
+        rest.substring(matcher.end()));
+      matcher = AFTER_MERGE_CELLS.matcher(rest);
+      int at = matcher.find() ? matcher.start() : rest.length();
+      return new SheetPart(xml.substring(0, start), rest.substring(0, at), rest.substring(at));
+    }
+  }
+
+  /**
+   * The state of one render: the column names and the counts.
+   */
+  private final class RenderSession {
+    private final FlatRenderer renderer;
+    private String[] columns = new String[0];
+    private long rows;
+    private long cells;
+    private long regions;
+
+    RenderSession(FlatRenderer renderer) {
+      this.renderer = renderer;
+    }
+
+    void writeSheet(Writer out, SheetPart sheet, List<RenderPlan.AreaDef> sheetAreas) throws IOException {
+      out.write(sheet.head);
+      out.write("<sheetData>");
+      MergeCollector collector = new MergeCollector();
+      int[] next = {0};
+      for (RenderPlan.AreaDef area : sheetAreas) {
+        next[0] = Math.max(next[0], area.firstRow); // a later area on the same sheet never overlaps
+        renderer.render(area, row -> {
+          try {
+            writeRow(out, area.sheetName, next[0], area.firstCol, row);
+          } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+          }
+          collector.row(next[0]++, area.firstCol, row);
+        });
+      }
+      out.write("</sheetData>");
+      out.write(sheet.middle);
+
+      List<CellRangeAddress> merged = collector.getRegions();
+      if (!merged.isEmpty()) {
+        out.write("<mergeCells count=\"" + merged.size() + "\">");
+        for (CellRangeAddress region : merged) out.write("<mergeCell ref=\"" + region.formatAsString() + "\"/>");
+        out.write("</mergeCells>");
+        regions += merged.size();
+      }
+      out.write(sheet.tail);
+    }
+
+    private void writeRow(Writer out, String sheetName, int rowIndex, int firstCol, FlatRenderer.FlatRow row)
+      throws IOException {
+      String r = Integer.toString(rowIndex + 1);
+      out.write("<row r=\"");
+      out.write(r);
+      float height = template.height(sheetName, row.templateRow);
+      if (height > 0) {
+        out.write("\" ht=\"");
+        out.write(Float.toString(height));
+        out.write("\" customHeight=\"1");
+      }
+      out.write("\">");
+      for (int c = 0; c < row.width(); c++) {
+        FlatTemplate.TemplateCell cell = row.cells[c];
+        Object value = row.values[c];
+        if (cell == null && value == null) continue;
+        out.write("<c r=\"");
+        out.write(column(firstCol + c));
+        out.write(r);
+        out.write('"');
+        if (cell != null && cell.style != 0) {
+          out.write(" s=\"");
+          out.write(Integer.toString(cell.style));
+          out.write('"');
+        }
+        writeValue(out, value);
+        cells++;
+      }
+      out.write("</row>");
+      rows++;
+    }
+
+    // the value as PoiCellData writes it: a number, a boolean, a date or the string of others
+    private void writeValue(Writer out, Object value) throws IOException {
+      double number;
+      if (value == null) {
+        out.write("/>");
+        return;
+      } else if (value instanceof Boolean) {
+        out.write(" t=\"b\"><v>");
+        out.write((Boolean) value ? "1" : "0");
+        out.write("</v></c>");
+        return;
+      } else if (value instanceof Number) {
+        number = ((Number) value).doubleValue();
+      } else if (value instanceof Date) {
+        number = DateUtil.getExcelDate((Date) value);
+      } else if (value instanceof Calendar) {
+        number = DateUtil.getExcelDate((Calendar) value, false);
+      } else {
+        writeString(out, value.toString());
+        return;
+      }
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        writeString(out, value.toString());
+        return;
+      }
+      out.write("><v>");
+      out.write(Double.toString(number));
+      out.write("</v></c>");
+    }
+
+    private void writeString(Writer out, String text) throws IOException {
+      out.write(" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+      escape(out, text);
+      out.write("</t></is></c>");
+    }
+
+    private String column(int col) {
+      if (col >= columns.length) columns = Arrays.copyOf(columns, Math.max(col + 1, columns.length * 2));
+      String name = columns[col];
+      if (name == null) columns[col] = name = CellReference.convertNumToColString(col);
+      return name;
+    }
+  }
+
+  // escape the xml text, the chars not allowed by xml 1.0 are dropped
+  private static void escape(Writer out, String text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '&') out.write("&amp;");
+      else if (c == '<') out.write("&lt;");
+      else if (c == '>') out.write("&gt;");
+      else if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') out.write(c);
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.jxls.area.Area;
+import org.jxls.command.AbstractCommand;
+import org.jxls.command.Command;
+import org.jxls.common.AreaRef;
+import org.jxls.common.CellRef;
+import org.jxls.common.Context;
+import org.jxls.common.Size;
+import org.jxls.transform.Transformer;
+import org.jxls.transform.poi.PoiCellData;
+import org.jxls.transform.poi.PoiTransformer;
+
+import java.util.*;
+
+/**
+ * A command to write the primitive value arrays straight to the cells, without an expression for every value.
+ * <p>
+ * Such as {@code jx:dynamic-column(values="r.values" lastCell="B2")} inside a {@code jx:each} of the rows,
+ * the values is a row vector: a {@code double[]}, a {@code long[]}, an {@code Object[]} or a {@link Collection}.
+ * It could also be a matrix of such row vectors to render a whole block by one command, set
+ * {@code columnMajor="true"} if the matrix is a list of column vectors.
+ * <p>
+ * The style of every target column is read once from the template cell of the command area,
+ * the last template column is repeated for the remaining columns. The written cells are not known by jxls,
+ * so a formula of the template should not refer to them.
+ *
+ * @author RJ
+ */
+public class DynamicColumnCommand extends AbstractCommand {
+  public static final String COMMAND_NAME = "dynamic-column";
+
+  private String values;
+  private boolean columnMajor;
+  private Area area;
+
+  // the template style of every target column, read once for the transformer
+  private Transformer styleTransformer;
+  private CellStyle[] styles = new CellStyle[0];
+
+  public DynamicColumnCommand() {
+    super();
+  }
+
+  public DynamicColumnCommand(String values, Area area) {
+    this.values = values;
+    addArea(area);
+  }
+
+  @Override
+  public String getName() {
+    return COMMAND_NAME;
+  }
+
+  public String getValues() {
+    return values;
+  }
+
+  /**
+   * @param values the expression of a row vector or a matrix
+   */
+  public void setValues(String values) {
+    this.values = values;
+  }
+
+  public boolean isColumnMajor() {
+    return columnMajor;
+  }
+
+  /**
+   * @param columnMajor "true" if the matrix is a list of column vectors
+   */
+  public void setColumnMajor(String columnMajor) {
+    this.columnMajor = Boolean.parseBoolean(columnMajor);
+  }
+
+  @Override
+  public Command addArea(Area area) {
+    if (getAreaList().size() >= 1)
+      throw new IllegalArgumentException("You can add only a single area to '" + COMMAND_NAME + "' command");
+    this.area = area;
+    return super.addArea(area);
+  }
+
+  @Override
+  public Size applyAt(CellRef cellRef, Context context) {
+    Object value = getTransformer().getTransformationConfig().getExpressionEvaluator()
+      .evaluate(values, context.toMap());
+    List<?> vectors = toVectors(value);
+    if (vectors.isEmpty()) return Size.ZERO_SIZE;
+
+    PoiTransformer transformer = (PoiTransformer) getTransformer();
+    Sheet sheet = transformer.getWorkbook().getSheet(cellRef.getSheetName());
+    int width = 0;
+    int height = 0;
+    if (!columnMajor) {
+      for (Object vector : vectors) {
+        Row row = getRow(sheet, cellRef.getRow() + height++);
+        width = Math.max(width, writeRow(row, cellRef.getCol(), vector));
+      }
+    } else {
+      width = vectors.size();
+      Object[] columns = new Object[width];
+      int[] lengths = new int[width];
+      for (int c = 0; c < width; c++) {
+        columns[c] = toIndexed(vectors.get(c));
+        lengths[c] = length(columns[c]);
+        height = Math.max(height, lengths[c]);
+      }
+      for (int r = 0; r < height; r++) {
+        Row row = getRow(sheet, cellRef.getRow() + r);
+        for (int c = 0; c < width; c++) {
+          if (r < lengths[c]) writeValue(getCell(row, cellRef.getCol() + c, c), columns[c], r);
+        }
+      }
+    }
+    return new Size(width, height);
+  }
+
+  // a single vector is a matrix of one row
+  static List<?> toVectors(Object value) {
+    if (value == null) return Collections.emptyList();
+    if (value instanceof Object[] && value.getClass().getComponentType().isArray())
+      return Arrays.asList((Object[]) value);
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      Object first = collection.isEmpty() ? null : collection.iterator().next();
+      if (first != null && (first.getClass().isArray() || first instanceof Collection))
+        return collection instanceof List ? (List<?>) collection : new ArrayList<>(collection);
+    }
+    if (isVector(value)) return Collections.singletonList(value);
+    throw new IllegalArgumentException("The values of '" + COMMAND_NAME + "' must be a double[], long[], Object[]"
+      + " or Collection, or a matrix of them, but was " + value.getClass().getName());
+  }
+
+  private static boolean isVector(Object value) {
+    return value instanceof double[] || value instanceof long[] || value instanceof Object[]
+      || value instanceof Collection;
+  }
+
+  // write the row vector from the column, return its length
+  private int writeRow(Row row, int col, Object vector) {
+    if (vector instanceof double[]) {
+      double[] array = (double[]) vector;
+      for (int i = 0; i < array.length; i++) getCell(row, col + i, i).setCellValue(array[i]);
+      return array.length;
+    } else if (vector instanceof long[]) {
+      long[] array = (long[]) vector;
+      for (int i = 0; i < array.length; i++) getCell(row, col + i, i).setCellValue((double) array[i]);
+      return array.length;
+    } else if (vector instanceof Object[]) {
+      Object[] array = (Object[]) vector;
+      for (int i = 0; i < array.length; i++) setValue(getCell(row, col + i, i), array[i]);
+      return array.length;
+    } else if (vector instanceof Collection) {
+      int i = 0;
+      for (Object item : (Collection<?>) vector) setValue(getCell(row, col + i, i++), item);
+      return i;
+    } else if (vector == null) {
+      return 0;
+    }
+    throw new IllegalArgumentException("Unsupported vector " + vector.getClass().getName());
+  }
+
+  static int length(Object vector) {
+    if (vector instanceof double[]) return ((double[]) vector).length;
+    if (vector instanceof long[]) return ((long[]) vector).length;
+    if (vector instanceof Object[]) return ((Object[]) vector).length;
+    if (vector instanceof Collection) return ((Collection<?>) vector).size();
+    if (vector == null) return 0;
+    throw new IllegalArgumentException("Unsupported vector " + vector.getClass().getName());
+  }
+
+  // a collection without random access is copied to an array once, instead of walked to every index
+  private static Object toIndexed(Object vector) {
+    if (vector instanceof Collection && !(vector instanceof RandomAccess)) return ((Collection<?>) vector).toArray();
+    return vector;
+  }
+
+  // write the value at the index of the column vector, a primitive is not boxed
+  private static void writeValue(Cell cell, Object vector, int index) {
+    if (vector instanceof double[]) cell.setCellValue(((double[]) vector)[index]);
+    else if (vector instanceof long[]) cell.setCellValue((double) ((long[]) vector)[index]);
+    else if (vector instanceof Object[]) setValue(cell, ((Object[]) vector)[index]);
+    else setValue(cell, ((List<?>) vector).get(index));
+  }
+
+  private static void setValue(Cell cell, Object value) {
+    if (value == null) return;
+    if (value instanceof Number) cell.setCellValue(((Number) value).doubleValue());
+    else if (value instanceof Boolean) cell.setCellValue((Boolean) value);
+    else if (value instanceof Date) cell.setCellValue((Date) value);
+    else if (value instanceof Calendar) cell.setCellValue((Calendar) value);
+    else cell.setCellValue(value.toString());
+  }
+
+  private static Row getRow(Sheet sheet, int index) {
+    Row row = sheet.getRow(index);
+    return row != null ? row : sheet.createRow(index);
+  }
+
+  private Cell getCell(Row row, int col, int offset) {
+    Cell cell = row.getCell(col);
+    if (cell == null) cell = row.createCell(col);
+    CellStyle style = getStyle(offset);
+    if (style != null) cell.setCellStyle(style);
+    return cell;
+  }
+
+  // the style of the template cell of the column offset
+  private CellStyle getStyle(int offset) {
+    Transformer transformer = getTransformer();
+    if (styleTransformer != transformer) {
+      styleTransformer = transformer;
+      styles = new CellStyle[0];
+    }
+    if (offset < styles.length && styles[offset] != null) return styles[offset];
+
+    AreaRef ref = area.getAreaRef();
+    int col = Math.min(ref.getFirstCellRef().getCol() + offset, ref.getLastCellRef().getCol());
+    PoiCellData cellData = (PoiCellData) transformer.getCellData(
+      new CellRef(ref.getSheetName(), ref.getFirstCellRef().getRow(), col));
+    if (cellData == null) return null;
+    if (offset >= styles.length) styles = Arrays.copyOf(styles, Math.max(offset + 1, styles.length * 2));
+    styles[offset] = cellData.getCellStyle();
+    return styles[offset];
+  }
+}
@@ -2,24 +2,37 @@ package tech.simter.jxls.ext;
 
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
-import org.apache.poi.ss.util.RegionUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.jxls.area.Area;
+import org.jxls.area.CommandData;
 import org.jxls.command.CellRefGenerator;
+import org.jxls.command.Command;
 import org.jxls.command.EachCommand;
 import org.jxls.common.*;
 import org.jxls.transform.Transformer;
+import org.jxls.transform.poi.PoiCellData;
 import org.jxls.transform.poi.PoiTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
  * Extends {@link EachCommand} to support merge cells.
+ * <p>
+ * The items could also be an {@link Iterable}, an {@link Iterator} or a {@link java.util.stream.Stream}
+ * of unknown size, they are consumed once and a stream is closed after the render.
+ * <p>
+ * Set the {@code incremental="true"} attribute to merge every parent row as soon as its sub rows are done,
+ * instead of collecting all merges to the end of the area. Streaming render is always incremental.
+ * <p>
+ * Sibling sub commands of different lengths are aligned to the longest one: the missing rows of a shorter one
+ * are written as blank cells with the style of its template row, so no placeholder item is needed.
+ * <p>
+ * Each-merge commands could be nested to any depth, such as order &gt; line &gt; lot. The outermost one
+ * merges all levels by one listener, the {@code incremental} attribute of a nested one is ignored.
  *
  * @author RJ
  */
@@ -28,6 +41,9 @@ public class EachMergeCommand extends EachCommand {
 
   public static final String COMMAND_NAME = "each-merge";
 
+  private boolean incremental;
+  private boolean managed;     // merged by the listener of an enclosing each-merge
+
   public EachMergeCommand() {
     super();
   }
@@ -52,76 +68,237 @@ public class EachMergeCommand extends EachCommand {
     super(var, items, area, cellRefGenerator);
   }
 
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * @param incremental "true" to merge every parent row as soon as its sub rows are done
+   */
+  public void setIncremental(String incremental) {
+    this.incremental = Boolean.parseBoolean(incremental);
+  }
+
   @Override
-  @SuppressWarnings("unchecked")
   public Size applyAt(CellRef cellRef, Context context) {
-    // collect sub command areas
-    List<Area> childAreas = this.getAreaList().stream()
-      .flatMap(area1 -> area1.getCommandDataList().stream())
-      .flatMap(commandData -> commandData.getCommand().getAreaList().stream())
-      .collect(Collectors.toList());
-    List<AreaRef> childAreaRefs = childAreas.stream()
-      .map(Area::getAreaRef).collect(Collectors.toList());
-
-    // register AreaListener for parent command area
-    Area parentArea = this.getAreaList().get(0);
-    MergeCellListener listener = new MergeCellListener(getTransformer(), parentArea.getAreaRef(), childAreaRefs,
-      ((Collection) context.getVar(this.getItems())).size()); // 总数据量
-    logger.info("register listener {} to {} from {}", listener, parentArea.getAreaRef(), cellRef);
-    parentArea.addAreaListener(listener);
-
-    // register AreaListener for all sub command area
-    childAreas.forEach(area -> {
-      logger.info("register listener {} to {} by parent", listener, area.getAreaRef());
+    // a nested each-merge is merged by the listener of the outermost one
+    if (managed) return LazyItems.applyAt(this, getTransformer(), context, () -> super.applyAt(cellRef, context));
+
+    // collect the nested each-merge levels and all their areas
+    List<Area> areas = new ArrayList<>();
+    List<EachMergeCommand> nested = new ArrayList<>();
+    MergeLevel level = MergeLevel.of(this, areas, nested);
+
+    // register one AreaListener for all the areas of all levels
+    MergeCellListener listener = new MergeCellListener(getTransformer(), level, incremental);
+    areas.forEach(area -> {
+      logger.info("register listener {} to {} from {}", listener, area.getAreaRef(), cellRef);
       area.addAreaListener(listener);
     });
+    nested.forEach(command -> command.managed = true);
+
+    try {
+      // standard dealing
+      Size size = LazyItems.applyAt(this, getTransformer(), context, () -> super.applyAt(cellRef, context));
+
+      // merge work invoke on the last
+      listener.finish();
+      return size;
+    } finally {
+      areas.forEach(area -> area.getAreaListeners().remove(listener));
+      nested.forEach(command -> command.managed = false);
+    }
+  }
 
-    // standard dealing
-    return super.applyAt(cellRef, context);
+  /**
+   * The template of an each-merge level: its area, its sub command areas and the nested level of each sub area.
+   */
+  static final class MergeLevel {
+    final AreaRef area;
+    final List<AreaRef> children;
+    final List<MergeLevel> nested;   // sub command index - the nested each-merge level, null for other commands
+
+    MergeLevel(AreaRef area, List<AreaRef> children, List<MergeLevel> nested) {
+      this.area = area;
+      this.children = children;
+      this.nested = nested;
+    }
+
+    static MergeLevel of(AreaRef area, List<AreaRef> children) {
+      return new MergeLevel(area, children, Collections.nCopies(children.size(), null));
+    }
+
+    // collect the level tree of the command, all areas to listen and all nested each-merge commands
+    private static MergeLevel of(EachMergeCommand command, List<Area> areas, List<EachMergeCommand> nested) {
+      Area parentArea = command.getAreaList().get(0);
+      areas.add(parentArea);
+      List<AreaRef> children = new ArrayList<>();
+      List<MergeLevel> levels = new ArrayList<>();
+      for (Area area : command.getAreaList()) {
+        List<CommandData> commandDataList = area.getCommandDataList();
+        for (int i = 0; i < commandDataList.size(); i++) {
+          CommandData commandData = keepWidth(commandDataList, i);
+          Command child = commandData.getCommand();
+          if (child instanceof EachMergeCommand) {
+            nested.add((EachMergeCommand) child);
+            children.add(child.getAreaList().get(0).getAreaRef());
+            levels.add(of((EachMergeCommand) child, areas, nested));
+          } else {
+            for (Area childArea : child.getAreaList()) {
+              children.add(childArea.getAreaRef());
+              levels.add(null);
+              addAreas(childArea, areas);
+            }
+          }
+        }
+      }
+      return new MergeLevel(parentArea.getAreaRef(), children, levels);
+    }
+
+    // an empty sub command keeps its template width, else jxls shifts its right siblings to the left
+    private static CommandData keepWidth(List<CommandData> commandDataList, int index) {
+      CommandData commandData = commandDataList.get(index);
+      Command command = commandData.getCommand();
+      if (command instanceof EachMergeCommand || command instanceof KeepWidthCommand
+        || !(command instanceof EachCommand) || ((EachCommand) command).getDirection() != Direction.DOWN)
+        return commandData;
+      commandData = new CommandData(commandData.getAreaRef(), new KeepWidthCommand(command));
+      commandDataList.set(index, commandData);
+      return commandData;
+    }
+
+    // the cells of the deeper commands extend the rows of the sub command too
+    private static void addAreas(Area area, List<Area> areas) {
+      areas.add(area);
+      for (CommandData commandData : area.getCommandDataList()) {
+        for (Area childArea : commandData.getCommand().getAreaList()) addAreas(childArea, areas);
+      }
+    }
+  }
+
+  /**
+   * Wraps a downward sub command of an each-merge, so an empty one returns its template width and no rows.
+   * The rows it misses are padded by the {@link MergeCellListener}.
+   */
+  static final class KeepWidthCommand implements Command {
+    private final Command command;
+
+    KeepWidthCommand(Command command) {
+      this.command = command;
+    }
+
+    @Override
+    public String getName() {
+      return command.getName();
+    }
+
+    @Override
+    public List<Area> getAreaList() {
+      return command.getAreaList();
+    }
+
+    @Override
+    public Command addArea(Area area) {
+      return command.addArea(area);
+    }
+
+    @Override
+    public Size applyAt(CellRef cellRef, Context context) {
+      Size size = command.applyAt(cellRef, context);
+      if (size.getWidth() > 0) return size;
+      return new Size(command.getAreaList().get(0).getSize().getWidth(), 0);
+    }
+
+    @Override
+    public void reset() {
+      command.reset();
+    }
+
+    @Override
+    public void setShiftMode(String mode) {
+      command.setShiftMode(mode);
+    }
+
+    @Override
+    public String getShiftMode() {
+      return command.getShiftMode();
+    }
   }
 
   /**
    * The {@link AreaListener} for merge cells.
+   * <p>
+   * One listener serves all nested each-merge levels: every cell only updates the level that owns its column,
+   * and a finished parent row passes its last row up to the enclosing level. So all levels are computed
+   * in a single pass over the cells, and merged in one bulk operation at the end.
+   * <p>
+   * In incremental mode every parent row is merged as soon as its sub rows are done instead of at the end,
+   * so the listener memory is bounded and the merge cost is spread over the render.
+   * Streaming render is always incremental, because its rows are flushed out of the memory window.
+   * <p>
+   * {@link #afterTransformCell} runs for every transformed cell, so it only reads lookup tables
+   * and appends to a primitive buffer, and allocates nothing.
+   * <p>
+   * The last row of every sub command is tracked, so the rows a shorter sub command misses in a parent row
+   * are padded with styled blank cells.
    */
   public static class MergeCellListener implements AreaListener {
     private final PoiTransformer transformer;
-    private int parentStartColumn;                         // parent command start column
-    private int[] childStartColumns;                       // all sub command start column
-    private final int[] mergeColumns;                      // to merge columns
-    private final List<int[]> records = new ArrayList<>(); // 0 - start column, 1 - end column
-    private int parentCount;
-
-    private int childRow;
-    private int parentProcessed;
-    private String sheetName;
+    private final boolean incremental;
+    private final boolean debug;
+    private final Level[] levels;                           // the outermost level first
+    private final Level[] columnLevels;                     // column index - the innermost level of that column
+    private final int[] columnChildren;                     // column index - sub command index in that level, -1 if none
+    private final CellStyle[] paddingStyles;                // column index - template style to pad the sub rows
+    private int[] records = new int[48];                    // triples of level index, start row and end row
+    private int recordSize;                                 // the number of ints used in records
 
-    MergeCellListener(Transformer transformer, AreaRef parent, List<AreaRef> children, int parentCount) {
-      this.transformer = (PoiTransformer) transformer;
-      this.parentCount = parentCount;
-      this.parentStartColumn = parent.getFirstCellRef().getCol();
+    private String sheetName;
 
-      // find all sub command columns
-      int[] childCols = children.stream()
-        .flatMapToInt(ref -> IntStream.range(ref.getFirstCellRef().getCol(), ref.getLastCellRef().getCol() + 1))
-        .distinct().sorted()
-        .toArray();
+    MergeCellListener(Transformer transformer, AreaRef parent, List<AreaRef> children, boolean incremental) {
+      this(transformer, MergeLevel.of(parent, children), incremental);
+    }
 
-      // find all sub command start column
-      this.childStartColumns = children.stream()
-        .mapToInt(ref -> ref.getFirstCellRef().getCol())
-        .distinct().sorted().toArray();
+    MergeCellListener(Transformer transformer, MergeLevel root, boolean incremental) {
+      this.transformer = (PoiTransformer) transformer;
+      this.incremental = incremental || this.transformer.getWorkbook() instanceof SXSSFWorkbook;
+      this.debug = logger.isDebugEnabled();
+
+      // outer levels first, so the inner levels override the columns they own
+      List<Level> list = new ArrayList<>();
+      addLevel(list, root, null, -1);
+      this.levels = list.toArray(new Level[0]);
+      int maxColumn = list.stream().mapToInt(level -> level.area.getLastCellRef().getCol()).max().orElse(-1);
+      this.columnLevels = new Level[maxColumn + 1];
+      this.columnChildren = new int[maxColumn + 1];
+      for (Level level : levels) {
+        for (int col = level.area.getFirstCellRef().getCol(); col <= level.area.getLastCellRef().getCol(); col++) {
+          columnLevels[col] = level;
+          columnChildren[col] = -1;
+        }
+        for (int i = 0; i < level.children.length; i++) {
+          AreaRef child = level.children[i];
+          for (int col = child.getFirstCellRef().getCol(); col <= child.getLastCellRef().getCol(); col++) {
+            columnLevels[col] = level;
+            columnChildren[col] = i;
+          }
+        }
+      }
+      this.paddingStyles = new CellStyle[maxColumn + 1];
 
-      // get columns to merge by filter childCols
-      this.mergeColumns = IntStream.range(parent.getFirstCellRef().getCol(), parent.getLastCellRef().getCol() + 1)
-        .filter(parentCol -> IntStream.of(childCols).noneMatch(childCol -> childCol == parentCol))
-        .toArray();
+      if (debug) {
+        for (Level level : levels) {
+          logger.debug("level={}, parentArea={}, startColumn={}, mergeColumns={}, children={}", level.index,
+            level.area, level.startColumn, Arrays.toString(level.mergeColumns), Arrays.toString(level.children));
+        }
+      }
+    }
 
-      if (logger.isDebugEnabled()) {
-        logger.debug("parentArea={}", parent);
-        logger.debug("parentStartColumn={}", parentStartColumn);
-        logger.debug("childStartColumns={}", childStartColumns);
-        logger.debug("mergeColumns={}", mergeColumns);
-        logger.debug("childCols={}", childCols);
+    private static void addLevel(List<Level> list, MergeLevel template, Level parent, int indexInParent) {
+      Level level = new Level(list.size(), template, parent, indexInParent);
+      list.add(level);
+      for (int i = 0; i < template.nested.size(); i++) {
+        if (template.nested.get(i) != null) addLevel(list, template.nested.get(i), level, i);
       }
     }
 
@@ -141,75 +318,215 @@ public class EachMergeCommand extends EachCommand {
     // This class use this feature to do the merge work.
     @Override
     public void afterTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
-      if (parentProcessed == 0) this.sheetName = targetCell.getSheetName();
+      if (!targetCell.getSheetName().equals(sheetName)) { // such as a spill-over to a new sheet
+        finish();
+        this.sheetName = targetCell.getSheetName();
+      }
 
-      if (targetCell.getCol() == parentStartColumn) { // main command process
-        this.parentProcessed++;
+      int col = targetCell.getCol();
+      if (col >= columnLevels.length || columnLevels[col] == null) return;
+      Level level = columnLevels[col];
+      int row = targetCell.getRow();
+      int child = columnChildren[col];
+      if (child >= 0) { // record the current row number of sub command process
+        level.addChildRow(child, row);
+        if (debug) logger.debug("child: srcCell={}, targetCell={} [{}, {}]", srcCell, targetCell, row, col);
+      } else if (col == level.startColumn) { // main command process
+        if (debug) logger.debug("parent: level={}, srcCell={}, targetCell={} [{}, {}]", level.index, srcCell,
+          targetCell, row, col);
+        endParentRow(level, row);
+      } else if (level.parent != null) { // the other parent cells are sub cells of the enclosing level
+        level.parent.addChildRow(level.indexInParent, row);
+      }
+    }
 
-        logger.debug("parent: srcCell={}, targetCell={} [{}, {}]", srcCell, targetCell,
-          targetCell.getRow(), targetCell.getCol());
+    private void endParentRow(Level level, int parentRow) {
+      int lastRow = Math.max(parentRow, level.childRow);
 
-        //should be recorded just on necessary
-        if (targetCell.getRow() < this.childRow) this.records.add(new int[]{targetCell.getRow(), this.childRow});
+      // align the shorter sub commands to the longest one
+      pad(level, parentRow, lastRow);
 
-        // merge work invoke on the last
-        if (this.parentProcessed == this.parentCount) {
-          Workbook workbook = transformer.getWorkbook();
-          Sheet sheet = workbook.getSheet(sheetName);
-          doMerge(sheet, this.records, this.mergeColumns, srcCell);
+      //should be recorded just on necessary
+      if (parentRow < lastRow) {
+        if (incremental) { // merge now, also before the rows are flushed out of a streaming window
+          Sheet sheet = transformer.getWorkbook().getSheet(sheetName);
+          merge4Row(sheet, parentRow, lastRow, level.mergeColumns, level.templateCell, transformer);
+        } else {
+          addRecord(level.index, parentRow, lastRow);
         }
-        this.childRow = 0;
+      }
+      level.childRow = -1;
 
-        // record the current row number of sub command process
-      } else if (IntStream.of(childStartColumns).anyMatch(col -> col == targetCell.getCol())) {
-        this.childRow = Math.max(this.childRow, targetCell.getRow());
+      // the whole parent row is a sub row of the enclosing level
+      if (level.parent != null) level.parent.addChildRow(level.indexInParent, lastRow);
+    }
 
-        logger.debug("child: srcCell={}, targetCell={} [{}, {}]", srcCell, targetCell,
-          targetCell.getRow(), targetCell.getCol());
+    // write styled blank cells to the rows a sub command misses between the parent row and the last sub row
+    private void pad(Level level, int parentRow, int lastRow) {
+      Sheet sheet = null;
+      for (int i = 0; i < level.children.length; i++) {
+        int fromRow = level.childLastRows[i] >= parentRow ? level.childLastRows[i] + 1 : parentRow;
+        level.childLastRows[i] = -1;
+        if (fromRow > lastRow) continue;
+
+        if (sheet == null) sheet = transformer.getWorkbook().getSheet(sheetName);
+        AreaRef child = level.children[i];
+        int firstCol = child.getFirstCellRef().getCol();
+        int lastCol = child.getLastCellRef().getCol();
+        if (debug) logger.debug("pad: child={}, rows=[{}, {}]", child, fromRow, lastRow);
+        for (int r = fromRow; r <= lastRow; r++) {
+          Row row = sheet.getRow(r);
+          if (row == null) row = sheet.createRow(r);
+          for (int c = firstCol; c <= lastCol; c++) {
+            Cell cell = row.getCell(c);
+            if (cell == null) cell = row.createCell(c);
+            CellStyle style = getPaddingStyle(child, c);
+            if (style != null) cell.setCellStyle(style);
+          }
+        }
       }
     }
 
-    private static void doMerge(Sheet sheet, List<int[]> records, int[] mergeColumns, CellRef srcCell) {
+    // the style of the template cell in the first row of the sub command area
+    private CellStyle getPaddingStyle(AreaRef child, int col) {
+      CellStyle style = paddingStyles[col];
+      if (style == null) {
+        PoiCellData cellData = (PoiCellData) transformer.getCellData(
+          new CellRef(child.getSheetName(), child.getFirstCellRef().getRow(), col));
+        if (cellData == null) return null;
+        style = cellData.getCellStyle();
+        paddingStyles[col] = style;
+      }
+      return style;
+    }
+
+    /**
+     * Merge the recorded rows of all levels, invoked after the outermost command area is finished.
+     */
+    void finish() {
+      if (this.recordSize > 0) {
+        Workbook workbook = transformer.getWorkbook();
+        Sheet sheet = workbook.getSheet(sheetName);
+        doMerge(sheet, this.records, this.recordSize, this.levels, transformer);
+        this.recordSize = 0;
+      }
+    }
+
+    private void addRecord(int levelIndex, int fromRow, int toRow) {
+      if (recordSize + 3 > records.length) records = Arrays.copyOf(records, records.length * 2);
+      records[recordSize++] = levelIndex;
+      records[recordSize++] = fromRow;
+      records[recordSize++] = toRow;
+    }
+
+    private static void doMerge(Sheet sheet, int[] records, int recordSize, Level[] levels,
+                                PoiTransformer transformer) {
       if (logger.isDebugEnabled()) {
         logger.debug("merge: sheetName={}, records={}", sheet.getSheetName(),
-          records.stream().map(startEnd -> "[" + startEnd[0] + "," + startEnd[1] + "]")
-            .collect(Collectors.joining(",")));
+          IntStream.range(0, recordSize / 3).mapToObj(i -> records[i * 3] + ":[" + records[i * 3 + 1] + ","
+            + records[i * 3 + 2] + "]").collect(Collectors.joining(",")));
+      }
+
+      // collect the regions of every level, add them all in bulk, then set their borders by level
+      long start = System.nanoTime();
+      List<List<CellRangeAddress>> levelRegions = new ArrayList<>(levels.length);
+      for (Level level : levels) levelRegions.add(new ArrayList<>());
+      for (int i = 0; i < recordSize; i += 3) {
+        collectRegions(levelRegions.get(records[i]), records[i + 1], records[i + 2], levels[records[i]].mergeColumns);
+      }
+      List<CellRangeAddress> regions = new ArrayList<>();
+      levelRegions.forEach(regions::addAll);
+      MergedRegionIndex.addAll(sheet, regions);
+      for (int i = 0; i < levels.length; i++) {
+        if (!levelRegions.get(i).isEmpty())
+          setBorders(sheet, levelRegions.get(i), levels[i].templateCell, transformer);
       }
-      records.forEach(startEnd -> merge4Row(sheet, startEnd[0], startEnd[1], mergeColumns, srcCell));
+      RenderRecorder.addMergeNanos(System.nanoTime() - start);
     }
 
-    private static void merge4Row(Sheet sheet, int fromRow, int toRow, int[] mergeColumns, CellRef srcCell) {
+    private static void merge4Row(Sheet sheet, int fromRow, int toRow, int[] mergeColumns, CellRef srcCell,
+                                  PoiTransformer transformer) {
+      long start = System.nanoTime();
+      List<CellRangeAddress> regions = new ArrayList<>(mergeColumns.length);
+      collectRegions(regions, fromRow, toRow, mergeColumns);
+      MergedRegionIndex.addAll(sheet, regions);
+      setBorders(sheet, regions, srcCell, transformer);
+      RenderRecorder.addMergeNanos(System.nanoTime() - start);
+    }
+
+    private static void collectRegions(List<CellRangeAddress> regions, int fromRow, int toRow, int[] mergeColumns) {
       if (fromRow >= toRow) {
         logger.warn("No need to merge because same row：fromRow={}, toRow={}", fromRow, toRow);
         return;
       }
-      Cell originCell;
-      CellStyle originCellStyle;
-      CellRangeAddress region;
       for (int col : mergeColumns) {
         logger.debug("fromRow={}, toRow={}, col={}", fromRow, toRow, col);
-        region = new CellRangeAddress(fromRow, toRow, col, col);
-        sheet.addMergedRegion(region);
+        regions.add(new CellRangeAddress(fromRow, toRow, col, col));
+      }
+    }
 
-        //firstCell = sheet.getRow(fromRow).getCell(col);
-        originCell = sheet.getRow(srcCell.getRow()).getCell(col);
+    static void setBorders(Sheet sheet, List<CellRangeAddress> regions, CellRef srcCell,
+                           PoiTransformer transformer) {
+      BorderStyleCache styleCache = BorderStyleCache.of(sheet.getWorkbook());
+      PoiCellData originCell;
+      CellStyle originCellStyle;
+      for (CellRangeAddress region : regions) {
+        // read the template cell, the rendered row may be flushed out on streaming render
+        originCell = (PoiCellData) transformer.getCellData(
+          new CellRef(srcCell.getSheetName(), srcCell.getRow(), region.getFirstColumn()));
         if (originCell == null) {
-          logger.info("Missing cell: row={}, col={}", fromRow, col);
+          logger.info("Missing cell: row={}, col={}", region.getFirstRow(), region.getFirstColumn());
         }
         if (originCell != null) {
           // copy originCell style to the merged cell
           originCellStyle = originCell.getCellStyle();
-          RegionUtil.setBorderTop(originCellStyle.getBorderTopEnum(), region, sheet);
-          RegionUtil.setBorderRight(originCellStyle.getBorderRightEnum(), region, sheet);
-          RegionUtil.setBorderBottom(originCellStyle.getBorderBottomEnum(), region, sheet);
-          RegionUtil.setBorderLeft(originCellStyle.getBorderLeftEnum(), region, sheet);
+          styleCache.setBorders(sheet, region, originCellStyle.getBorderTopEnum(),
+            originCellStyle.getBorderRightEnum(), originCellStyle.getBorderBottomEnum(),
+            originCellStyle.getBorderLeftEnum());
         } else {
-          RegionUtil.setBorderTop(BorderStyle.THIN, region, sheet);
-          RegionUtil.setBorderRight(BorderStyle.THIN, region, sheet);
-          RegionUtil.setBorderBottom(BorderStyle.THIN, region, sheet);
-          RegionUtil.setBorderLeft(BorderStyle.THIN, region, sheet);
+          styleCache.setBorders(sheet, region, BorderStyle.THIN, BorderStyle.THIN, BorderStyle.THIN, BorderStyle.THIN);
         }
       }
     }
+
+    /**
+     * The render state of an each-merge level.
+     */
+    private static final class Level {
+      final int index;
+      final Level parent;                                   // the enclosing level, null for the outermost
+      final int indexInParent;                              // sub command index of this level in the parent
+      final AreaRef area;
+      final int startColumn;                                // parent command start column
+      final int[] mergeColumns;                             // to merge columns
+      final CellRef templateCell;                           // the template cell to copy the borders from
+      final AreaRef[] children;                             // sub command areas
+      final int[] childLastRows;                            // sub command index - last row in the parent row
+      int childRow = -1;                                    // the last sub row in the parent row
+
+      Level(int index, MergeLevel template, Level parent, int indexInParent) {
+        this.index = index;
+        this.parent = parent;
+        this.indexInParent = indexInParent;
+        this.area = template.area;
+        this.startColumn = area.getFirstCellRef().getCol();
+        this.templateCell = new CellRef(area.getSheetName(), area.getFirstCellRef().getRow(), startColumn);
+        this.children = template.children.toArray(new AreaRef[0]);
+        this.childLastRows = new int[children.length];
+        Arrays.fill(this.childLastRows, -1);
+
+        // get columns to merge by filter the sub command columns
+        BitSet childCols = new BitSet();
+        for (AreaRef ref : children) childCols.set(ref.getFirstCellRef().getCol(), ref.getLastCellRef().getCol() + 1);
+        this.mergeColumns = IntStream.range(startColumn, area.getLastCellRef().getCol() + 1)
+          .filter(col -> !childCols.get(col))
+          .toArray();
+      }
+
+      void addChildRow(int child, int row) {
+        if (row > childRow) childRow = row;
+        if (row > childLastRows[child]) childLastRows[child] = row;
+      }
+    }
   }
 }
\ No newline at end of file
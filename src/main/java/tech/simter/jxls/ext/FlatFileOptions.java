@@ -0,0 +1,179 @@
+package tech.simter.jxls.ext;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The options of the flat file render of {@link JxlsUtils}, such as CSV or TSV.
+ *
+ * @author RJ
+ */
+public class FlatFileOptions {
+  private char delimiter = ',';
+  private String lineSeparator = "\r\n";
+  private Charset charset = StandardCharsets.UTF_8;
+  private boolean bom;
+  private boolean repeatMergedCells;
+  private String numberPattern;
+  private String datePattern = "yyyy-MM-dd";
+  private String dateTimePattern = "yyyy-MM-dd HH:mm:ss";
+
+  /**
+   * Create the options for comma separated values.
+   *
+   * @return the options
+   */
+  public static FlatFileOptions csv() {
+    return new FlatFileOptions();
+  }
+
+  /**
+   * Create the options for tab separated values.
+   *
+   * @return the options
+   */
+  public static FlatFileOptions tsv() {
+    return new FlatFileOptions().setDelimiter('\t');
+  }
+
+  /**
+   * @return the cell delimiter
+   */
+  public char getDelimiter() {
+    return delimiter;
+  }
+
+  /**
+   * A cell that has the delimiter, a quote or a line break is quoted.
+   *
+   * @param delimiter the cell delimiter, such as ',' or '\t'
+   * @return this options
+   */
+  public FlatFileOptions setDelimiter(char delimiter) {
+    if (delimiter == '"' || delimiter == '\r' || delimiter == '\n')
+      throw new IllegalArgumentException("Invalid delimiter '" + delimiter + "'");
+    this.delimiter = delimiter;
+    return this;
+  }
+
+  /**
+   * @return the line separator, "\r\n" by default
+   */
+  public String getLineSeparator() {
+    return lineSeparator;
+  }
+
+  /**
+   * @param lineSeparator the line separator
+   * @return this options
+   */
+  public FlatFileOptions setLineSeparator(String lineSeparator) {
+    if (lineSeparator == null || lineSeparator.isEmpty())
+      throw new IllegalArgumentException("lineSeparator could not be empty");
+    this.lineSeparator = lineSeparator;
+    return this;
+  }
+
+  /**
+   * @return the charset, UTF-8 by default
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * @param charset the charset
+   * @return this options
+   */
+  public FlatFileOptions setCharset(Charset charset) {
+    if (charset == null) throw new IllegalArgumentException("charset could not be null");
+    this.charset = charset;
+    return this;
+  }
+
+  /**
+   * @return true to write a byte order mark first, so Excel detects the UTF-8 file
+   */
+  public boolean isBom() {
+    return bom;
+  }
+
+  /**
+   * @param bom true to write a byte order mark first, so Excel detects the UTF-8 file
+   * @return this options
+   */
+  public FlatFileOptions setBom(boolean bom) {
+    this.bom = bom;
+    return this;
+  }
+
+  /**
+   * @return true to repeat a merged cell in every row it spans, false to leave the other rows blank
+   */
+  public boolean isRepeatMergedCells() {
+    return repeatMergedCells;
+  }
+
+  /**
+   * The merged cells are the parent cells of a {@code jx:each-merge} and the equal cells of a
+   * {@code jx:group-merge}. By default only the first row has the value, as the merged cell shows.
+   *
+   * @param repeatMergedCells true to repeat a merged cell in every row it spans
+   * @return this options
+   */
+  public FlatFileOptions setRepeatMergedCells(boolean repeatMergedCells) {
+    this.repeatMergedCells = repeatMergedCells;
+    return this;
+  }
+
+  /**
+   * @return the {@link java.text.DecimalFormat} pattern of the numbers, null to write them plain
+   */
+  public String getNumberPattern() {
+    return numberPattern;
+  }
+
+  /**
+   * @param numberPattern the {@link java.text.DecimalFormat} pattern of the numbers, null to write them plain
+   * @return this options
+   */
+  public FlatFileOptions setNumberPattern(String numberPattern) {
+    this.numberPattern = numberPattern;
+    return this;
+  }
+
+  /**
+   * @return the pattern of the dates, "yyyy-MM-dd" by default
+   */
+  public String getDatePattern() {
+    return datePattern;
+  }
+
+  /**
+   * @param datePattern the pattern of the dates
+   * @return this options
+   */
+  public FlatFileOptions setDatePattern(String datePattern) {
+    if (datePattern == null) throw new IllegalArgumentException("datePattern could not be null");
+    this.datePattern = datePattern;
+    return this;
+  }
+
+  /**
+   * @return the pattern of the date times, "yyyy-MM-dd HH:mm:ss" by default
+   */
+  public String getDateTimePattern() {
+    return dateTimePattern;
+  }
+
+  /**
+   * @param dateTimePattern the pattern of the date times and {@link java.util.Date}s,
+   *                        a date of a cell with an excel date format is formatted by that format
+   * @return this options
+   */
+  public FlatFileOptions setDateTimePattern(String dateTimePattern) {
+    if (dateTimePattern == null) throw new IllegalArgumentException("dateTimePattern could not be null");
+    this.dateTimePattern = dateTimePattern;
+    return this;
+  }
+}
@@ -0,0 +1,337 @@
+package tech.simter.jxls.ext;
+
+import org.jxls.command.Command;
+import org.jxls.command.EachCommand;
+import org.jxls.command.IfCommand;
+import org.jxls.expression.ExpressionEvaluator;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Render the area tree of a {@link FlatTemplate} to the rows of values, without a workbook.
+ * <p>
+ * The rows of an area are rendered top down: a row without command is a row of its template cells,
+ * the rows that a command overlaps are a band. A band of a single command over the whole area width
+ * is streamed item by item, so the main {@code jx:each} never keeps its rows; the other bands are
+ * buffered, with their template cells at the first row of the band.
+ * <p>
+ * The merged cells are the template cells of a {@code jx:each-merge} item and the equal cells of the merge columns
+ * of a {@code jx:group-merge}. Only the first row has the value, the cells below are marked as merged with the cell
+ * above, the same regions as {@link EachMergeCommand} and {@link GroupMergeCommand} merge.
+ * The supported commands are {@code jx:each}, {@code jx:each-merge}, {@code jx:group-merge}, {@code jx:if}
+ * and {@code jx:dynamic-column}, the direction of a {@code jx:each} must be down.
+ *
+ * @author RJ
+ */
+final class FlatRenderer {
+  private final FlatTemplate template;
+  private final Map<String, Object> vars;
+  private final ExpressionEvaluator evaluator = CachingExpressionEvaluator.getSingleton();
+
+  /**
+   * @param template the flat template
+   * @param vars     the vars of the expressions, the vars of the commands are put and removed
+   */
+  FlatRenderer(FlatTemplate template, Map<String, Object> vars) {
+    this.template = template;
+    this.vars = vars;
+  }
+
+  /**
+   * Render the top areas one after another.
+   *
+   * @param sink the consumer of the rendered rows, a row is never used again after consumed
+   * @throws IllegalArgumentException if the template has a command not supported
+   */
+  void render(Consumer<FlatRow> sink) {
+    for (RenderPlan.AreaDef area : template.plan.getAreas()) render(area, sink);
+  }
+
+  /**
+   * Render a top area, the columns of the rows are from the first column of the area.
+   *
+   * @param area the top area
+   * @param sink the consumer of the rendered rows, a row is never used again after consumed
+   * @throws IllegalArgumentException if the area has a command not supported
+   */
+  void render(RenderPlan.AreaDef area, Consumer<FlatRow> sink) {
+    renderArea(area, false, sink);
+  }
+
+  private void renderArea(RenderPlan.AreaDef area, boolean merged, Consumer<FlatRow> sink) {
+    List<RenderPlan.CommandDef> commands = new ArrayList<>(area.commands);
+    commands.sort(Comparator.comparingInt(command -> command.ref.firstRow));
+    int width = area.lastCol - area.firstCol + 1;
+    int row = area.firstRow;
+    int next = 0;
+    while (row <= area.lastRow) {
+      // the commands that overlap the rows from this row
+      int last = row;
+      List<RenderPlan.CommandDef> band = new ArrayList<>();
+      while (next < commands.size() && commands.get(next).ref.firstRow <= last) {
+        RenderPlan.CommandDef command = commands.get(next++);
+        band.add(command);
+        last = Math.max(last, command.ref.lastRow);
+      }
+
+      if (band.isEmpty()) {
+        FlatRow values = new FlatRow(row, width);
+        for (int c = 0; c < width; c++) {
+          FlatTemplate.TemplateCell cell = template.cell(area.sheetName, row, area.firstCol + c);
+          if (cell != null) values.set(c, value(cell), cell);
+        }
+        sink.accept(values);
+      } else if (band.size() == 1 && band.get(0).ref.firstCol == area.firstCol
+        && band.get(0).ref.lastCol == area.lastCol) {
+        renderCommand(band.get(0), sink);
+      } else {
+        renderBand(area, row, last, band, merged, sink);
+      }
+      row = last + 1;
+    }
+  }
+
+  private void renderBand(RenderPlan.AreaDef area, int first, int last, List<RenderPlan.CommandDef> band,
+                          boolean merged, Consumer<FlatRow> sink) {
+    int width = area.lastCol - area.firstCol + 1;
+    List<FlatRow> rows = new ArrayList<>();
+    int[] ends = new int[band.size()]; // the row after the last rendered row of every command
+    for (int i = 0; i < band.size(); i++) {
+      RenderPlan.CommandDef command = band.get(i);
+      int col = command.ref.firstCol - area.firstCol;
+      int[] next = {command.ref.firstRow - first};
+      renderCommand(command, values -> row(rows, next[0]++, values.templateRow, width).put(col, values));
+      ends[i] = next[0];
+    }
+    int height = Math.max(rows.size(), last - first + 1);
+
+    // pad the sub commands shorter than the item with styled blank cells, as EachMergeCommand does
+    if (merged) {
+      for (int i = 0; i < band.size(); i++) {
+        RenderPlan.AreaDef ref = band.get(i).ref;
+        for (int r = ends[i]; r < height; r++) {
+          FlatRow values = row(rows, r, ref.firstRow, width);
+          for (int c = ref.firstCol; c <= ref.lastCol; c++)
+            values.set(c - area.firstCol, null, template.cell(ref.sheetName, ref.firstRow, c));
+        }
+      }
+    }
+
+    // the template cells out of the commands, at their rows from the first row of the band
+    for (int r = first; r <= last; r++) {
+      for (int c = area.firstCol; c <= area.lastCol; c++) {
+        if (covered(band, r, c)) continue;
+        FlatTemplate.TemplateCell cell = template.cell(area.sheetName, r, c);
+        if (cell == null) continue;
+        row(rows, r - first, r, width).set(c - area.firstCol, value(cell), cell);
+        if (!merged) continue;
+        for (int i = r - first + 1; i < height; i++) row(rows, i, r, width).mergeAbove(c - area.firstCol, cell);
+      }
+    }
+    for (FlatRow values : rows) sink.accept(values);
+  }
+
+  private static FlatRow row(List<FlatRow> rows, int index, int templateRow, int width) {
+    while (rows.size() <= index) rows.add(new FlatRow(templateRow, width));
+    return rows.get(index);
+  }
+
+  private static boolean covered(List<RenderPlan.CommandDef> band, int row, int col) {
+    for (RenderPlan.CommandDef command : band) {
+      RenderPlan.AreaDef ref = command.ref;
+      if (ref.firstRow <= row && row <= ref.lastRow && ref.firstCol <= col && col <= ref.lastCol) return true;
+    }
+    return false;
+  }
+
+  private void renderCommand(RenderPlan.CommandDef def, Consumer<FlatRow> sink) {
+    Command command = template.command(def);
+    if (command instanceof EachCommand) {
+      EachCommand each = (EachCommand) command;
+      if (each.getDirection() != EachCommand.Direction.DOWN || each.getGroupBy() != null
+        || each.getMultisheet() != null)
+        throw new IllegalArgumentException("The flat file render only supports the jx:" + def.name
+          + " down without groupBy or multisheet at " + def.ref);
+      Consumer<FlatRow> target = sink;
+      if (command instanceof GroupMergeCommand)
+        target = mergeRepeated(((GroupMergeCommand) command).getMergeColumns(), def.ref.firstCol, sink);
+      renderEach(each, def.areas.get(0), command instanceof EachMergeCommand, target);
+    } else if (command instanceof IfCommand) {
+      if (Boolean.TRUE.equals(evaluate(((IfCommand) command).getCondition()))) {
+        renderArea(def.areas.get(0), false, sink);
+      } else if (def.areas.size() > 1) {
+        renderArea(def.areas.get(1), false, sink);
+      }
+    } else if (command instanceof DynamicColumnCommand) {
+      renderVectors(def, (DynamicColumnCommand) command, sink);
+    } else {
+      throw new IllegalArgumentException("The flat file render not supports the command jx:" + def.name
+        + " at " + def.ref);
+    }
+  }
+
+  private void renderEach(EachCommand each, RenderPlan.AreaDef body, boolean merged, Consumer<FlatRow> sink) {
+    Object items = evaluate(each.getItems());
+    if (items == null) return;
+    String var = each.getVar();
+    String select = each.getSelect();
+    boolean hadVar = vars.containsKey(var);
+    Object old = vars.get(var);
+    Consumer<Object> action = item -> {
+      vars.put(var, item);
+      if (select == null || Boolean.TRUE.equals(evaluate(select))) renderArea(body, merged, sink);
+    };
+    try {
+      if (items instanceof Collection) ((Collection<?>) items).forEach(action);
+      else if (items instanceof Object[]) for (Object item : (Object[]) items) action.accept(item);
+      else {
+        LazyItems lazyItems = LazyItems.wrap(items);
+        if (lazyItems == null)
+          throw new IllegalArgumentException("The items '" + each.getItems() + "' is not iterable: "
+            + items.getClass().getName());
+        try {
+          lazyItems.forEach(action);
+        } finally {
+          lazyItems.close();
+        }
+      }
+    } finally {
+      if (hadVar) vars.put(var, old);
+      else vars.remove(var);
+    }
+  }
+
+  // merge a cell of a merge column to the cell above if it and the outer merge columns equal the previous row
+  private static Consumer<FlatRow> mergeRepeated(int[] mergeColumns, int firstCol, Consumer<FlatRow> sink) {
+    if (mergeColumns == null) return sink;
+    Object[][] previous = new Object[1][];
+    return row -> {
+      Object[] last = previous[0];
+      previous[0] = row.values.clone();
+      if (last != null) {
+        for (int column : mergeColumns) {
+          int c = column - firstCol;
+          if (c >= row.values.length || c >= last.length || !Objects.equals(row.values[c], last[c])) break;
+          row.mergeAbove(c, row.cells[c]);
+        }
+      }
+      sink.accept(row);
+    };
+  }
+
+  // the style of a column is the template cell of the command area, the last template column is repeated
+  private void renderVectors(RenderPlan.CommandDef def, DynamicColumnCommand command, Consumer<FlatRow> sink) {
+    List<?> vectors = DynamicColumnCommand.toVectors(evaluate(command.getValues()));
+    List<Object[]> lines = new ArrayList<>(vectors.size());
+    int length = 0;
+    for (Object vector : vectors) {
+      Object[] line = toArray(vector);
+      lines.add(line);
+      length = Math.max(length, line.length);
+    }
+    int height = command.isColumnMajor() ? length : lines.size();
+    int width = command.isColumnMajor() ? lines.size() : length;
+    FlatTemplate.TemplateCell[] cells = new FlatTemplate.TemplateCell[width];
+    for (int c = 0; c < width; c++)
+      cells[c] = template.cell(def.ref.sheetName, def.ref.firstRow, Math.min(def.ref.firstCol + c, def.ref.lastCol));
+
+    for (int r = 0; r < height; r++) {
+      FlatRow row = new FlatRow(def.ref.firstRow, width);
+      for (int c = 0; c < width; c++) {
+        Object[] line = lines.get(command.isColumnMajor() ? c : r);
+        int index = command.isColumnMajor() ? r : c;
+        row.set(c, index < line.length ? line[index] : null, cells[c]);
+      }
+      sink.accept(row);
+    }
+  }
+
+  private static Object[] toArray(Object vector) {
+    if (vector instanceof double[]) {
+      double[] array = (double[]) vector;
+      Object[] values = new Object[array.length];
+      for (int i = 0; i < array.length; i++) values[i] = array[i];
+      return values;
+    } else if (vector instanceof long[]) {
+      long[] array = (long[]) vector;
+      Object[] values = new Object[array.length];
+      for (int i = 0; i < array.length; i++) values[i] = array[i];
+      return values;
+    } else if (vector instanceof Object[]) {
+      return (Object[]) vector;
+    } else if (vector instanceof Collection) {
+      return ((Collection<?>) vector).toArray();
+    }
+    return new Object[DynamicColumnCommand.length(vector)]; // null, or fails on an unsupported vector
+  }
+
+  private Object value(FlatTemplate.TemplateCell cell) {
+    if (cell.expression != null) return evaluate(cell.expression);
+    if (cell.parts == null) return cell.constant;
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < cell.parts.length; i++) {
+      if (i % 2 == 0) {
+        text.append(cell.parts[i]);
+      } else {
+        Object value = evaluate(cell.parts[i]);
+        if (value != null) text.append(value);
+      }
+    }
+    return text.toString();
+  }
+
+  private Object evaluate(String expression) {
+    return evaluator.evaluate(expression, vars);
+  }
+
+  /**
+   * A rendered row, the columns are from the first column of its area.
+   */
+  static final class FlatRow {
+    final int templateRow;                // the template row it is rendered from, for the row height
+    Object[] values;                      // the cell values, null if blank
+    FlatTemplate.TemplateCell[] cells;    // the template cells, for the cell styles and merged regions
+    boolean[] merged;                     // true if the cell is merged with the cell above
+
+    FlatRow(int templateRow, int width) {
+      this.templateRow = templateRow;
+      this.values = new Object[width];
+      this.cells = new FlatTemplate.TemplateCell[width];
+      this.merged = new boolean[width];
+    }
+
+    int width() {
+      return values.length;
+    }
+
+    void set(int col, Object value, FlatTemplate.TemplateCell cell) {
+      ensure(col + 1);
+      values[col] = value;
+      cells[col] = cell;
+      merged[col] = false;
+    }
+
+    void mergeAbove(int col, FlatTemplate.TemplateCell cell) {
+      ensure(col + 1);
+      values[col] = null;
+      cells[col] = cell;
+      merged[col] = true;
+    }
+
+    // copy the cells of the row from the column
+    void put(int col, FlatRow row) {
+      ensure(col + row.width());
+      System.arraycopy(row.values, 0, values, col, row.width());
+      System.arraycopy(row.cells, 0, cells, col, row.width());
+      System.arraycopy(row.merged, 0, merged, col, row.width());
+    }
+
+    private void ensure(int width) {
+      if (width <= values.length) return;
+      values = Arrays.copyOf(values, width);
+      cells = Arrays.copyOf(cells, width);
+      merged = Arrays.copyOf(merged, width);
+    }
+  }
+}
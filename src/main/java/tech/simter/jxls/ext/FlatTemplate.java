@@ -0,0 +1,214 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.jxls.command.Command;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The cells and the area tree of a template, read once from the workbook for the renders without a workbook.
+ * <p>
+ * The area tree is the {@link RenderPlan} of the template. A template cell is kept as a constant,
+ * a single expression or a text of literals and expressions, with its style index, date format and merged region,
+ * so a render never touches the POI object model.
+ *
+ * @author RJ
+ */
+final class FlatTemplate {
+  private static final Pattern EXPRESSION = Pattern.compile("\\$\\{(.+?)}");
+
+  final RenderPlan plan;
+  private final Map<String, TemplateCell[][]> sheets; // sheet name - row - column
+  private final Map<String, float[]> heights;         // sheet name - row - height in points, 0 if no row
+  // the commands with their attributes, never applied but read by the renders
+  private final Map<RenderPlan.CommandDef, Command> commands = new IdentityHashMap<>();
+
+  private FlatTemplate(RenderPlan plan, Map<String, TemplateCell[][]> sheets, Map<String, float[]> heights) {
+    this.plan = plan;
+    this.sheets = sheets;
+    this.heights = heights;
+    for (RenderPlan.AreaDef area : plan.getAreas()) createCommands(area);
+  }
+
+  private void createCommands(RenderPlan.AreaDef area) {
+    for (RenderPlan.CommandDef def : area.commands) {
+      commands.put(def, def.create());
+      for (RenderPlan.AreaDef child : def.areas) createCommands(child);
+    }
+  }
+
+  /**
+   * Get the flat template of the compiled template, read once and kept by it.
+   *
+   * @param template the compiled template
+   * @return the flat template
+   * @throws RuntimeException if has IOException inner
+   */
+  static FlatTemplate of(CompiledTemplate template) {
+    FlatTemplate flat = template.flatTemplate;
+    if (flat == null) template.flatTemplate = flat = read(template); // a race only reads it twice
+    return flat;
+  }
+
+  private static FlatTemplate read(CompiledTemplate template) {
+    try (Workbook workbook = WorkbookFactory.create(template.openStream())) {
+      RenderPlan plan = template.getPlan() != null ? template.getPlan() : RenderPlan.of(workbook);
+      Map<String, TemplateCell[][]> sheets = new HashMap<>();
+      for (RenderPlan.AreaDef area : plan.getAreas()) readArea(workbook, area, sheets);
+      Map<String, float[]> heights = new HashMap<>();
+      sheets.forEach((name, cells) -> {
+        Sheet sheet = workbook.getSheet(name);
+        readMergedRegions(sheet, cells);
+        float[] rowHeights = new float[cells.length];
+        for (int r = 0; r < cells.length; r++) {
+          Row row = sheet.getRow(r);
+          if (row != null) rowHeights[r] = row.getHeightInPoints();
+        }
+        heights.put(name, rowHeights);
+      });
+      return new FlatTemplate(plan, sheets, heights);
+    } catch (IOException | InvalidFormatException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  // read the cells of the area and its command areas, such as the else area of a jx:if
+  private static void readArea(Workbook workbook, RenderPlan.AreaDef area, Map<String, TemplateCell[][]> sheets) {
+    Sheet sheet = workbook.getSheet(area.sheetName);
+    if (sheet == null) throw new IllegalArgumentException("No sheet of the area " + area);
+    sheets.put(area.sheetName, readCells(sheet, area, sheets.getOrDefault(area.sheetName, new TemplateCell[0][])));
+    for (RenderPlan.CommandDef command : area.commands) {
+      for (RenderPlan.AreaDef child : command.areas) readArea(workbook, child, sheets);
+    }
+  }
+
+  // read the cells of the area to the grid, grown if need
+  private static TemplateCell[][] readCells(Sheet sheet, RenderPlan.AreaDef area, TemplateCell[][] cells) {
+    if (cells.length <= area.lastRow) cells = Arrays.copyOf(cells, area.lastRow + 1);
+    for (int r = area.firstRow; r <= area.lastRow; r++) {
+      Row row = sheet.getRow(r);
+      if (cells[r] == null) cells[r] = new TemplateCell[0];
+      if (cells[r].length <= area.lastCol) cells[r] = Arrays.copyOf(cells[r], area.lastCol + 1);
+      if (row == null) continue;
+      for (int c = area.firstCol; c <= area.lastCol; c++) {
+        Cell cell = row.getCell(c);
+        if (cell != null) cells[r][c] = TemplateCell.of(cell);
+      }
+    }
+    return cells;
+  }
+
+  // keep the size of a merged region by its first cell inside the areas
+  private static void readMergedRegions(Sheet sheet, TemplateCell[][] cells) {
+    for (CellRangeAddress region : sheet.getMergedRegions()) {
+      int r = region.getFirstRow();
+      int c = region.getFirstColumn();
+      if (r >= cells.length || cells[r] == null || c >= cells[r].length) continue;
+      TemplateCell cell = cells[r][c] != null ? cells[r][c] : new TemplateCell(null, null, null, 0);
+      cells[r][c] = cell.merge(region.getLastRow() - r, region.getLastColumn() - c);
+    }
+  }
+
+  /**
+   * @return the template cell, null if it has no cell
+   */
+  TemplateCell cell(String sheetName, int row, int col) {
+    TemplateCell[][] cells = sheets.get(sheetName);
+    if (cells == null || row >= cells.length || cells[row] == null || col >= cells[row].length) return null;
+    return cells[row][col];
+  }
+
+  /**
+   * @return the height in points of the template row, 0 if it has no row
+   */
+  float height(String sheetName, int row) {
+    float[] rowHeights = heights.get(sheetName);
+    return rowHeights == null || row >= rowHeights.length ? 0 : rowHeights[row];
+  }
+
+  /**
+   * @return the command of the definition with its attributes set
+   */
+  Command command(RenderPlan.CommandDef def) {
+    return commands.get(def);
+  }
+
+  /**
+   * A template cell, its value is a constant, a single expression or a text of literals and expressions.
+   */
+  static final class TemplateCell {
+    final Object constant;
+    final String expression;
+    final String[] parts; // the literals at the even indexes and the expressions at the odd indexes
+    final int style;      // the index of the cell style
+    final int mergeRows;  // the rows the merged region of the cell spans below it, 0 if not merged
+    final int mergeCols;  // the columns the merged region of the cell spans right of it, 0 if not merged
+    final short dateFormatIndex; // the index of the excel date format of the cell style
+    final String dateFormat;     // the excel date format of the cell style, null if not a date format
+
+    private TemplateCell(Object constant, String expression, String[] parts, int style) {
+      this(constant, expression, parts, style, 0, 0, (short) 0, null);
+    }
+
+    private TemplateCell(Object constant, String expression, String[] parts, int style, int mergeRows,
+                         int mergeCols, short dateFormatIndex, String dateFormat) {
+      this.constant = constant;
+      this.expression = expression;
+      this.parts = parts;
+      this.style = style;
+      this.mergeRows = mergeRows;
+      this.mergeCols = mergeCols;
+      this.dateFormatIndex = dateFormatIndex;
+      this.dateFormat = dateFormat;
+    }
+
+    private TemplateCell merge(int rows, int cols) {
+      return new TemplateCell(constant, expression, parts, style, rows, cols, dateFormatIndex, dateFormat);
+    }
+
+    static TemplateCell of(Cell cell) {
+      TemplateCell value = valueOf(cell);
+      CellStyle style = cell.getCellStyle();
+      if (!DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString())) return value;
+      return new TemplateCell(value.constant, value.expression, value.parts, value.style, 0, 0,
+        style.getDataFormat(), style.getDataFormatString());
+    }
+
+    private static TemplateCell valueOf(Cell cell) {
+      int style = cell.getCellStyle().getIndex();
+      switch (cell.getCellTypeEnum()) {
+        case STRING:
+          return of(cell.getStringCellValue(), style);
+        case NUMERIC:
+          return new TemplateCell(DateUtil.isCellDateFormatted(cell) ? cell.getDateCellValue()
+            : cell.getNumericCellValue(), null, null, style);
+        case BOOLEAN:
+          return new TemplateCell(cell.getBooleanCellValue(), null, null, style);
+        default: // a formula refers to the template cells, it is meaningless without the workbook
+          return new TemplateCell(null, null, null, style);
+      }
+    }
+
+    static TemplateCell of(String text, int style) {
+      Matcher matcher = EXPRESSION.matcher(text);
+      if (!matcher.find()) return new TemplateCell(text, null, null, style);
+      if (matcher.start() == 0 && matcher.end() == text.length())
+        return new TemplateCell(null, matcher.group(1), null, style);
+
+      List<String> parts = new ArrayList<>();
+      int start = 0;
+      do {
+        parts.add(text.substring(start, matcher.start()));
+        parts.add(matcher.group(1));
+        start = matcher.end();
+      } while (matcher.find());
+      parts.add(text.substring(start));
+      return new TemplateCell(null, null, parts.toArray(new String[0]), style);
+    }
+  }
+}
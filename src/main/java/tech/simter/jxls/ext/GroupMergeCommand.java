@@ -0,0 +1,277 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.jxls.area.Area;
+import org.jxls.command.CellRefGenerator;
+import org.jxls.command.EachCommand;
+import org.jxls.common.*;
+import org.jxls.transform.Transformer;
+import org.jxls.transform.poi.PoiCellData;
+import org.jxls.transform.poi.PoiTransformer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Extends {@link EachCommand} to merge the consecutive equal cells of a flat sorted list.
+ * <p>
+ * Such as {@code jx:group-merge(items="rows" var="r" lastCell="C2" mergeColumns="A,B")} for rows sorted by
+ * department and team: the equal departments of column A are merged, and the equal teams of column B
+ * are merged inside their department. So a flat SQL result renders without reshaping it to a tree first.
+ * <p>
+ * The items could also be an {@link Iterable}, an {@link java.util.Iterator} or a {@link java.util.stream.Stream},
+ * only downward direction is merged. Set {@code incremental="true"} to merge every group as soon as it ends,
+ * streaming render is always incremental.
+ *
+ * @author RJ
+ */
+public class GroupMergeCommand extends EachCommand {
+  private static Logger logger = LoggerFactory.getLogger(GroupMergeCommand.class);
+
+  public static final String COMMAND_NAME = "group-merge";
+
+  private int[] mergeColumns;
+  private boolean incremental;
+
+  public GroupMergeCommand() {
+    super();
+  }
+
+  public GroupMergeCommand(String var, String items, Direction direction) {
+    super(var, items, direction);
+  }
+
+  public GroupMergeCommand(String var, String items, Area area) {
+    super(var, items, area);
+  }
+
+  public GroupMergeCommand(String var, String items, Area area, CellRefGenerator cellRefGenerator) {
+    super(var, items, area, cellRefGenerator);
+  }
+
+  public int[] getMergeColumns() {
+    return mergeColumns == null ? null : mergeColumns.clone();
+  }
+
+  /**
+   * @param mergeColumns the template columns to merge from the outer group to the inner one, such as "A,B"
+   */
+  public void setMergeColumns(String mergeColumns) {
+    if (mergeColumns == null || mergeColumns.trim().isEmpty()) {
+      this.mergeColumns = null;
+      return;
+    }
+    this.mergeColumns = Arrays.stream(mergeColumns.split(","))
+      .map(String::trim)
+      .mapToInt(column -> {
+        if (!column.matches("[A-Za-z]+"))
+          throw new IllegalArgumentException("Invalid merge column '" + column + "' in " + mergeColumns);
+        return CellReference.convertColStringToIndex(column.toUpperCase());
+      })
+      .toArray();
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * @param incremental "true" to merge every group as soon as it ends
+   */
+  public void setIncremental(String incremental) {
+    this.incremental = Boolean.parseBoolean(incremental);
+  }
+
+  @Override
+  public Size applyAt(CellRef cellRef, Context context) {
+    if (mergeColumns == null || getDirection() != Direction.DOWN)
+      return LazyItems.applyAt(this, getTransformer(), context, () -> super.applyAt(cellRef, context));
+
+    Area area = this.getAreaList().get(0);
+    GroupMergeListener listener = new GroupMergeListener(getTransformer(), area.getAreaRef(), mergeColumns,
+      incremental);
+    logger.debug("register listener {} to {} from {}", listener, area.getAreaRef(), cellRef);
+    area.addAreaListener(listener);
+    try {
+      Size size = LazyItems.applyAt(this, getTransformer(), context, () -> super.applyAt(cellRef, context));
+      listener.finish(cellRef.getRow() + size.getHeight() - 1);
+      return size;
+    } finally {
+      area.getAreaListeners().remove(listener);
+    }
+  }
+
+  /**
+   * The {@link AreaListener} that tracks the runs of equal values of the merge columns.
+   * <p>
+   * The values of an item row are compared to the previous item row when the next item row starts,
+   * a change of an outer column ends the runs of all its inner columns.
+   * The borders of a run are set item by item, on the previous item as soon as it is known to be in the run,
+   * so a run longer than the row window of the streaming render never reaches its flushed rows.
+   */
+  static class GroupMergeListener implements AreaListener {
+    private final PoiTransformer transformer;
+    private final boolean incremental;
+    private final int templateRow;             // the template row of the merge columns
+    private final int[] mergeColumns;          // template columns from outer to inner
+    private final int[] columnIndexes;         // template column - index of mergeColumns, -1 if not merged
+    private final int[] targetColumns;
+    private final Object[] values;             // the values of the current item row
+    private final Object[] previousValues;     // the values of the previous item row
+    private final int[] runStarts;             // the first item row of the current run of each column
+    private final BorderStyle[][] borders;     // the template borders of each column, top, right, bottom, left
+    private final List<CellRangeAddress> regions = new ArrayList<>();
+    private final String templateSheetName;
+
+    private String sheetName;
+    private Sheet sheet;
+    private int currentRow = -1;               // the first row of the current item
+    private int previousRow = -1;              // the first row of the previous item
+    private int previousLastRow = -1;          // the last row of the previous item
+
+    GroupMergeListener(Transformer transformer, AreaRef area, int[] mergeColumns, boolean incremental) {
+      this.transformer = (PoiTransformer) transformer;
+      this.incremental = incremental || this.transformer.getWorkbook() instanceof SXSSFWorkbook;
+      this.templateRow = area.getFirstCellRef().getRow();
+      this.mergeColumns = mergeColumns;
+      this.columnIndexes = new int[Arrays.stream(mergeColumns).max().orElse(-1) + 1];
+      Arrays.fill(columnIndexes, -1);
+      for (int i = 0; i < mergeColumns.length; i++) columnIndexes[mergeColumns[i]] = i;
+      this.targetColumns = mergeColumns.clone();
+      this.values = new Object[mergeColumns.length];
+      this.previousValues = new Object[mergeColumns.length];
+      this.runStarts = new int[mergeColumns.length];
+      this.borders = new BorderStyle[mergeColumns.length][];
+      this.templateSheetName = area.getSheetName();
+    }
+
+    @Override
+    public void beforeApplyAtCell(CellRef cellRef, Context context) {
+    }
+
+    @Override
+    public void afterApplyAtCell(CellRef cellRef, Context context) {
+    }
+
+    @Override
+    public void beforeTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+    }
+
+    @Override
+    public void afterTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+      int col = srcCell.getCol();
+      if (srcCell.getRow() != templateRow || col >= columnIndexes.length || columnIndexes[col] < 0) return;
+
+      if (sheet == null || !targetCell.getSheetName().equals(sheetName)) {
+        sheetName = targetCell.getSheetName();
+        sheet = transformer.getWorkbook().getSheet(sheetName);
+      }
+      int row = targetCell.getRow();
+      if (row != currentRow) { // a new item, the current one ends above it
+        if (currentRow >= 0) endRow(row - 1);
+        currentRow = row;
+      }
+      int index = columnIndexes[col];
+      targetColumns[index] = targetCell.getCol();
+      values[index] = readValue(sheet, row, targetCell.getCol());
+    }
+
+    /**
+     * End the last item and merge the remaining runs, invoked after the command area is finished.
+     *
+     * @param lastRow the last row of the command area
+     */
+    void finish(int lastRow) {
+      if (currentRow >= 0) endRow(lastRow);
+      for (int i = 0; i < mergeColumns.length; i++) endRun(i);
+      merge();
+      currentRow = -1;
+      previousRow = -1;
+      previousLastRow = -1;
+    }
+
+    // compare the current item to the previous one, from the outer column to the inner
+    private void endRow(int lastRow) {
+      boolean changed = previousLastRow < 0;
+      for (int i = 0; i < mergeColumns.length; i++) {
+        if (!changed && !Objects.equals(values[i], previousValues[i])) changed = true;
+        if (changed) {
+          endRun(i);
+          runStarts[i] = currentRow;
+        } else {
+          setBorders(i, false); // the previous item is not the last of the run
+        }
+        previousValues[i] = values[i];
+        values[i] = null;
+      }
+      previousRow = currentRow;
+      previousLastRow = lastRow;
+      if (incremental) merge();
+    }
+
+    // the run of the column ends at the previous item
+    private void endRun(int index) {
+      if (previousLastRow <= runStarts[index]) return;
+      regions.add(new CellRangeAddress(runStarts[index], previousLastRow, targetColumns[index], targetColumns[index]));
+      setBorders(index, true);
+    }
+
+    // set the borders of the run on the rows of the previous item, the top one on the first item of the run
+    private void setBorders(int index, boolean last) {
+      long start = System.nanoTime();
+      if (borders[index] == null) borders[index] = templateBorders(mergeColumns[index]);
+      BorderStyle[] border = borders[index];
+      BorderStyleCache.of(sheet.getWorkbook()).setBorders(sheet,
+        new CellRangeAddress(previousRow, previousLastRow, targetColumns[index], targetColumns[index]),
+        previousRow == runStarts[index] ? border[0] : null, border[1], last ? border[2] : null, border[3]);
+      RenderRecorder.addMergeNanos(System.nanoTime() - start);
+    }
+
+    // the borders of the template cell, thin if the cell is missing
+    private BorderStyle[] templateBorders(int col) {
+      PoiCellData cell = (PoiCellData) transformer.getCellData(new CellRef(templateSheetName, templateRow, col));
+      if (cell == null || cell.getCellStyle() == null)
+        return new BorderStyle[]{BorderStyle.THIN, BorderStyle.THIN, BorderStyle.THIN, BorderStyle.THIN};
+      CellStyle style = cell.getCellStyle();
+      return new BorderStyle[]{style.getBorderTopEnum(), style.getBorderRightEnum(), style.getBorderBottomEnum(),
+        style.getBorderLeftEnum()};
+    }
+
+    private void merge() {
+      if (regions.isEmpty()) return;
+      long start = System.nanoTime();
+      MergedRegionIndex.addAll(sheet, regions);
+      regions.clear();
+      RenderRecorder.addMergeNanos(System.nanoTime() - start);
+    }
+
+    private static Object readValue(Sheet sheet, int row, int col) {
+      Row r = sheet.getRow(row);
+      Cell cell = r == null ? null : r.getCell(col);
+      if (cell == null) return null;
+      switch (cell.getCellTypeEnum()) {
+        case STRING:
+          return cell.getStringCellValue();
+        case NUMERIC:
+          return cell.getNumericCellValue();
+        case BOOLEAN:
+          return cell.getBooleanCellValue();
+        case FORMULA:
+          return cell.getCellFormula();
+        default:
+          return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package tech.simter.jxls.ext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RenderMetrics} that aggregates all renders into in-memory histograms.
+ * <p>
+ * It is thread-safe and lock-free, so one instance could be shared by all renders,
+ * and read by a scheduled reporter of a monitoring system.
+ *
+ * @author RJ
+ */
+public class HistogramRenderMetrics implements RenderMetrics {
+  private final Map<RenderStats.Phase, Histogram> nanos = new EnumMap<>(RenderStats.Phase.class);
+  private final Histogram totalNanos = new Histogram();
+  private final Histogram rows = new Histogram();
+  private final Histogram cells = new Histogram();
+  private final Histogram mergedRegions = new Histogram();
+  private final Histogram bytesWritten = new Histogram();
+  private final Histogram peakRowsInMemory = new Histogram();
+
+  public HistogramRenderMetrics() {
+    for (RenderStats.Phase phase : RenderStats.Phase.values()) nanos.put(phase, new Histogram());
+  }
+
+  @Override
+  public void onRender(RenderStats stats) {
+    for (RenderStats.Phase phase : RenderStats.Phase.values()) nanos.get(phase).record(stats.getNanos(phase));
+    totalNanos.record(stats.getTotalNanos());
+    rows.record(stats.getRows());
+    cells.record(stats.getCells());
+    mergedRegions.record(stats.getMergedRegions());
+    bytesWritten.record(stats.getBytesWritten());
+    peakRowsInMemory.record(stats.getPeakRowsInMemory());
+  }
+
+  /**
+   * @return the number of recorded renders
+   */
+  public long getRenderCount() {
+    return totalNanos.getCount();
+  }
+
+  /**
+   * @param phase the phase
+   * @return the nanoseconds histogram of the phase
+   */
+  public Histogram getNanos(RenderStats.Phase phase) {
+    return nanos.get(phase);
+  }
+
+  /**
+   * @return the nanoseconds histogram of the whole render
+   */
+  public Histogram getTotalNanos() {
+    return totalNanos;
+  }
+
+  public Histogram getRows() {
+    return rows;
+  }
+
+  public Histogram getCells() {
+    return cells;
+  }
+
+  public Histogram getMergedRegions() {
+    return mergedRegions;
+  }
+
+  public Histogram getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * @return the histogram of the estimated peak rows, see {@link RenderStats#getPeakRowsInMemory()}
+   */
+  public Histogram getPeakRowsInMemory() {
+    return peakRowsInMemory;
+  }
+
+  /**
+   * Clear all histograms.
+   */
+  public void reset() {
+    nanos.values().forEach(Histogram::reset);
+    totalNanos.reset();
+    rows.reset();
+    cells.reset();
+    mergedRegions.reset();
+    bytesWritten.reset();
+    peakRowsInMemory.reset();
+  }
+
+  /**
+   * A histogram of non-negative values with power-of-two buckets,
+   * so a percentile is exact to a factor of two with a fixed small memory.
+   */
+  public static final class Histogram {
+    private static final int BUCKETS = 64;
+    // bucket 0 holds 0, bucket i holds [2^(i-1), 2^i - 1]
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+    }
+
+    void record(long value) {
+      if (value < 0) value = 0;
+      buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+      count.increment();
+      sum.add(value);
+      min.accumulate(value);
+      max.accumulate(value);
+    }
+
+    void reset() {
+      for (LongAdder bucket : buckets) bucket.reset();
+      count.reset();
+      sum.reset();
+      min.reset();
+      max.reset();
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getSum() {
+      return sum.sum();
+    }
+
+    /**
+     * @return the min value, 0 if nothing recorded
+     */
+    public long getMin() {
+      return getCount() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return the max value, 0 if nothing recorded
+     */
+    public long getMax() {
+      return getCount() == 0 ? 0 : max.get();
+    }
+
+    /**
+     * @return the mean value, 0 if nothing recorded
+     */
+    public double getMean() {
+      long n = getCount();
+      return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * Get the upper bound of the bucket that holds the percentile, capped by the max value.
+     *
+     * @param percentile the percentile between 0 and 100, such as 50, 95 or 99
+     * @return the approximate value of the percentile, 0 if nothing recorded
+     */
+    public long getPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100)
+        throw new IllegalArgumentException("percentile must be between 0 and 100");
+      long n = getCount();
+      if (n == 0) return 0;
+      long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i].sum();
+        if (seen >= rank) return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+      }
+      return getMax();
+    }
+
+    @Override
+    public String toString() {
+      return "Histogram{count=" + getCount() + ", min=" + getMin() + ", mean=" + (long) getMean()
+        + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + getMax() + "}";
+    }
+  }
+}
@@ -1,18 +1,49 @@
 package tech.simter.jxls.ext;
 
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.jxls.area.Area;
 import org.jxls.builder.xls.XlsCommentAreaBuilder;
+import org.jxls.common.AreaRef;
+import org.jxls.common.CellRef;
 import org.jxls.common.Context;
+import org.jxls.formula.FastFormulaProcessor;
+import org.jxls.transform.Transformer;
+import org.jxls.transform.poi.PoiTransformer;
 import org.jxls.util.JxlsHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.OffsetDateTime;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
 
 /**
  * The Jxls Utils.
@@ -20,9 +51,21 @@ import java.util.Map;
  * @author RJ
  */
 public class JxlsUtils {
+  private static Logger logger = LoggerFactory.getLogger(JxlsUtils.class);
+  // streaming render writes to a new sheet, because SXSSF could not rewrite the rows of the template sheet
+  private static final String STREAMING_SHEET_SUFFIX = "~result";
+  // seconds for the client to retry when the render executor is full
+  private static final int RETRY_AFTER_SECONDS = 10;
+
   static {
     // global add custom each-merge command to XlsCommentAreaBuilder
     XlsCommentAreaBuilder.addCommandMapping(EachMergeCommand.COMMAND_NAME, EachMergeCommand.class);
+
+    // global add custom group-merge command to XlsCommentAreaBuilder
+    XlsCommentAreaBuilder.addCommandMapping(GroupMergeCommand.COMMAND_NAME, GroupMergeCommand.class);
+
+    // global add custom dynamic-column command to XlsCommentAreaBuilder
+    XlsCommentAreaBuilder.addCommandMapping(DynamicColumnCommand.COMMAND_NAME, DynamicColumnCommand.class);
   }
 
   /**
@@ -34,6 +77,27 @@ public class JxlsUtils {
    * @throws RuntimeException if has IOException inner
    */
   public static void renderTemplate(InputStream template, Map<String, Object> data, OutputStream target) {
+    render(template, null, data, target, null);
+  }
+
+  /**
+   * Render the excel template with the specified data and options to the {@link OutputStream}.
+   *
+   * @param template the excel template, can be xlsx or xls format, must be xlsx format on streaming or direct render
+   * @param data     the data
+   * @param target   the output target
+   * @param options  the render options
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(InputStream template, Map<String, Object> data, OutputStream target,
+                                    RenderOptions options) {
+    if (options != null && options.isDirect()) renderDirect(CompiledTemplate.of(template), data, target, options);
+    else render(template, null, data, target, options);
+  }
+
+  // build the areas by the plan if not null, otherwise from the template comments
+  private static void render(InputStream template, RenderPlan plan, Map<String, Object> data, OutputStream target,
+                             RenderOptions options) {
     // Convert to jxls Context
     Context context = convert2Context(data);
 
@@ -41,17 +105,477 @@ public class JxlsUtils {
     addDefault(context);
 
     // render
-    renderByJxls(template, target, context);
+    if (options != null && options.isStreaming()) renderByJxlsStreaming(template, plan, target, context, options);
+    else renderByJxls(template, plan, target, context, options);
   }
 
-  private static void renderByJxls(InputStream template, OutputStream target, Context context) {
+  /**
+   * Render the compiled template with the specified data to the {@link OutputStream}.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param target   the output target
+   * @param data     the data
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(CompiledTemplate template, Map<String, Object> data, OutputStream target) {
+    render(template.openStream(), template.getPlan(), data, target, null);
+  }
+
+  /**
+   * Render the compiled template with the specified data and options to the {@link OutputStream}.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param target   the output target
+   * @param options  the render options
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(CompiledTemplate template, Map<String, Object> data, OutputStream target,
+                                    RenderOptions options) {
+    if (options != null && options.isStreaming() && !template.isXlsx())
+      throw new IllegalArgumentException("Streaming render only support xlsx template: " + template.getKey());
+    if (options != null && options.isDirect()) renderDirect(template, data, target, options);
+    else render(template.openStream(), template.getPlan(), data, target, options);
+  }
+
+  // write the sheet XML straight to the output package, see RenderOptions.setDirect
+  private static void renderDirect(CompiledTemplate template, Map<String, Object> data, OutputStream target,
+                                   RenderOptions options) {
+    if (options.getSpillRowThreshold() > 0)
+      throw new IllegalArgumentException("Direct render not support the spill-over: " + template.getKey());
+    DirectXlsxWriter writer = DirectXlsxWriter.of(template);
+    Context context = convert2Context(data);
+    addDefault(context);
+
+    RenderRecorder recorder = RenderRecorder.start(options);
     try {
-      JxlsHelper.getInstance().processTemplate(template, target, context);
+      writer.write(context.toMap(), recorder.wrap(target), recorder);
+    } finally {
+      recorder.close();
+    }
+  }
+
+  /**
+   * Render the excel template file with the specified data to the target file.
+   *
+   * @param template the excel template file, can be xlsx or xls format
+   * @param data     the data
+   * @param target   the output file, created or truncated
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(Path template, Map<String, Object> data, Path target) {
+    renderTemplate(template, data, target, null);
+  }
+
+  /**
+   * Render the excel template file with the specified data and options to the target file.
+   * <p>
+   * The template is read once and cached by the {@link TemplateRegistry} singleton,
+   * the output is written to the file channel through a large direct buffer.
+   *
+   * @param template the excel template file, can be xlsx or xls format, must be xlsx format on streaming render
+   * @param data     the data
+   * @param target   the output file, created or truncated
+   * @param options  the render options, null for the default
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(Path template, Map<String, Object> data, Path target, RenderOptions options) {
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING)) {
+      renderTemplate(TemplateRegistry.getSingleton().get(template), data, channel, options);
     } catch (IOException e) {
       throw new RuntimeException(e.getMessage(), e);
     }
   }
 
+  /**
+   * Render the excel template file with the specified data and options to the channel.
+   * <p>
+   * The template is read once and cached by the {@link TemplateRegistry} singleton,
+   * the output is written through a large direct buffer, the channel is not closed.
+   *
+   * @param template the excel template file, can be xlsx or xls format, must be xlsx format on streaming render
+   * @param data     the data
+   * @param target   the output channel
+   * @param options  the render options, null for the default
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(Path template, Map<String, Object> data, WritableByteChannel target,
+                                    RenderOptions options) {
+    renderTemplate(TemplateRegistry.getSingleton().get(template), data, target, options);
+  }
+
+  /**
+   * Render the excel template from the channel with the specified data and options to the target file.
+   * <p>
+   * The output is written to the file channel through a large direct buffer, the template channel is not closed.
+   *
+   * @param template the excel template channel, can be xlsx or xls format, must be xlsx format on streaming render
+   * @param data     the data
+   * @param target   the output file, created or truncated
+   * @param options  the render options, null for the default
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(ReadableByteChannel template, Map<String, Object> data, Path target,
+                                    RenderOptions options) {
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING)) {
+      renderTemplate(template, data, channel, options);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Render the compiled template with the specified data and options to the channel.
+   * <p>
+   * The output is written through a large direct buffer, the channel is not closed.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param target   the output channel
+   * @param options  the render options, null for the default
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(CompiledTemplate template, Map<String, Object> data, WritableByteChannel target,
+                                    RenderOptions options) {
+    try (OutputStream output = new ChannelOutputStream(target)) {
+      renderTemplate(template, data, output, options);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Render the excel template from the channel with the specified data and options to the channel.
+   * <p>
+   * The output is written through a large direct buffer, neither channel is closed.
+   *
+   * @param template the excel template channel, can be xlsx or xls format, must be xlsx format on streaming render
+   * @param data     the data
+   * @param target   the output channel
+   * @param options  the render options, null for the default
+   * @throws RuntimeException if has IOException inner
+   */
+  public static void renderTemplate(ReadableByteChannel template, Map<String, Object> data,
+                                    WritableByteChannel target, RenderOptions options) {
+    try (OutputStream output = new ChannelOutputStream(target)) {
+      // POI reads the whole template in, so a stream over the channel avoids another copy
+      InputStream input = new FilterInputStream(Channels.newInputStream(template)) {
+        @Override
+        public void close() {
+          // POI closes its input, keep the channel open for the caller
+        }
+      };
+      renderTemplate(input, data, output, options);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Render the compiled template with each data of the batch to its own {@link OutputStream} in parallel.
+   * <p>
+   * Every item renders its own workbook copy of the template, because POI workbooks are not thread-safe.
+   * A failed item is recorded in the result and never aborts the others.
+   *
+   * @param template    the compiled template, see {@link TemplateRegistry}
+   * @param dataList    the data of each item
+   * @param targets     the output target of the item index, closed after the item is rendered
+   * @param executor    the executor to render the items
+   * @param parallelism the max number of items rendering at the same time
+   * @return the batch result with the failed items
+   * @throws RuntimeException if the current thread is interrupted while waiting
+   */
+  public static BatchResult renderBatch(CompiledTemplate template, List<? extends Map<String, Object>> dataList,
+                                        IntFunction<? extends OutputStream> targets, Executor executor,
+                                        int parallelism) {
+    return renderBatch(template, dataList, targets, executor, parallelism, null);
+  }
+
+  /**
+   * Render the compiled template with each data of the batch and the options to its own {@link OutputStream}
+   * in parallel.
+   * <p>
+   * The render plan of the template is read once before the items, every item builds its areas from it.
+   *
+   * @param template    the compiled template, see {@link TemplateRegistry}
+   * @param dataList    the data of each item
+   * @param targets     the output target of the item index, closed after the item is rendered
+   * @param executor    the executor to render the items
+   * @param parallelism the max number of items rendering at the same time
+   * @param options     the render options of every item, null for the default
+   * @return the batch result with the failed items
+   * @throws RuntimeException if the current thread is interrupted while waiting
+   */
+  public static BatchResult renderBatch(CompiledTemplate template, List<? extends Map<String, Object>> dataList,
+                                        IntFunction<? extends OutputStream> targets, Executor executor,
+                                        int parallelism, RenderOptions options) {
+    if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be greater than 0");
+    template.getPlan();
+    Semaphore permits = new Semaphore(parallelism);
+    CountDownLatch done = new CountDownLatch(dataList.size());
+    SortedMap<Integer, Throwable> failures = Collections.synchronizedSortedMap(new TreeMap<>());
+    try {
+      for (int i = 0; i < dataList.size(); i++) {
+        final int index = i;
+        permits.acquire();
+        Runnable task = () -> {
+          try {
+            renderBatchItem(template, dataList.get(index), targets, index, options);
+          } catch (Throwable e) {
+            logger.warn("Failed to render batch item {}: {}", index, e.toString());
+            failures.put(index, e);
+          } finally {
+            permits.release();
+            done.countDown();
+          }
+        };
+        try {
+          executor.execute(task);
+        } catch (RejectedExecutionException e) {
+          failures.put(index, e);
+          permits.release();
+          done.countDown();
+        }
+      }
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e.getMessage(), e);
+    }
+    return new BatchResult(dataList.size(), new TreeMap<>(failures));
+  }
+
+  /**
+   * Render the compiled template with each data of the batch to its own {@link OutputStream} in parallel,
+   * on a new thread pool that is shut down after the batch.
+   *
+   * @param template    the compiled template, see {@link TemplateRegistry}
+   * @param dataList    the data of each item
+   * @param targets     the output target of the item index, closed after the item is rendered
+   * @param parallelism the number of threads
+   * @return the batch result with the failed items
+   * @throws RuntimeException if the current thread is interrupted while waiting
+   */
+  public static BatchResult renderBatch(CompiledTemplate template, List<? extends Map<String, Object>> dataList,
+                                        IntFunction<? extends OutputStream> targets, int parallelism) {
+    return renderBatch(template, dataList, targets, parallelism, null);
+  }
+
+  /**
+   * Render the compiled template with each data of the batch and the options to its own {@link OutputStream}
+   * in parallel, on a new thread pool that is shut down after the batch.
+   *
+   * @param template    the compiled template, see {@link TemplateRegistry}
+   * @param dataList    the data of each item
+   * @param targets     the output target of the item index, closed after the item is rendered
+   * @param parallelism the number of threads
+   * @param options     the render options of every item, null for the default
+   * @return the batch result with the failed items
+   * @throws RuntimeException if the current thread is interrupted while waiting
+   */
+  public static BatchResult renderBatch(CompiledTemplate template, List<? extends Map<String, Object>> dataList,
+                                        IntFunction<? extends OutputStream> targets, int parallelism,
+                                        RenderOptions options) {
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      return renderBatch(template, dataList, targets, executor, parallelism, options);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void renderBatchItem(CompiledTemplate template, Map<String, Object> data,
+                                      IntFunction<? extends OutputStream> targets, int index,
+                                      RenderOptions options) throws IOException {
+    try (OutputStream target = targets.apply(index)) {
+      renderTemplate(template, data, target, options);
+    }
+  }
+
+  /**
+   * Render the excel template with the specified data to a flat file, such as CSV or TSV.
+   *
+   * @param template the excel template, can be xlsx or xls format
+   * @param data     the data
+   * @param target   the output target, not closed
+   * @param options  the flat file options, CSV if null
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the template has a command the flat file render not supports
+   * @see #renderTemplate2FlatFile(CompiledTemplate, Map, OutputStream, FlatFileOptions)
+   */
+  public static void renderTemplate2FlatFile(InputStream template, Map<String, Object> data, OutputStream target,
+                                             FlatFileOptions options) {
+    renderTemplate2FlatFile(CompiledTemplate.of(template), data, target, options);
+  }
+
+  /**
+   * Render the compiled template with the specified data to a flat file, such as CSV or TSV.
+   * <p>
+   * The rows of the template areas are written straight to the buffered output, without a workbook:
+   * the {@code jx:each} and {@code jx:each-merge} areas are interpreted item by item and a cell is its value,
+   * formatted by the options or by the {@code fn} functions of its expression. The styles and the formulas
+   * of the template are ignored. The cells of the template are read once and kept by the compiled template.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param target   the output target, not closed
+   * @param options  the flat file options, CSV if null
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the template has a command the flat file render not supports
+   */
+  public static void renderTemplate2FlatFile(CompiledTemplate template, Map<String, Object> data,
+                                             OutputStream target, FlatFileOptions options) {
+    if (options == null) options = FlatFileOptions.csv();
+    Context context = convert2Context(data);
+    addDefault(context);
+
+    FlatRenderer renderer = new FlatRenderer(FlatTemplate.of(template), context.toMap());
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(target, options.getCharset()), 64 * 1024);
+      if (options.isBom()) writer.write('\uFEFF');
+      renderer.render(new DelimitedWriter(writer, options));
+      writer.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  // the same steps as JxlsHelper.processTemplate, split to record every phase
+  private static void renderByJxls(InputStream template, RenderPlan plan, OutputStream target, Context context,
+                                   RenderOptions options) {
+    RenderRecorder recorder = RenderRecorder.start(options);
+    try {
+      Transformer transformer = JxlsHelper.getInstance().createTransformer(template, recorder.wrap(target));
+      configure(transformer);
+      List<Area> areas = buildAreas(transformer, plan);
+      recorder.loaded(areas);
+
+      List<SpillOver> spillOvers = new ArrayList<>();
+      for (Area area : areas) {
+        spillOver(transformer, area, area.getStartCellRef().getSheetName(), options, spillOvers);
+        area.applyAt(new CellRef(area.getStartCellRef().getCellName()), context);
+      }
+      for (SpillOver spillOver : spillOvers) spillOver.placeSheets(spillOver.getTemplateSheet());
+      for (Area area : areas) {
+        area.setFormulaProcessor(new FastFormulaProcessor());
+        area.processFormulas();
+      }
+      if (transformer instanceof PoiTransformer) recorder.transformed(((PoiTransformer) transformer).getWorkbook());
+
+      transformer.write();
+      recorder.written();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } finally {
+      recorder.close();
+    }
+  }
+
+  private static List<Area> buildAreas(Transformer transformer, RenderPlan plan) {
+    return plan != null ? plan.build(transformer) : new XlsCommentAreaBuilder(transformer).build();
+  }
+
+  // continue the main each command of the area on new sheets if the options has a row threshold
+  private static void spillOver(Transformer transformer, Area area, String targetSheet, RenderOptions options,
+                                List<SpillOver> spillOvers) {
+    if (options == null || options.getSpillRowThreshold() <= 0 || !(transformer instanceof PoiTransformer)) return;
+    SpillOver spillOver = SpillOver.install((PoiTransformer) transformer, options.getSpillRowThreshold(), area,
+      targetSheet);
+    if (spillOver != null) spillOvers.add(spillOver);
+  }
+
+  // install the shared compiled expression cache
+  private static void configure(Transformer transformer) {
+    transformer.getTransformationConfig().setExpressionEvaluator(CachingExpressionEvaluator.getSingleton());
+  }
+
+  private static void renderByJxlsStreaming(InputStream template, RenderPlan plan, OutputStream target,
+                                            Context context, RenderOptions options) {
+    RenderRecorder recorder = RenderRecorder.start(options);
+    Workbook templateWorkbook;
+    try {
+      templateWorkbook = WorkbookFactory.create(template);
+    } catch (IOException | InvalidFormatException e) {
+      recorder.close();
+      throw new RuntimeException(e.getMessage(), e);
+    }
+    if (!(templateWorkbook instanceof XSSFWorkbook)) {
+      recorder.close();
+      throw new IllegalArgumentException("Streaming render only support xlsx template");
+    }
+
+    PoiTransformer transformer = PoiTransformer.createSxssfTransformer(templateWorkbook,
+      options.getRowAccessWindowSize(), options.isCompressTmpFiles());
+    configure(transformer);
+    SXSSFWorkbook workbook = (SXSSFWorkbook) transformer.getWorkbook();
+    try {
+      // render every area to the result sheet of its template sheet
+      List<Area> areas = buildAreas(transformer, plan);
+      checkOutOfAreas(templateWorkbook, areas);
+      recorder.loaded(areas);
+      Map<String, String> resultSheets = new LinkedHashMap<>();
+      List<SpillOver> spillOvers = new ArrayList<>();
+      for (Area area : areas) {
+        CellRef start = area.getStartCellRef();
+        String resultSheet = resultSheets.computeIfAbsent(start.getSheetName(), s -> s + STREAMING_SHEET_SUFFIX);
+        spillOver(transformer, area, resultSheet, options, spillOvers);
+        area.applyAt(new CellRef(resultSheet, start.getRow(), start.getCol()), context);
+      }
+
+      // replace the template sheets by their result sheets
+      resultSheets.forEach((templateSheet, resultSheet) -> {
+        int index = workbook.getSheetIndex(templateSheet);
+        workbook.removeSheetAt(index);
+        workbook.setSheetName(workbook.getSheetIndex(resultSheet), templateSheet);
+        workbook.setSheetOrder(templateSheet, index);
+      });
+      for (SpillOver spillOver : spillOvers) spillOver.placeSheets(spillOver.getTemplateSheet());
+      if (!resultSheets.isEmpty()) workbook.setActiveSheet(0);
+      recorder.transformed(workbook);
+
+      transformer.setOutputStream(recorder.wrap(target));
+      transformer.write();
+      recorder.written();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } finally {
+      // delete the temp files
+      workbook.dispose();
+      recorder.close();
+    }
+  }
+
+  // a result sheet only has the areas of its template sheet, so the cells out of them would be dropped silently
+  private static void checkOutOfAreas(Workbook workbook, List<Area> areas) {
+    Map<String, List<AreaRef>> sheetAreas = new HashMap<>();
+    for (Area area : areas) {
+      AreaRef ref = area.getAreaRef();
+      sheetAreas.computeIfAbsent(ref.getSheetName(), name -> new ArrayList<>()).add(ref);
+    }
+    sheetAreas.forEach((sheetName, refs) -> {
+      Sheet sheet = workbook.getSheet(sheetName);
+      if (sheet == null) return;
+      for (Row row : sheet) {
+        for (Cell cell : row) {
+          if (cell.getCellTypeEnum() == CellType.BLANK) continue;
+          CellRef cellRef = new CellRef(sheetName, cell.getRowIndex(), cell.getColumnIndex());
+          if (refs.stream().noneMatch(ref -> ref.contains(cellRef)))
+            throw new IllegalArgumentException("Streaming render only writes the areas, put the cell "
+              + cellRef.getCellName() + " in an area or render without streaming");
+        }
+      }
+      for (CellRangeAddress region : sheet.getMergedRegions()) {
+        CellRef first = new CellRef(sheetName, region.getFirstRow(), region.getFirstColumn());
+        CellRef last = new CellRef(sheetName, region.getLastRow(), region.getLastColumn());
+        if (refs.stream().noneMatch(ref -> ref.contains(first) && ref.contains(last)))
+          throw new IllegalArgumentException("Streaming render only writes the areas, put the merged region "
+            + region.formatAsString() + " of the sheet " + sheetName + " in an area or render without streaming");
+      }
+    });
+  }
+
   public static Context convert2Context(Map<String, Object> data) {
     Context context = new Context();
     if (data != null) data.forEach(context::putVar);
@@ -79,6 +603,79 @@ public class JxlsUtils {
     return renderTemplate2Response(template, data, null);
   }
 
+  /**
+   * Generate a {@link Response.ResponseBuilder} instance
+   * and render the compiled template with the specified data to its output stream.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @return the instance of {@link Response.ResponseBuilder} with the excel data
+   * @throws RuntimeException if has IOException or UnsupportedEncodingException inner
+   */
+  public static Response.ResponseBuilder renderTemplate2Response(CompiledTemplate template, Map<String, Object> data) {
+    return renderTemplate2Response(template, data, null);
+  }
+
+  /**
+   * Generate a {@link Response.ResponseBuilder} instance
+   * and render the compiled template with the specified data to its output stream.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param filename the download filename of the response
+   * @return the instance of {@link Response.ResponseBuilder} with the excel data
+   * @throws RuntimeException if has IOException or UnsupportedEncodingException inner
+   */
+  public static Response.ResponseBuilder renderTemplate2Response(CompiledTemplate template, Map<String, Object> data,
+                                                                 String filename) {
+    return renderTemplate2Response(template, data, filename, null);
+  }
+
+  /**
+   * Generate a {@link Response.ResponseBuilder} instance
+   * and render the compiled template with the specified data and options to its output stream.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param filename the download filename of the response
+   * @param options  the render options, such as the metrics of the render, null for the default
+   * @return the instance of {@link Response.ResponseBuilder} with the excel data
+   * @throws RuntimeException if has IOException or UnsupportedEncodingException inner
+   */
+  public static Response.ResponseBuilder renderTemplate2Response(CompiledTemplate template, Map<String, Object> data,
+                                                                 String filename, RenderOptions options) {
+    StreamingOutput stream = (OutputStream output) -> renderTemplate(template, data, output, options);
+    return attachment(Response.ok(stream), filename);
+  }
+
+  /**
+   * Generate a {@link Response.ResponseBuilder} instance with the cached excel of the template and the data fingerprint,
+   * the excel is rendered and cached on the first write of a miss.
+   * <p>
+   * The response has the {@code ETag} of the output, see {@link RenderCache#etag}.
+   * If the {@code If-None-Match} of the request matches it, a 304 builder is returned without render.
+   *
+   * @param template    the compiled template, see {@link TemplateRegistry}
+   * @param data        the data, only used on a miss
+   * @param filename    the download filename of the response
+   * @param cache       the cache of the rendered outputs
+   * @param fingerprint the data fingerprint, must change whenever the data of the excel changes
+   * @param request     the request to evaluate the preconditions, null to always send the excel
+   * @return the instance of {@link Response.ResponseBuilder} with the excel data or 304
+   * @throws RuntimeException if has IOException or UnsupportedEncodingException inner
+   */
+  public static Response.ResponseBuilder renderTemplate2Response(CompiledTemplate template, Map<String, Object> data,
+                                                                 String filename, RenderCache cache,
+                                                                 String fingerprint, Request request) {
+    EntityTag tag = new EntityTag(cache.etag(template, fingerprint));
+    if (request != null) {
+      Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+      if (notModified != null) return notModified;
+    }
+    StreamingOutput stream = (OutputStream output) -> cache.render(template, data, fingerprint, null, output);
+    return attachment(Response.ok(stream), filename).tag(tag);
+  }
+
   /**
    * Generate a {@link Response.ResponseBuilder} instance
    * and render the excel template with the specified data to its output stream.
@@ -91,19 +688,118 @@ public class JxlsUtils {
    */
   public static Response.ResponseBuilder renderTemplate2Response(InputStream template, Map<String, Object> data,
                                                                  String filename) {
-    StreamingOutput stream = (OutputStream output) -> {
-      // Convert to jxls Context
-      Context context = convert2Context(data);
+    return renderTemplate2Response(template, data, filename, null);
+  }
 
-      // Add default functions
-      addDefault(context);
+  /**
+   * Generate a {@link Response.ResponseBuilder} instance
+   * and render the excel template with the specified data and options to its output stream.
+   *
+   * @param template the excel template, can be xlsx or xls format, must be xlsx format on streaming or direct render
+   * @param data     the data
+   * @param filename the download filename of the response
+   * @param options  the render options, such as the metrics of the render, null for the default
+   * @return the instance of {@link Response.ResponseBuilder} with the excel data
+   * @throws RuntimeException if has IOException or UnsupportedEncodingException inner
+   */
+  public static Response.ResponseBuilder renderTemplate2Response(InputStream template, Map<String, Object> data,
+                                                                 String filename, RenderOptions options) {
+    StreamingOutput stream = (OutputStream output) -> renderTemplate(template, data, output, options);
+    return attachment(Response.ok(stream), filename);
+  }
+
+  /**
+   * Render the compiled template with the specified data on the shared {@link RenderExecutor},
+   * so the request thread is never blocked by the render.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param filename the download filename of the response
+   * @return the stage of the response with the excel data, or 503 if the executor is full
+   */
+  public static CompletionStage<Response> renderTemplate2ResponseAsync(CompiledTemplate template,
+                                                                       Map<String, Object> data, String filename) {
+    return renderTemplate2ResponseAsync(template, data, filename, null, RenderExecutor.getSingleton());
+  }
+
+  /**
+   * Render the compiled template with the specified data and options on the executor,
+   * so the request thread is never blocked by the render.
+   * <p>
+   * The excel is rendered to a temp file that is deleted after the response is written,
+   * a response that is never written leaves it to the JVM exit, see
+   * {@link #renderTemplate2Response(AsyncResponse, CompiledTemplate, Map, String)} to delete it in time.
+   * A render rejected by the full executor is answered with 503 and a {@code Retry-After} header,
+   * any other failure fails the stage.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param filename the download filename of the response
+   * @param options  the render options, null for the default
+   * @param executor the executor to render on
+   * @return the stage of the response with the excel data, or 503 if the executor is full
+   */
+  public static CompletionStage<Response> renderTemplate2ResponseAsync(CompiledTemplate template,
+                                                                       Map<String, Object> data, String filename,
+                                                                       RenderOptions options,
+                                                                       RenderExecutor executor) {
+    return executor.render(template, data, options).handle((file, e) -> toResponse(file, e, filename));
+  }
+
+  // the response of the rendered file, or 503 if the render is rejected
+  private static Response toResponse(Path file, Throwable e, String filename) {
+    if (e == null) {
+      StreamingOutput stream = (OutputStream output) -> {
+        try {
+          Files.copy(file, output);
+        } finally {
+          RenderExecutor.delete(file);
+        }
+      };
+      return attachment(Response.ok(stream), filename).build();
+    }
+
+    Throwable cause = unwrap(e);
+    if (cause instanceof RejectedExecutionException)
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", RETRY_AFTER_SECONDS).build();
+    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+    throw new CompletionException(cause);
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
 
-      // render
-      renderByJxls(template, output, context);
-    };
+  /**
+   * Render the compiled template with the specified data on the shared {@link RenderExecutor}
+   * and resume the suspended response with the result.
+   * <p>
+   * The rendered temp file is deleted once the request is done, also when the response times out,
+   * is cancelled or fails to be written.
+   *
+   * @param response the suspended response
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param filename the download filename of the response
+   */
+  public static void renderTemplate2Response(AsyncResponse response, CompiledTemplate template,
+                                             Map<String, Object> data, String filename) {
+    AtomicReference<Path> rendered = new AtomicReference<>();
+    response.register((CompletionCallback) e -> RenderExecutor.delete(rendered.get()));
+    RenderExecutor.getSingleton().render(template, data, null).whenComplete((file, e) -> {
+      rendered.set(file);
+      boolean resumed;
+      try {
+        resumed = response.resume(toResponse(file, e, filename));
+      } catch (Throwable t) {
+        resumed = response.resume(unwrap(t));
+      }
+      // timed out or cancelled before the render is done, the completion callback may have run already
+      if (!resumed) RenderExecutor.delete(file);
+    });
+  }
 
-    // create response
-    Response.ResponseBuilder builder = Response.ok(stream);
+  private static Response.ResponseBuilder attachment(Response.ResponseBuilder builder, String filename) {
     if (filename != null) {
       try {
         builder.header("Content-Disposition", "attachment; filename=\"" + URLEncoder.encode(filename, "UTF-8") + "\"");
@@ -0,0 +1,127 @@
+package tech.simter.jxls.ext;
+
+import org.jxls.command.EachCommand;
+import org.jxls.common.Context;
+import org.jxls.common.Size;
+import org.jxls.transform.Transformer;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.stream.BaseStream;
+
+/**
+ * A single pass {@link Collection} view of the items of unknown size,
+ * such as an {@link Iterable}, an {@link Iterator} or a {@link java.util.stream.Stream}.
+ * <p>
+ * jxls {@link EachCommand} only accepts a {@link Collection} as its items,
+ * but it only iterates them once, so this view lets it consume a database cursor with constant memory.
+ *
+ * @author RJ
+ */
+final class LazyItems extends AbstractCollection<Object> implements AutoCloseable {
+  // the private var of the evaluated items, a fixed name keeps the items expression of every render the same
+  private static final String ITEMS_VAR = "_lazyItems";
+  private final Iterator<?> iterator;
+  private final AutoCloseable resource;
+  private boolean iterated;
+  private int consumed;
+
+  private LazyItems(Iterator<?> iterator, AutoCloseable resource) {
+    this.iterator = iterator;
+    this.resource = resource;
+  }
+
+  /**
+   * Wrap the items to a lazy collection if they are not a collection.
+   *
+   * @param items the items
+   * @return the lazy collection, or null if the items could be used by jxls directly
+   */
+  static LazyItems wrap(Object items) {
+    if (items == null || items instanceof Collection || items instanceof Object[]) return null;
+    if (items instanceof BaseStream) {
+      BaseStream<?, ?> stream = (BaseStream<?, ?>) items;
+      return new LazyItems(stream.iterator(), stream);
+    }
+    if (items instanceof Iterator) return new LazyItems((Iterator<?>) items, null);
+    if (items instanceof Iterable) return new LazyItems(((Iterable<?>) items).iterator(), null);
+    return null;
+  }
+
+  /**
+   * Apply the command with its items wrapped to a lazy collection if they are not a collection.
+   * <p>
+   * The items expression is evaluated once, the command reads the evaluated items from a private var,
+   * the previous value of the var is restored after, the same as {@link EachCommand} does for its var.
+   *
+   * @param command     the command
+   * @param transformer the transformer of the command
+   * @param context     the context
+   * @param apply       the standard apply of the command
+   * @return the size of the applied area
+   */
+  static Size applyAt(EachCommand command, Transformer transformer, Context context, Supplier<Size> apply) {
+    String items = command.getItems();
+    Object value = transformer.getTransformationConfig().getExpressionEvaluator().evaluate(items, context.toMap());
+    if (value == null) return apply.get();
+    LazyItems lazyItems = wrap(value);
+
+    // let the command read the evaluated items from the private var, not evaluate its expression again
+    Object previous = context.getVar(ITEMS_VAR);
+    context.putVar(ITEMS_VAR, lazyItems != null ? lazyItems : value);
+    command.setItems(ITEMS_VAR);
+    try {
+      return apply.get();
+    } finally {
+      command.setItems(items);
+      if (previous != null) context.putVar(ITEMS_VAR, previous);
+      else context.removeVar(ITEMS_VAR);
+      if (lazyItems != null) lazyItems.close();
+    }
+  }
+
+  @Override
+  public Iterator<Object> iterator() {
+    if (iterated) throw new IllegalStateException("The lazy items could only be iterated once");
+    iterated = true;
+    return new Iterator<Object>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Object next() {
+        if (!iterator.hasNext()) throw new NoSuchElementException();
+        consumed++;
+        return iterator.next();
+      }
+    };
+  }
+
+  /**
+   * The size is unknown until all items are consumed, so this is the number of items consumed yet.
+   */
+  @Override
+  public int size() {
+    return consumed;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return consumed == 0 && !iterator.hasNext();
+  }
+
+  @Override
+  public void close() {
+    if (resource == null) return;
+    try {
+      resource.close();
+    } catch (Exception e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+}
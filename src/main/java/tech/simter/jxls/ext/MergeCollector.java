@@ -0,0 +1,41 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collect the merged regions of the rows rendered by {@link FlatRenderer}, for a writer without a workbook.
+ * <p>
+ * A merged region of a template cell is copied at the row the cell is rendered to, as jxls does.
+ * The regions of the merge commands are not collected, see {@link RenderOptions#setDirect}.
+ *
+ * @author RJ
+ */
+final class MergeCollector {
+  private final List<CellRangeAddress> regions = new ArrayList<>();
+
+  /**
+   * Collect the merged cells of the rendered row.
+   *
+   * @param rowIndex the row index in the sheet
+   * @param firstCol the column index in the sheet of the first cell of the row
+   * @param row      the rendered row
+   */
+  void row(int rowIndex, int firstCol, FlatRenderer.FlatRow row) {
+    for (int c = 0; c < row.width(); c++) {
+      FlatTemplate.TemplateCell cell = row.cells[c];
+      if (cell == null || row.merged[c] || (cell.mergeRows == 0 && cell.mergeCols == 0)) continue;
+      regions.add(new CellRangeAddress(rowIndex, rowIndex + cell.mergeRows, firstCol + c,
+        firstCol + c + cell.mergeCols));
+    }
+  }
+
+  /**
+   * @return the merged regions
+   */
+  List<CellRangeAddress> getRegions() {
+    return regions;
+  }
+}
@@ -0,0 +1,83 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.*;
+
+/**
+ * A sorted interval index of the merged regions of a sheet.
+ * <p>
+ * {@link Sheet#addMergedRegion(CellRangeAddress)} checks every new region against all existing ones,
+ * so adding n regions costs O(n²). This index keeps the regions sorted by first row,
+ * so a new region is only checked against the regions that could reach its rows,
+ * then added by {@link Sheet#addMergedRegionUnsafe(CellRangeAddress)}.
+ * <p>
+ * The index is kept for each sheet and picks up the regions added by others since its last use.
+ *
+ * @author RJ
+ */
+final class MergedRegionIndex {
+  private static final Map<Sheet, MergedRegionIndex> indexes = Collections.synchronizedMap(new WeakHashMap<>());
+
+  // first row - regions start at that row
+  private final TreeMap<Integer, List<CellRangeAddress>> regions = new TreeMap<>();
+  private int maxHeight;
+  private int synced; // the number of sheet merged regions already indexed
+
+  private MergedRegionIndex() {
+  }
+
+  /**
+   * Add the merged regions to the sheet.
+   *
+   * @param sheet   the sheet
+   * @param regions the regions to merge
+   * @throws IllegalStateException if a region overlaps an existing merged region
+   */
+  static void addAll(Sheet sheet, Collection<CellRangeAddress> regions) {
+    if (regions.isEmpty()) return;
+    MergedRegionIndex index = indexes.computeIfAbsent(sheet, s -> new MergedRegionIndex());
+    synchronized (index) {
+      index.sync(sheet);
+      for (CellRangeAddress region : regions) {
+        CellRangeAddress existing = index.findOverlap(region);
+        if (existing != null) throw new IllegalStateException("The range " + region.formatAsString()
+          + " intersects with an existing merged region (" + existing.formatAsString() + ").");
+        index.add(region);
+        sheet.addMergedRegionUnsafe(region);
+        index.synced++;
+      }
+    }
+  }
+
+  // index the merged regions added by others
+  private void sync(Sheet sheet) {
+    int count = sheet.getNumMergedRegions();
+    if (count < synced) { // some regions were removed, rebuild
+      regions.clear();
+      maxHeight = 0;
+      synced = 0;
+    }
+    for (int i = synced; i < count; i++) add(sheet.getMergedRegion(i));
+    synced = count;
+  }
+
+  private void add(CellRangeAddress region) {
+    regions.computeIfAbsent(region.getFirstRow(), k -> new ArrayList<>(1)).add(region);
+    maxHeight = Math.max(maxHeight, region.getLastRow() - region.getFirstRow());
+  }
+
+  private CellRangeAddress findOverlap(CellRangeAddress region) {
+    // only the regions start in [firstRow - maxHeight, lastRow] could reach the region rows
+    for (List<CellRangeAddress> candidates : regions.subMap(
+      region.getFirstRow() - maxHeight, true, region.getLastRow(), true).values()) {
+      for (CellRangeAddress candidate : candidates) {
+        if (candidate.getLastRow() >= region.getFirstRow()
+          && candidate.getFirstColumn() <= region.getLastColumn()
+          && candidate.getLastColumn() >= region.getFirstColumn()) return candidate;
+      }
+    }
+    return null;
+  }
+}
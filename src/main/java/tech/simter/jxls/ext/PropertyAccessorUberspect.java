@@ -0,0 +1,97 @@
+package tech.simter.jxls.ext;
+
+import org.apache.commons.jexl2.JexlInfo;
+import org.apache.commons.jexl2.introspection.JexlPropertyGet;
+import org.apache.commons.jexl2.introspection.UberspectImpl;
+import org.apache.commons.logging.Log;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A JEXL uberspect that reads the properties by the {@link PropertyAccessors}.
+ * <p>
+ * JEXL caches the returned getter in the expression node, so {@code r.name} in a compiled expression
+ * is one class check and one direct call per cell. A {@link Map} row is always read by its key.
+ *
+ * @author RJ
+ */
+public class PropertyAccessorUberspect extends UberspectImpl {
+  // returned by tryInvoke when the cached getter does not fit the object
+  private static final Object TRY_FAILED = new Object();
+
+  public PropertyAccessorUberspect(Log runtimeLogger) {
+    super(runtimeLogger);
+  }
+
+  @Override
+  public JexlPropertyGet getPropertyGet(Object obj, Object identifier, JexlInfo info) {
+    if (obj != null && identifier instanceof String) {
+      String property = (String) identifier;
+      if (obj instanceof Map) return new MapGet(property);
+      Function<Object, Object> accessor = PropertyAccessors.find(obj.getClass(), property);
+      if (accessor != null) return new AccessorGet(obj.getClass(), property, accessor);
+    }
+    return super.getPropertyGet(obj, identifier, info);
+  }
+
+  private static final class MapGet implements JexlPropertyGet {
+    private final String key;
+
+    MapGet(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public Object invoke(Object obj) {
+      return ((Map<?, ?>) obj).get(key);
+    }
+
+    @Override
+    public Object tryInvoke(Object obj, Object key) {
+      return obj instanceof Map && this.key.equals(key) ? ((Map<?, ?>) obj).get(key) : TRY_FAILED;
+    }
+
+    @Override
+    public boolean tryFailed(Object rval) {
+      return rval == TRY_FAILED;
+    }
+
+    @Override
+    public boolean isCacheable() {
+      return true;
+    }
+  }
+
+  private static final class AccessorGet implements JexlPropertyGet {
+    private final Class<?> type;
+    private final String property;
+    private final Function<Object, Object> accessor;
+
+    AccessorGet(Class<?> type, String property, Function<Object, Object> accessor) {
+      this.type = type;
+      this.property = property;
+      this.accessor = accessor;
+    }
+
+    @Override
+    public Object invoke(Object obj) {
+      return accessor.apply(obj);
+    }
+
+    @Override
+    public Object tryInvoke(Object obj, Object key) {
+      return obj != null && obj.getClass() == type && property.equals(key) ? accessor.apply(obj) : TRY_FAILED;
+    }
+
+    @Override
+    public boolean tryFailed(Object rval) {
+      return rval == TRY_FAILED;
+    }
+
+    @Override
+    public boolean isCacheable() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package tech.simter.jxls.ext;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The generated property accessors of the row data.
+ * <p>
+ * The getters of a class are introspected once, each getter becomes a {@link Function} generated by
+ * {@link LambdaMetafactory}, or a {@link MethodHandle} if the class is not public
+ * or not visible to the class loader of this class.
+ * So reading a property costs a map lookup and a direct call instead of a reflective invoke.
+ * A {@link Map} row is read by its key.
+ *
+ * @author RJ
+ */
+public final class PropertyAccessors {
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  // class - property - accessor
+  private static final ClassValue<Map<String, Function<Object, Object>>> ACCESSORS
+    = new ClassValue<Map<String, Function<Object, Object>>>() {
+    @Override
+    protected Map<String, Function<Object, Object>> computeValue(Class<?> type) {
+      return createAccessors(type);
+    }
+  };
+
+  private PropertyAccessors() {
+  }
+
+  /**
+   * Read the property of the bean, or the key of a {@link Map}.
+   *
+   * @param bean     the bean or map
+   * @param property the property name
+   * @return the property value
+   * @throws IllegalArgumentException if the bean has no such readable property
+   */
+  public static Object get(Object bean, String property) {
+    if (bean instanceof Map) return ((Map<?, ?>) bean).get(property);
+    Function<Object, Object> accessor = find(bean.getClass(), property);
+    if (accessor == null)
+      throw new IllegalArgumentException("No property '" + property + "' in " + bean.getClass().getName());
+    return accessor.apply(bean);
+  }
+
+  /**
+   * Find the accessor of the property of the class.
+   *
+   * @param type     the bean class
+   * @param property the property name
+   * @return the accessor, or null if the class has no such readable property
+   */
+  public static Function<Object, Object> find(Class<?> type, String property) {
+    return ACCESSORS.get(type).get(property);
+  }
+
+  private static Map<String, Function<Object, Object>> createAccessors(Class<?> type) {
+    PropertyDescriptor[] descriptors;
+    try {
+      descriptors = Introspector.getBeanInfo(type).getPropertyDescriptors();
+    } catch (IntrospectionException e) {
+      throw new IllegalArgumentException("Could not read the properties of " + type.getName(), e);
+    }
+    Map<String, Function<Object, Object>> accessors = new HashMap<>();
+    for (PropertyDescriptor descriptor : descriptors) {
+      Method getter = descriptor.getReadMethod();
+      if (getter == null || getter.getParameterCount() != 0) continue;
+      Function<Object, Object> accessor = createAccessor(getter);
+      if (accessor != null) accessors.put(descriptor.getName(), accessor);
+    }
+    return Collections.unmodifiableMap(accessors);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Function<Object, Object> createAccessor(Method getter) {
+    // a lambda calls the getter directly, only for a public getter of a public class
+    if (Modifier.isPublic(getter.getModifiers()) && Modifier.isPublic(getter.getDeclaringClass().getModifiers())
+      && isVisible(getter.getDeclaringClass()) && isVisible(getter.getReturnType())) {
+      try {
+        MethodHandle handle = LOOKUP.unreflect(getter);
+        CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+          MethodType.methodType(Object.class, Object.class), handle, handle.type().wrap());
+        return (Function<Object, Object>) site.getTarget().invokeExact();
+      } catch (Throwable ignored) {
+        // fallback to the method handle
+      }
+    }
+
+    try {
+      getter.setAccessible(true);
+      MethodHandle handle = LOOKUP.unreflect(getter).asType(MethodType.methodType(Object.class, Object.class));
+      return bean -> {
+        try {
+          return handle.invokeExact(bean);
+        } catch (RuntimeException | Error e) {
+          throw e;
+        } catch (Throwable e) {
+          throw new RuntimeException(e.getMessage(), e);
+        }
+      };
+    } catch (IllegalAccessException | RuntimeException e) {
+      return null; // not accessible, such as a getter of a class in a closed module
+    }
+  }
+
+  // the generated lambda class links the getter by name in the class loader of this class,
+  // a class it could not see, such as a class of a web app loader, fails on the first call
+  private static boolean isVisible(Class<?> type) {
+    while (type.isArray()) type = type.getComponentType();
+    if (type.isPrimitive()) return true;
+    try {
+      return Class.forName(type.getName(), false, PropertyAccessors.class.getClassLoader()) == type;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
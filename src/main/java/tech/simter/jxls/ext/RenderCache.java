@@ -0,0 +1,364 @@
+package tech.simter.jxls.ext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of the rendered outputs, keyed by the template and a caller supplied data fingerprint.
+ * <p>
+ * The outputs are kept on the heap up to {@code maxHeapBytes}, the least recently used ones are moved out
+ * to the local disk directory up to {@code maxDiskBytes} and deleted from it in the same order.
+ * An output larger than the heap tier is rendered to the disk tier at once, and one larger than both is not cached.
+ * <p>
+ * The fingerprint must change whenever the data of the output changes, such as a hash of the query parameters
+ * and the data version. Its {@link #etag} is the entity tag of the output, see
+ * {@link JxlsUtils#renderTemplate2Response(CompiledTemplate, Map, String, RenderCache, String, javax.ws.rs.core.Request)}.
+ *
+ * @author RJ
+ */
+public class RenderCache {
+  private static Logger logger = LoggerFactory.getLogger(RenderCache.class);
+
+  private final long maxHeapBytes;
+  private final Path directory;     // null if no disk tier
+  private final long maxDiskBytes;
+  private final LinkedHashMap<String, byte[]> heap = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private long heapBytes;
+  private long diskBytes;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  /**
+   * @param maxHeapBytes the max bytes of the outputs kept on the heap
+   */
+  public RenderCache(long maxHeapBytes) {
+    this(maxHeapBytes, null, 0);
+  }
+
+  /**
+   * @param maxHeapBytes the max bytes of the outputs kept on the heap
+   * @param directory    the directory of the disk tier, created if not exists, null if no disk tier.
+   *                     It must not be shared by another cache, the cache files left in it are deleted
+   * @param maxDiskBytes the max bytes of the outputs kept in the directory
+   * @throws RuntimeException if has IOException inner
+   */
+  public RenderCache(long maxHeapBytes, Path directory, long maxDiskBytes) {
+    if (maxHeapBytes < 0) throw new IllegalArgumentException("maxHeapBytes must not be less than 0");
+    if (maxDiskBytes < 0) throw new IllegalArgumentException("maxDiskBytes must not be less than 0");
+    if (directory != null) {
+      try {
+        Files.createDirectories(directory);
+        // the files of a previous process are unknown to this cache, they would never be evicted
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{cache,tmp}")) {
+          for (Path file : files) RenderExecutor.delete(file);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e.getMessage(), e);
+      }
+    }
+    this.maxHeapBytes = maxHeapBytes;
+    this.directory = directory;
+    this.maxDiskBytes = directory == null ? 0 : maxDiskBytes;
+  }
+
+  /**
+   * Get the entity tag of the output, the SHA-256 hash of the template key, the template content
+   * and the data fingerprint, so a changed template under the same key never serves the old outputs.
+   *
+   * @param template    the compiled template
+   * @param fingerprint the data fingerprint
+   * @return the entity tag, without the quotes
+   */
+  public String etag(CompiledTemplate template, String fingerprint) {
+    if (fingerprint == null) throw new IllegalArgumentException("fingerprint could not be null");
+    return CompiledTemplate.hash((template.getKey() + "\n" + template.getContentHash() + "\n" + fingerprint)
+      .getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write the cached output of the template and the fingerprint to the target,
+   * render and cache it first if it is not cached.
+   * <p>
+   * Two concurrent misses of the same output both render it, the later one replaces the cached one.
+   *
+   * @param template    the compiled template
+   * @param data        the data, only used on a miss
+   * @param fingerprint the data fingerprint
+   * @param options     the render options, null for the default
+   * @param target      the output target, not closed
+   * @throws RuntimeException if has IOException inner
+   */
+  public void render(CompiledTemplate template, Map<String, Object> data, String fingerprint, RenderOptions options,
+                     OutputStream target) {
+    String etag = etag(template, fingerprint);
+    try {
+      if (write(etag, target)) return;
+      MissOutput output = new MissOutput(etag, target);
+      try {
+        JxlsUtils.renderTemplate(template, data, output, options);
+        output.finish();
+      } finally {
+        output.discard();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  // write the cached output to the target, false if it is not cached
+  private boolean write(String etag, OutputStream target) throws IOException {
+    byte[] bytes;
+    DiskEntry entry = null;
+    synchronized (this) {
+      bytes = heap.get(etag);
+      if (bytes == null) entry = disk.get(etag);
+      if (bytes == null && entry == null) {
+        missCount++;
+        return false;
+      }
+      hitCount++;
+    }
+    if (bytes != null) {
+      target.write(bytes);
+      return true;
+    }
+    try {
+      Files.copy(entry.file, target);
+      return true;
+    } catch (NoSuchFileException e) {
+      // evicted after the lookup, nothing written yet
+      synchronized (this) {
+        hitCount--;
+        missCount++;
+      }
+      return false;
+    }
+  }
+
+  private synchronized void put(String etag, byte[] bytes) {
+    remove(etag);
+    heap.put(etag, bytes);
+    heapBytes += bytes.length;
+    Iterator<Map.Entry<String, byte[]>> eldest = heap.entrySet().iterator();
+    while (heapBytes > maxHeapBytes) {
+      Map.Entry<String, byte[]> entry = eldest.next();
+      eldest.remove();
+      heapBytes -= entry.getValue().length;
+      spill(entry.getKey(), entry.getValue());
+    }
+  }
+
+  // move the output to the disk tier, or drop it if it does not fit
+  private void spill(String etag, byte[] bytes) {
+    if (directory == null || bytes.length > maxDiskBytes) {
+      evictionCount++;
+      return;
+    }
+    Path file = directory.resolve(etag + ".cache");
+    try {
+      Files.write(file, bytes);
+    } catch (IOException e) {
+      logger.warn("Failed to write cache file {}: {}", file, e.toString());
+      evictionCount++;
+      return;
+    }
+    addDisk(etag, file, bytes.length);
+  }
+
+  // move the rendered temp file to the disk tier
+  private synchronized void putFile(String etag, Path temp, long size) {
+    remove(etag);
+    Path file = directory.resolve(etag + ".cache");
+    try {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn("Failed to move cache file {}: {}", file, e.toString());
+      evictionCount++;
+      RenderExecutor.delete(temp);
+      return;
+    }
+    addDisk(etag, file, size);
+  }
+
+  private void addDisk(String etag, Path file, long size) {
+    disk.put(etag, new DiskEntry(file, size));
+    diskBytes += size;
+    Iterator<DiskEntry> eldest = disk.values().iterator();
+    while (diskBytes > maxDiskBytes) {
+      DiskEntry entry = eldest.next();
+      eldest.remove();
+      diskBytes -= entry.size;
+      evictionCount++;
+      logger.debug("evict cache file {}", entry.file);
+      RenderExecutor.delete(entry.file);
+    }
+  }
+
+  // remove the output from both tiers, true if it was cached
+  private boolean remove(String etag) {
+    byte[] bytes = heap.remove(etag);
+    if (bytes != null) heapBytes -= bytes.length;
+    DiskEntry entry = disk.remove(etag);
+    if (entry != null) {
+      diskBytes -= entry.size;
+      RenderExecutor.delete(entry.file);
+    }
+    return bytes != null || entry != null;
+  }
+
+  /**
+   * Remove the cached output with the specified entity tag.
+   *
+   * @param etag the entity tag, see {@link #etag}
+   * @return true if the output was cached
+   */
+  public synchronized boolean evict(String etag) {
+    return remove(etag);
+  }
+
+  /**
+   * Remove all cached outputs and delete their files.
+   */
+  public synchronized void clear() {
+    for (DiskEntry entry : disk.values()) RenderExecutor.delete(entry.file);
+    heap.clear();
+    disk.clear();
+    heapBytes = 0;
+    diskBytes = 0;
+  }
+
+  /**
+   * @return the bytes of the outputs on the heap
+   */
+  public synchronized long getHeapBytes() {
+    return heapBytes;
+  }
+
+  /**
+   * @return the bytes of the outputs on the disk
+   */
+  public synchronized long getDiskBytes() {
+    return diskBytes;
+  }
+
+  /**
+   * @return a snapshot of the cache statistics, the size counts the outputs of both tiers
+   */
+  public synchronized CacheStats getStats() {
+    return new CacheStats(hitCount, missCount, evictionCount, heap.size() + disk.size());
+  }
+
+  // the output of a miss, on the heap up to the heap tier size, then in a temp file of the disk tier
+  // up to the disk tier size, then written through to the target without cache
+  private final class MissOutput extends OutputStream {
+    private final String etag;
+    private final OutputStream target;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private Path file;
+    private OutputStream fileOutput;
+    private long size;
+
+    MissOutput(String etag, OutputStream target) {
+      this.etag = etag;
+      this.target = target;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      size += len;
+      if (buffer != null && size > maxHeapBytes) {
+        if (directory != null && size <= maxDiskBytes) toFile();
+        else toTarget();
+      } else if (file != null && size > maxDiskBytes) {
+        toTarget();
+      }
+      if (buffer != null) buffer.write(b, off, len);
+      else if (file != null) fileOutput.write(b, off, len);
+      else target.write(b, off, len);
+    }
+
+    private void toFile() throws IOException {
+      file = Files.createTempFile(directory, etag, ".tmp");
+      fileOutput = new BufferedOutputStream(Files.newOutputStream(file));
+      buffer.writeTo(fileOutput);
+      buffer = null;
+    }
+
+    private void toTarget() throws IOException {
+      logger.debug("Not cache the output {}, it is larger than the cache", etag);
+      if (buffer != null) {
+        buffer.writeTo(target);
+        buffer = null;
+      } else {
+        fileOutput.close();
+        Files.copy(file, target);
+        discard();
+      }
+    }
+
+    // write the output to the target and cache it
+    void finish() throws IOException {
+      if (buffer != null) {
+        byte[] bytes = buffer.toByteArray();
+        target.write(bytes);
+        put(etag, bytes);
+      } else if (file != null) {
+        fileOutput.close();
+        Files.copy(file, target);
+        putFile(etag, file, size);
+        file = null;
+      } else {
+        synchronized (RenderCache.this) {
+          evictionCount++;
+        }
+      }
+    }
+
+    // delete the temp file of a failed or uncached render
+    void discard() {
+      if (file == null) return;
+      try {
+        fileOutput.close();
+      } catch (IOException ignored) {
+      }
+      RenderExecutor.delete(file);
+      file = null;
+    }
+
+    @Override
+    public void close() {
+      // the output is completed by finish, a render that closes its target must not end it
+    }
+  }
+
+  private static final class DiskEntry {
+    final Path file;
+    final long size;
+
+    DiskEntry(Path file, long size) {
+      this.file = file;
+      this.size = size;
+    }
+  }
+}
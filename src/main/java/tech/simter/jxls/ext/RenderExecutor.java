@@ -0,0 +1,141 @@
+package tech.simter.jxls.ext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded executor to render templates off the request threads, see {@link JxlsUtils#renderTemplate2ResponseAsync}.
+ * <p>
+ * At most {@code parallelism} renders run at the same time and at most {@code queueSize} renders wait for them,
+ * a render over that is rejected at once with a {@link RejectedExecutionException}.
+ * The render threads are virtual threads on Java 21+, platform daemon threads before.
+ *
+ * @author RJ
+ */
+public class RenderExecutor implements AutoCloseable {
+  private static Logger logger = LoggerFactory.getLogger(RenderExecutor.class);
+  public static final int DEFAULT_QUEUE_SIZE = 100;
+  private static volatile RenderExecutor singleton;
+
+  /**
+   * Get the shared executor with the parallelism of the available processors and {@link #DEFAULT_QUEUE_SIZE}.
+   *
+   * @return the shared executor
+   */
+  public static RenderExecutor getSingleton() {
+    if (singleton == null) {
+      synchronized (RenderExecutor.class) {
+        if (singleton == null)
+          singleton = new RenderExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE);
+      }
+    }
+    return singleton;
+  }
+
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * @param parallelism the max number of renders running at the same time
+   * @param queueSize   the max number of renders waiting to run, 0 to reject when all are busy
+   */
+  public RenderExecutor(int parallelism, int queueSize) {
+    if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be greater than 0");
+    if (queueSize < 0) throw new IllegalArgumentException("queueSize must not be less than 0");
+    this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+      queueSize == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueSize),
+      createThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Render the compiled template with the specified data and options to a new temp file.
+   * <p>
+   * The future fails with a {@link RejectedExecutionException} if the executor is full,
+   * the caller should delete the file after using it, otherwise it is only deleted on the JVM exit.
+   *
+   * @param template the compiled template, see {@link TemplateRegistry}
+   * @param data     the data
+   * @param options  the render options, null for the default
+   * @return the future of the rendered file
+   */
+  public CompletableFuture<Path> render(CompiledTemplate template, Map<String, Object> data, RenderOptions options) {
+    CompletableFuture<Path> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        Path file = null;
+        try {
+          file = Files.createTempFile("jxls-", template.isXlsx() ? ".xlsx" : ".xls");
+          file.toFile().deleteOnExit(); // a backstop for a response that is never written
+          try (OutputStream output = Files.newOutputStream(file)) {
+            JxlsUtils.renderTemplate(template, data, output, options);
+          }
+          future.complete(file);
+        } catch (Throwable e) {
+          delete(file);
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      logger.warn("Reject render of template {}: {} running, {} waiting", template.getKey(),
+        executor.getActiveCount(), executor.getQueue().size());
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * @return the number of renders running
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * @return the number of renders waiting to run
+   */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Stop accepting renders, the submitted ones still run to the end.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  static void delete(Path file) {
+    if (file == null) return;
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warn("Failed to delete temp file {}: {}", file, e.toString());
+    }
+  }
+
+  // Thread.ofVirtual().factory() on Java 21+, found by reflection to keep the Java 8 baseline
+  private static ThreadFactory createThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      AtomicInteger count = new AtomicInteger();
+      return r -> {
+        Thread thread = new Thread(r, "jxls-render-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package tech.simter.jxls.ext;
+
+/**
+ * The listener of the {@link RenderStats} of every {@link JxlsUtils} render, set by {@link RenderOptions#setMetrics}.
+ * <p>
+ * It is invoked on the render thread after the workbook is written, so it should be fast and thread-safe.
+ * See {@link HistogramRenderMetrics} for an in-memory aggregation to adapt to a monitoring system.
+ *
+ * @author RJ
+ */
+@FunctionalInterface
+public interface RenderMetrics {
+  /**
+   * The default metrics that ignores everything, nothing is counted for it.
+   */
+  RenderMetrics NOOP = stats -> {
+  };
+
+  /**
+   * Invoked after a render is done.
+   *
+   * @param stats the statistics of the render
+   */
+  void onRender(RenderStats stats);
+}
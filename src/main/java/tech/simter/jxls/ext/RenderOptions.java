@@ -0,0 +1,168 @@
+package tech.simter.jxls.ext;
+
+/**
+ * The options of {@link JxlsUtils} render.
+ *
+ * @author RJ
+ */
+public class RenderOptions {
+  public static final int DEFAULT_ROW_ACCESS_WINDOW_SIZE = 100;
+  // the max rows of a sheet
+  public static final int XLS_MAX_ROWS = 65536;
+  public static final int XLSX_MAX_ROWS = 1048576;
+
+  private boolean streaming;
+  private int rowAccessWindowSize = DEFAULT_ROW_ACCESS_WINDOW_SIZE;
+  private boolean compressTmpFiles;
+  private RenderMetrics metrics = RenderMetrics.NOOP;
+  private int spillRowThreshold;
+  private boolean direct;
+
+  /**
+   * Create the options for streaming render with the default row window.
+   *
+   * @return the options
+   */
+  public static RenderOptions streaming() {
+    return new RenderOptions().setStreaming(true);
+  }
+
+  /**
+   * Create the options for direct render.
+   *
+   * @return the options
+   */
+  public static RenderOptions direct() {
+    return new RenderOptions().setDirect(true);
+  }
+
+  /**
+   * @return true to render xlsx templates through a windowed SXSSF workbook
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * Render xlsx templates through a windowed SXSSF workbook.
+   * <p>
+   * Only the last {@link #getRowAccessWindowSize()} rows of each sheet are kept in memory,
+   * so the window must be larger than the rows of the biggest merged group.
+   * Template formulas are not processed in this mode.
+   * <p>
+   * A template sheet is rendered to a new sheet of its areas only, so a template with the cells or merged regions
+   * out of its areas is rejected by an {@link IllegalArgumentException}, put them in an area to keep them.
+   *
+   * @param streaming true to enable streaming
+   * @return this options
+   */
+  public RenderOptions setStreaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  /**
+   * @return the number of rows kept in memory for each sheet on streaming render
+   */
+  public int getRowAccessWindowSize() {
+    return rowAccessWindowSize;
+  }
+
+  /**
+   * @param rowAccessWindowSize the number of rows kept in memory for each sheet on streaming render
+   * @return this options
+   */
+  public RenderOptions setRowAccessWindowSize(int rowAccessWindowSize) {
+    if (rowAccessWindowSize <= 0) throw new IllegalArgumentException("rowAccessWindowSize must be greater than 0");
+    this.rowAccessWindowSize = rowAccessWindowSize;
+    return this;
+  }
+
+  /**
+   * @return true to gzip the temp files that hold the flushed rows on streaming render
+   */
+  public boolean isCompressTmpFiles() {
+    return compressTmpFiles;
+  }
+
+  /**
+   * @param compressTmpFiles true to gzip the temp files that hold the flushed rows on streaming render
+   * @return this options
+   */
+  public RenderOptions setCompressTmpFiles(boolean compressTmpFiles) {
+    this.compressTmpFiles = compressTmpFiles;
+    return this;
+  }
+
+  /**
+   * @return the listener of the render statistics
+   */
+  public RenderMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Emit the statistics of every render to the metrics, such as the phase timings, the cells and bytes written.
+   *
+   * @param metrics the listener of the render statistics, null for {@link RenderMetrics#NOOP}
+   * @return this options
+   */
+  public RenderOptions setMetrics(RenderMetrics metrics) {
+    this.metrics = metrics == null ? RenderMetrics.NOOP : metrics;
+    return this;
+  }
+
+  /**
+   * @return the row index to continue the items on a new sheet from, 0 if the spill-over is disabled
+   */
+  public int getSpillRowThreshold() {
+    return spillRowThreshold;
+  }
+
+  /**
+   * Continue the items of the main {@code jx:each} or {@code jx:each-merge} of every top area on a new sheet,
+   * when the next item would start at or after the row threshold.
+   * <p>
+   * A new sheet is named like "Sheet1 (2)" and starts with the header rows of the template.
+   * The command must be the last rows of its area, a render of an area with rows below it is rejected
+   * by an {@link IllegalArgumentException}. The sheet is only switched between two items,
+   * so an item and its merged cells are never split,
+   * and the threshold should leave room for the rows of the biggest item below the max rows of a sheet,
+   * see {@link #XLSX_MAX_ROWS} and {@link #XLS_MAX_ROWS}. With streaming render the memory stays bounded
+   * by the row window, so a multi-million-row export finishes in one pass.
+   *
+   * @param spillRowThreshold the row index to start a new sheet from, 0 to disable
+   * @return this options
+   */
+  public RenderOptions setSpillRowThreshold(int spillRowThreshold) {
+    if (spillRowThreshold < 0 || spillRowThreshold > XLSX_MAX_ROWS)
+      throw new IllegalArgumentException("spillRowThreshold must be between 0 and " + XLSX_MAX_ROWS);
+    this.spillRowThreshold = spillRowThreshold;
+    return this;
+  }
+
+  /**
+   * @return true to write xlsx templates straight to the sheet XML of the output, without a POI workbook
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Write xlsx templates straight to the sheet XML, inline strings and merged cells of the output package,
+   * without a POI workbook.
+   * <p>
+   * The areas are interpreted like {@link JxlsUtils#renderTemplate2FlatFile}, so only the {@code jx:each},
+   * {@code jx:if} and {@code jx:dynamic-column} commands are supported. The {@code jx:each-merge} and
+   * {@code jx:group-merge} commands are not, the POI render gives their merged cells new bordered styles.
+   * The cell styles, row heights and merged regions of the template are kept, the formulas and the cells
+   * out of the areas of a rendered sheet are not. The streaming option is needless, the spill-over is not supported.
+   *
+   * @param direct true to enable direct render
+   * @return this options
+   */
+  public RenderOptions setDirect(boolean direct) {
+    this.direct = direct;
+    return this;
+  }
+}
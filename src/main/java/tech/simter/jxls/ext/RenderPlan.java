@@ -0,0 +1,421 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.jxls.area.Area;
+import org.jxls.area.XlsArea;
+import org.jxls.command.Command;
+import org.jxls.command.EachCommand;
+import org.jxls.command.GridCommand;
+import org.jxls.command.IfCommand;
+import org.jxls.command.ImageCommand;
+import org.jxls.common.AreaRef;
+import org.jxls.common.CellRef;
+import org.jxls.transform.Transformer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The precompiled area tree of a template, to build the jxls areas without parsing the template comments.
+ * <p>
+ * A plan is created from the comments of the template by {@link #of(Workbook)}, serialized by
+ * {@link TemplatePrecompiler}, and builds the same areas as {@code XlsCommentAreaBuilder} for every render.
+ * The commands are created by their registered constructors, see {@link #registerCommand(String, Supplier)}.
+ * It also keeps the expressions of the template, to compile them before the first render.
+ *
+ * @author RJ
+ */
+public final class RenderPlan {
+  private static Logger logger = LoggerFactory.getLogger(RenderPlan.class);
+  private static final Pattern COMMAND = Pattern.compile("jx:([\\w-]+)\\s*\\((.*)\\)");
+  // a double quoted, single quoted or bracketed areas value, as XlsCommentAreaBuilder reads them
+  private static final Pattern ATTRIBUTE
+    = Pattern.compile("([\\w-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|(\\[[^\\]]*]))");
+  private static final Pattern SEPARATOR = Pattern.compile("[\\s,]*");
+  private static final Pattern EXPRESSION = Pattern.compile("\\$\\{(.+?)}");
+  // the attributes of the area builder, not of the command
+  private static final Set<String> AREA_ATTRIBUTES = new HashSet<>(Arrays.asList("lastCell", "areas"));
+  // the attributes that hold an expression
+  private static final Set<String> EXPRESSION_ATTRIBUTES = new HashSet<>(Arrays.asList("items", "condition",
+    "values", "src", "headers", "data"));
+
+  // command name - constructor
+  private static final Map<String, Supplier<Command>> COMMANDS = new ConcurrentHashMap<>();
+
+  // class - attribute - setter of a String, as XlsCommentAreaBuilder sets the attributes
+  private static final ClassValue<Map<String, Optional<Method>>> SETTERS
+    = new ClassValue<Map<String, Optional<Method>>>() {
+    @Override
+    protected Map<String, Optional<Method>> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  static {
+    registerCommand("each", EachCommand::new);
+    registerCommand("if", IfCommand::new);
+    registerCommand("grid", GridCommand::new);
+    registerCommand("image", ImageCommand::new);
+    registerCommand(EachMergeCommand.COMMAND_NAME, EachMergeCommand::new);
+    registerCommand(GroupMergeCommand.COMMAND_NAME, GroupMergeCommand::new);
+    registerCommand(DynamicColumnCommand.COMMAND_NAME, DynamicColumnCommand::new);
+  }
+
+  private static final int VERSION = 1;
+
+  private final List<AreaDef> areas;
+  private final List<String> expressions;
+
+  private RenderPlan(List<AreaDef> areas, List<String> expressions) {
+    this.areas = areas;
+    this.expressions = expressions;
+  }
+
+  /**
+   * Register the constructor of a custom command, to build it from a plan.
+   *
+   * @param name        the command name, such as "each"
+   * @param constructor the command constructor
+   */
+  public static void registerCommand(String name, Supplier<Command> constructor) {
+    COMMANDS.put(name, constructor);
+  }
+
+  /**
+   * @return the expressions of the template cells and command attributes
+   */
+  public List<String> getExpressions() {
+    return expressions;
+  }
+
+  // the top areas, for the renders that interpret the plan without jxls
+  List<AreaDef> getAreas() {
+    return areas;
+  }
+
+  /**
+   * Build the jxls areas of the plan for the transformer.
+   * <p>
+   * The template cells of the top areas are cleared, the same as {@code XlsCommentAreaBuilder} does,
+   * so a template cell that no area writes over is left empty.
+   *
+   * @param transformer the transformer of the template
+   * @return the top areas
+   */
+  public List<Area> build(Transformer transformer) {
+    List<Area> result = new ArrayList<>(areas.size());
+    for (AreaDef def : areas) result.add(def.build(transformer));
+    for (Area area : result) ((XlsArea) area).clearCells();
+    return result;
+  }
+
+  /**
+   * Compile the expressions to the cache of the evaluator.
+   *
+   * @param evaluator the evaluator to warm up
+   */
+  public void warmUp(CachingExpressionEvaluator evaluator) {
+    for (String expression : expressions) evaluator.compile(expression);
+  }
+
+  /**
+   * Create the plan from the comments and cells of the template workbook.
+   *
+   * @param workbook the template workbook
+   * @return the plan
+   * @throws IllegalArgumentException if the template has an unknown command, or a comment the plan not supports
+   */
+  public static RenderPlan of(Workbook workbook) {
+    List<CommandDef> commands = new ArrayList<>();
+    List<AreaDef> tops = new ArrayList<>();
+    Set<String> expressions = new LinkedHashSet<>();
+    for (Sheet sheet : workbook) {
+      // the comments in the order of the cells, as XlsCommentAreaBuilder reads them
+      Map<CellAddress, ? extends Comment> comments = new TreeMap<>(sheet.getCellComments());
+      for (Map.Entry<CellAddress, ? extends Comment> entry : comments.entrySet()) {
+        CellRef cellRef = new CellRef(sheet.getSheetName(), entry.getKey().getRow(), entry.getKey().getColumn());
+        for (String line : entry.getValue().getString().getString().split("\\n")) {
+          String text = line.trim();
+          if (!text.startsWith("jx:")) continue;
+          parseLine(text, cellRef, tops, commands, expressions);
+        }
+      }
+      for (Row row : sheet) {
+        for (Cell cell : row) {
+          if (cell.getCellTypeEnum() != CellType.STRING) continue;
+          Matcher matcher = EXPRESSION.matcher(cell.getStringCellValue());
+          while (matcher.find()) expressions.add(matcher.group(1));
+        }
+      }
+    }
+
+    // nest every command to its smallest enclosing command area, or to its top area
+    for (int i = 0; i < commands.size(); i++) {
+      CommandDef command = commands.get(i);
+      AreaDef parent = null;
+      for (int j = 0; j < commands.size(); j++) {
+        if (i == j) continue;
+        for (AreaDef area : commands.get(j).areas) {
+          boolean encloses = area.contains(command.ref) && (!area.sameAs(command.ref) || j < i);
+          if (encloses && (parent == null || parent.size() >= area.size())) parent = area;
+        }
+      }
+      if (parent == null) {
+        for (AreaDef top : tops) if (top.contains(command.ref)) parent = top;
+      }
+      if (parent == null)
+        throw new IllegalArgumentException("The command jx:" + command.name + " at " + command.ref
+          + " is out of any area");
+      parent.commands.add(command);
+    }
+    return new RenderPlan(tops, new ArrayList<>(expressions));
+  }
+
+  private static void parseLine(String text, CellRef cellRef, List<AreaDef> tops, List<CommandDef> commands,
+                                Set<String> expressions) {
+    Matcher matcher = COMMAND.matcher(text);
+    if (!matcher.matches()) throw new IllegalArgumentException("Invalid command '" + text + "' at " + cellRef);
+    String name = matcher.group(1);
+    Map<String, String> attributes = parseAttributes(matcher.group(2), text, cellRef);
+
+    String lastCell = attributes.get("lastCell");
+    if (lastCell == null) throw new IllegalArgumentException("No lastCell of '" + text + "' at " + cellRef);
+    AreaDef ref = AreaDef.of(cellRef, lastCell);
+    if ("area".equals(name)) {
+      tops.add(ref);
+      return;
+    }
+    if (!COMMANDS.containsKey(name))
+      throw new IllegalArgumentException("Unsupported command jx:" + name + " at " + cellRef
+        + ", the supported are " + new TreeSet<>(COMMANDS.keySet()));
+
+    List<AreaDef> areas = new ArrayList<>();
+    String areaRefs = attributes.get("areas");
+    if (areaRefs != null) {
+      for (String area : areaRefs.replaceAll("[\\[\\]\"' ]", "").split(",")) {
+        String[] cells = area.split(":");
+        CellReference first = new CellReference(cells[0]);
+        String sheetName = first.getSheetName() != null ? first.getSheetName() : cellRef.getSheetName();
+        areas.add(AreaDef.of(new CellRef(sheetName, first.getRow(), first.getCol()), cells[1]));
+      }
+    } else {
+      areas.add(new AreaDef(ref.sheetName, ref.firstRow, ref.firstCol, ref.lastRow, ref.lastCol));
+    }
+    attributes.keySet().removeAll(AREA_ATTRIBUTES);
+    attributes.forEach((key, value) -> {
+      if (EXPRESSION_ATTRIBUTES.contains(key)) expressions.add(value);
+    });
+    CommandDef command = new CommandDef(name, attributes, ref, areas);
+    command.create(); // fail fast on an invalid attribute
+    commands.add(command);
+  }
+
+  // reject any text between the attributes, so the plan never drops an attribute the comment builder reads
+  private static Map<String, String> parseAttributes(String text, String line, CellRef cellRef) {
+    Map<String, String> attributes = new LinkedHashMap<>();
+    Matcher attribute = ATTRIBUTE.matcher(text);
+    int end = 0;
+    while (attribute.find()) {
+      if (!SEPARATOR.matcher(text.substring(end, attribute.start())).matches()) break;
+      String value = attribute.group(2) != null ? attribute.group(2)
+        : attribute.group(3) != null ? attribute.group(3) : attribute.group(4);
+      attributes.put(attribute.group(1), value);
+      end = attribute.end();
+    }
+    if (!SEPARATOR.matcher(text.substring(end)).matches())
+      throw new IllegalArgumentException("Invalid attributes of '" + line + "' at " + cellRef);
+    return attributes;
+  }
+
+  /**
+   * Write the plan to the output.
+   *
+   * @param out the output
+   * @throws IOException if failed to write
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(VERSION);
+    out.writeInt(expressions.size());
+    for (String expression : expressions) out.writeUTF(expression);
+    writeAreas(out, areas);
+  }
+
+  /**
+   * Read the plan from the input.
+   *
+   * @param in the input
+   * @return the plan
+   * @throws IOException              if failed to read
+   * @throws IllegalArgumentException if the plan version is not supported
+   */
+  public static RenderPlan read(DataInputStream in) throws IOException {
+    int version = in.readInt();
+    if (version != VERSION) throw new IllegalArgumentException("Unsupported render plan version " + version);
+    int size = in.readInt();
+    List<String> expressions = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) expressions.add(in.readUTF());
+    return new RenderPlan(readAreas(in), expressions);
+  }
+
+  private static void writeAreas(DataOutputStream out, List<AreaDef> areas) throws IOException {
+    out.writeInt(areas.size());
+    for (AreaDef area : areas) {
+      area.write(out);
+      out.writeInt(area.commands.size());
+      for (CommandDef command : area.commands) {
+        out.writeUTF(command.name);
+        out.writeInt(command.attributes.size());
+        for (Map.Entry<String, String> entry : command.attributes.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeUTF(entry.getValue());
+        }
+        command.ref.write(out);
+        writeAreas(out, command.areas);
+      }
+    }
+  }
+
+  private static List<AreaDef> readAreas(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    List<AreaDef> areas = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      AreaDef area = AreaDef.read(in);
+      int commandSize = in.readInt();
+      for (int j = 0; j < commandSize; j++) {
+        String name = in.readUTF();
+        int attributeSize = in.readInt();
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int k = 0; k < attributeSize; k++) attributes.put(in.readUTF(), in.readUTF());
+        AreaDef ref = AreaDef.read(in);
+        area.commands.add(new CommandDef(name, attributes, ref, readAreas(in)));
+      }
+      areas.add(area);
+    }
+    return areas;
+  }
+
+  static final class AreaDef {
+    final String sheetName;
+    final int firstRow;
+    final int firstCol;
+    final int lastRow;
+    final int lastCol;
+    final List<CommandDef> commands = new ArrayList<>();
+
+    AreaDef(String sheetName, int firstRow, int firstCol, int lastRow, int lastCol) {
+      this.sheetName = sheetName;
+      this.firstRow = firstRow;
+      this.firstCol = firstCol;
+      this.lastRow = lastRow;
+      this.lastCol = lastCol;
+    }
+
+    // the area from the cell to the last cell, such as "E2"
+    static AreaDef of(CellRef cellRef, String lastCell) {
+      CellReference last = new CellReference(lastCell);
+      String sheetName = last.getSheetName() != null ? last.getSheetName() : cellRef.getSheetName();
+      return new AreaDef(sheetName, cellRef.getRow(), cellRef.getCol(), last.getRow(), last.getCol());
+    }
+
+    boolean contains(AreaDef other) {
+      return sheetName.equals(other.sheetName) && firstRow <= other.firstRow && firstCol <= other.firstCol
+        && lastRow >= other.lastRow && lastCol >= other.lastCol;
+    }
+
+    boolean sameAs(AreaDef other) {
+      return contains(other) && other.contains(this);
+    }
+
+    long size() {
+      return (long) (lastRow - firstRow + 1) * (lastCol - firstCol + 1);
+    }
+
+    AreaRef toAreaRef() {
+      return new AreaRef(new CellRef(sheetName, firstRow, firstCol), new CellRef(sheetName, lastRow, lastCol));
+    }
+
+    Area build(Transformer transformer) {
+      XlsArea area = new XlsArea(toAreaRef(), transformer);
+      for (CommandDef def : commands) {
+        Command command = def.create();
+        for (AreaDef child : def.areas) command.addArea(child.build(transformer));
+        area.addCommand(def.ref.toAreaRef(), command);
+      }
+      return area;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeUTF(sheetName);
+      out.writeInt(firstRow);
+      out.writeInt(firstCol);
+      out.writeInt(lastRow);
+      out.writeInt(lastCol);
+    }
+
+    static AreaDef read(DataInputStream in) throws IOException {
+      return new AreaDef(in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+    }
+
+    @Override
+    public String toString() {
+      return toAreaRef().toString();
+    }
+  }
+
+  static final class CommandDef {
+    final String name;
+    final Map<String, String> attributes;
+    final AreaDef ref;
+    final List<AreaDef> areas;
+
+    CommandDef(String name, Map<String, String> attributes, AreaDef ref, List<AreaDef> areas) {
+      this.name = name;
+      this.attributes = attributes;
+      this.ref = ref;
+      this.areas = areas;
+    }
+
+    Command create() {
+      Supplier<Command> constructor = COMMANDS.get(name);
+      if (constructor == null) throw new IllegalArgumentException("Unsupported command jx:" + name);
+      Command command = constructor.get();
+      Map<String, Optional<Method>> setters = SETTERS.get(command.getClass());
+      for (Map.Entry<String, String> entry : attributes.entrySet()) {
+        Method setter = setters.computeIfAbsent(entry.getKey(), key -> findSetter(command.getClass(), key))
+          .orElse(null);
+        if (setter == null) { // ignored as XlsCommentAreaBuilder does
+          logger.warn("Unknown attribute '{}' of jx:{} at {}", entry.getKey(), name, ref);
+          continue;
+        }
+        try {
+          setter.invoke(command, entry.getValue());
+        } catch (IllegalAccessException | InvocationTargetException e) {
+          throw new IllegalArgumentException("Invalid attribute '" + entry.getKey() + "' of jx:" + name
+            + " at " + ref, e);
+        }
+      }
+      return command;
+    }
+
+    private static Optional<Method> findSetter(Class<?> type, String attribute) {
+      String setter = "set" + Character.toUpperCase(attribute.charAt(0)) + attribute.substring(1);
+      try {
+        return Optional.of(type.getMethod(setter, String.class));
+      } catch (NoSuchMethodException e) {
+        return Optional.empty();
+      }
+    }
+  }
+}
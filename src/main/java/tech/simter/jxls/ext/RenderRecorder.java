@@ -0,0 +1,196 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.jxls.area.Area;
+import org.jxls.area.CommandData;
+import org.jxls.common.AreaListener;
+import org.jxls.common.CellRef;
+import org.jxls.common.Context;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Record the {@link RenderStats} of one render and emit them to its {@link RenderMetrics}.
+ * <p>
+ * Nothing is counted for {@link RenderMetrics#NOOP}.
+ * The recorder is bound to the render thread, so {@link EachMergeCommand} could report its merge time.
+ *
+ * @author RJ
+ */
+final class RenderRecorder implements AreaListener {
+  private static final ThreadLocal<RenderRecorder> CURRENT = new ThreadLocal<>();
+
+  private final RenderMetrics metrics;
+  private final boolean enabled;
+  private final boolean streaming;
+  private final int rowAccessWindowSize;
+  private final long[] nanos = new long[RenderStats.Phase.values().length];
+  private long phaseStart;
+  private long cells;
+  private long rows;
+  private long mergedRegions;
+  private long peakRowsInMemory;
+  private CountingOutputStream output;
+
+  private RenderRecorder(RenderOptions options) {
+    this.metrics = options == null ? RenderMetrics.NOOP : options.getMetrics();
+    this.enabled = metrics != RenderMetrics.NOOP;
+    this.streaming = options != null && options.isStreaming();
+    this.rowAccessWindowSize = options == null ? RenderOptions.DEFAULT_ROW_ACCESS_WINDOW_SIZE
+      : options.getRowAccessWindowSize();
+  }
+
+  /**
+   * Start recording a render on the current thread, {@link #close()} it at the end.
+   *
+   * @param options the render options, null for the default
+   * @return the recorder
+   */
+  static RenderRecorder start(RenderOptions options) {
+    RenderRecorder recorder = new RenderRecorder(options);
+    if (recorder.enabled) {
+      CURRENT.set(recorder);
+      recorder.phaseStart = System.nanoTime();
+    }
+    return recorder;
+  }
+
+  /**
+   * Add the merge time to the render of the current thread.
+   *
+   * @param nanos the nanoseconds spent to merge
+   */
+  static void addMergeNanos(long nanos) {
+    RenderRecorder recorder = CURRENT.get();
+    if (recorder != null) recorder.nanos[RenderStats.Phase.MERGE.ordinal()] += nanos;
+  }
+
+  /**
+   * Count the bytes written to the output.
+   *
+   * @param target the output
+   * @return the output to write to
+   */
+  OutputStream wrap(OutputStream target) {
+    if (!enabled) return target;
+    output = new CountingOutputStream(target);
+    return output;
+  }
+
+  /**
+   * The template is loaded, count the transformed cells of all its areas.
+   *
+   * @param areas the areas of the template
+   */
+  void loaded(List<Area> areas) {
+    if (!enabled) return;
+    areas.forEach(this::listen);
+    endPhase(RenderStats.Phase.LOAD);
+  }
+
+  private void listen(Area area) {
+    area.addAreaListener(this);
+    for (CommandData commandData : area.getCommandDataList())
+      commandData.getCommand().getAreaList().forEach(this::listen);
+  }
+
+  /**
+   * The areas are transformed, count the rows and merged regions of the workbook.
+   *
+   * @param workbook the rendered workbook
+   */
+  void transformed(Workbook workbook) {
+    if (!enabled) return;
+    endPhase(RenderStats.Phase.TRANSFORM);
+    // the merge time is recorded inside the transform phase
+    nanos[RenderStats.Phase.TRANSFORM.ordinal()] = Math.max(0,
+      nanos[RenderStats.Phase.TRANSFORM.ordinal()] - nanos[RenderStats.Phase.MERGE.ordinal()]);
+    for (Sheet sheet : workbook) {
+      int sheetRows = sheet.getPhysicalNumberOfRows();
+      rows += sheetRows;
+      // estimated, a streaming sheet holds at most its window of rows
+      peakRowsInMemory += streaming ? Math.min(sheetRows, rowAccessWindowSize) : sheetRows;
+      mergedRegions += sheet.getNumMergedRegions();
+    }
+    phaseStart = System.nanoTime();
+  }
+
+  /**
+   * The workbook is written, emit the stats.
+   */
+  void written() {
+    if (!enabled) return;
+    endPhase(RenderStats.Phase.WRITE);
+    metrics.onRender(new RenderStats(streaming, nanos.clone(), rows, cells, mergedRegions,
+      output == null ? 0 : output.count, peakRowsInMemory));
+  }
+
+  /**
+   * The workbook is written without a workbook, such as by the direct render, emit the stats of the counts.
+   *
+   * @param rows          the written rows
+   * @param cells         the written cells
+   * @param mergedRegions the written merged regions
+   */
+  void written(long rows, long cells, long mergedRegions) {
+    if (!enabled) return;
+    this.rows = rows;
+    this.cells = cells;
+    this.mergedRegions = mergedRegions;
+    written();
+  }
+
+  /**
+   * Unbind the recorder from the current thread.
+   */
+  void close() {
+    if (enabled) CURRENT.remove();
+  }
+
+  private void endPhase(RenderStats.Phase phase) {
+    long now = System.nanoTime();
+    nanos[phase.ordinal()] += now - phaseStart;
+    phaseStart = now;
+  }
+
+  @Override
+  public void beforeApplyAtCell(CellRef cellRef, Context context) {
+  }
+
+  @Override
+  public void afterApplyAtCell(CellRef cellRef, Context context) {
+  }
+
+  @Override
+  public void beforeTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+  }
+
+  @Override
+  public void afterTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+    cells++;
+  }
+
+  private static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+}
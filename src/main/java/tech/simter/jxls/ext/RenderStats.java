@@ -0,0 +1,121 @@
+package tech.simter.jxls.ext;
+
+/**
+ * An immutable snapshot of the statistics of one render, see {@link RenderMetrics}.
+ *
+ * @author RJ
+ */
+public final class RenderStats {
+  /**
+   * The render phases.
+   */
+  public enum Phase {
+    /**
+     * Load the template workbook and build its areas from the cell comments.
+     */
+    LOAD,
+    /**
+     * Apply the areas and process the formulas, without {@link #MERGE}.
+     */
+    TRANSFORM,
+    /**
+     * Add the merged regions of {@link EachMergeCommand} and set their borders.
+     */
+    MERGE,
+    /**
+     * Serialize the workbook to the output.
+     */
+    WRITE
+  }
+
+  private final boolean streaming;
+  private final long[] nanos;
+  private final long rows;
+  private final long cells;
+  private final long mergedRegions;
+  private final long bytesWritten;
+  private final long peakRowsInMemory;
+
+  RenderStats(boolean streaming, long[] nanos, long rows, long cells, long mergedRegions, long bytesWritten,
+              long peakRowsInMemory) {
+    this.streaming = streaming;
+    this.nanos = nanos;
+    this.rows = rows;
+    this.cells = cells;
+    this.mergedRegions = mergedRegions;
+    this.bytesWritten = bytesWritten;
+    this.peakRowsInMemory = peakRowsInMemory;
+  }
+
+  /**
+   * @return true if it is a streaming render
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * @param phase the phase
+   * @return the nanoseconds spent in the phase
+   */
+  public long getNanos(Phase phase) {
+    return nanos[phase.ordinal()];
+  }
+
+  /**
+   * @return the nanoseconds spent in all phases
+   */
+  public long getTotalNanos() {
+    long total = 0;
+    for (long n : nanos) total += n;
+    return total;
+  }
+
+  /**
+   * @return the number of rows in the rendered workbook
+   */
+  public long getRows() {
+    return rows;
+  }
+
+  /**
+   * @return the number of transformed cells
+   */
+  public long getCells() {
+    return cells;
+  }
+
+  /**
+   * @return the number of merged regions in the rendered workbook
+   */
+  public long getMergedRegions() {
+    return mergedRegions;
+  }
+
+  /**
+   * @return the number of bytes written to the output
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * An estimate from the row counts, not a measurement of the heap: all rows on a normal render,
+   * the rows of each sheet up to the row access window on a streaming render, summed over the sheets.
+   *
+   * @return the estimated max number of rows held in memory
+   */
+  public long getPeakRowsInMemory() {
+    return peakRowsInMemory;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder("RenderStats{streaming=").append(streaming);
+    for (Phase phase : Phase.values())
+      s.append(", ").append(phase.name().toLowerCase()).append("Nanos=").append(nanos[phase.ordinal()]);
+    return s.append(", rows=").append(rows).append(", cells=").append(cells)
+      .append(", mergedRegions=").append(mergedRegions).append(", bytesWritten=").append(bytesWritten)
+      .append(", peakRowsInMemory=").append(peakRowsInMemory).append("}").toString();
+  }
+}
@@ -0,0 +1,213 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.jxls.area.Area;
+import org.jxls.area.CommandData;
+import org.jxls.area.XlsArea;
+import org.jxls.command.CellRefGenerator;
+import org.jxls.command.Command;
+import org.jxls.command.EachCommand;
+import org.jxls.common.*;
+import org.jxls.transform.poi.PoiTransformer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Continue the items of the main {@link EachCommand} of a top area on a new sheet when a row threshold is reached.
+ * <p>
+ * The sheet is only switched between two items, so the rows of an item and its merged cells are never split.
+ * A new sheet starts with the header rows of the template, the rows of the top area above the command.
+ * The command must be the last rows of its area: the command only reports the height of its biggest item
+ * to the area, so a footer below it would be written over the items.
+ *
+ * @author RJ
+ */
+final class SpillOver implements CellRefGenerator, AreaListener {
+  private static final int MAX_SHEET_NAME_LENGTH = 31;
+
+  private final PoiTransformer transformer;
+  private final int threshold;
+  private final AreaRef header;          // the template rows above the command, null if none
+  private final CellRef start;           // the template start cell of the command
+  private final CommandData commandData; // its start cell is shifted by the expanded commands above it
+  private final int areaRow;             // the template first row of the top area
+  private final AreaStart areaStart;
+  private final String templateSheet;
+  private final String targetSheet;      // the sheet of the first part
+  private final List<CommandData> headerCommands = new ArrayList<>();
+  private final List<String> sheetNames = new ArrayList<>();
+
+  private String sheetName;
+  private int itemStart;
+  private int lastRow;
+
+  private SpillOver(PoiTransformer transformer, int threshold, Area area, CommandData commandData,
+                    String targetSheet) {
+    this.transformer = transformer;
+    this.threshold = threshold;
+    AreaRef areaRef = area.getAreaRef();
+    this.start = commandData.getAreaRef().getFirstCellRef();
+    this.commandData = commandData;
+    this.areaRow = areaRef.getFirstCellRef().getRow();
+    this.areaStart = new AreaStart();
+    this.templateSheet = areaRef.getSheetName();
+    this.targetSheet = targetSheet;
+    this.header = start.getRow() > areaRef.getFirstCellRef().getRow() ? new AreaRef(areaRef.getFirstCellRef(),
+      new CellRef(templateSheet, start.getRow() - 1, areaRef.getLastCellRef().getCol())) : null;
+    if (header != null) {
+      for (CommandData headerCommand : area.getCommandDataList()) {
+        if (headerCommand.getAreaRef().getLastCellRef().getRow() < start.getRow()) headerCommands.add(headerCommand);
+      }
+    }
+  }
+
+  /**
+   * Install the spill-over to the downward {@link EachCommand} at the last rows of the top area,
+   * the commands above it are the header. A {@link GroupMergeCommand} or a command with its own
+   * {@link CellRefGenerator} is not spilled.
+   *
+   * @param transformer the transformer
+   * @param threshold   the row index to start a new sheet from
+   * @param area        the top area
+   * @param targetSheet the sheet the area is rendered to
+   * @return the installed spill-over, or null if the area has no such command
+   * @throws IllegalArgumentException if the area has rows below the lowest such command
+   */
+  static SpillOver install(PoiTransformer transformer, int threshold, Area area, String targetSheet) {
+    CommandData main = null;
+    for (CommandData commandData : area.getCommandDataList()) {
+      Command command = commandData.getCommand();
+      if (!(command instanceof EachCommand) || command instanceof GroupMergeCommand) continue;
+      EachCommand each = (EachCommand) command;
+      if (each.getDirection() != EachCommand.Direction.DOWN || each.getCellRefGenerator() != null) continue;
+      if (main == null || commandData.getAreaRef().getLastCellRef().getRow()
+        > main.getAreaRef().getLastCellRef().getRow()) main = commandData;
+    }
+    if (main == null) return null;
+
+    if (area.getAreaRef().getLastCellRef().getRow() > main.getAreaRef().getLastCellRef().getRow())
+      throw new IllegalArgumentException("Spill-over needs the command " + main.getAreaRef()
+        + " to be the last rows of its area " + area.getAreaRef() + ", the rows below it would be overwritten");
+
+    EachCommand each = (EachCommand) main.getCommand();
+    SpillOver spillOver = new SpillOver(transformer, threshold, area, main, targetSheet);
+    each.setCellRefGenerator(spillOver);
+    area.addAreaListener(spillOver.areaStart);
+    for (Area child : each.getAreaList()) spillOver.listen(child);
+    return spillOver;
+  }
+
+  // the cells of the nested commands extend the rows of an item too
+  private void listen(Area area) {
+    area.addAreaListener(this);
+    for (CommandData commandData : area.getCommandDataList()) {
+      for (Area child : commandData.getCommand().getAreaList()) listen(child);
+    }
+  }
+
+  @Override
+  public CellRef generateCellRef(int index, Context context) {
+    if (index == 0) {
+      // the row the area places the command at, below the rows the commands above it expanded to
+      sheetName = targetSheet;
+      itemStart = areaStart.row + commandData.getStartCellRef().getRow() - areaRow;
+    } else {
+      itemStart = Math.max(lastRow, itemStart) + 1; // after the last written row of the previous item
+      if (itemStart >= threshold) itemStart = startSheet(context);
+    }
+    lastRow = itemStart - 1;
+    return new CellRef(sheetName, itemStart, start.getCol());
+  }
+
+  // continue on a new sheet with the header rows, return the row of the next item
+  private int startSheet(Context context) {
+    sheetName = nextSheetName();
+    sheetNames.add(sheetName);
+    if (header == null) return start.getRow();
+
+    // the header commands, such as a jx:dynamic-column of the column names, are rendered again
+    XlsArea area = new XlsArea(header, transformer);
+    for (CommandData command : headerCommands) area.addCommand(command.getAreaRef(), command.getCommand());
+    Size size = area.applyAt(new CellRef(sheetName, header.getFirstCellRef().getRow(),
+      header.getFirstCellRef().getCol()), context);
+    return header.getFirstCellRef().getRow() + size.getHeight();
+  }
+
+  private String nextSheetName() {
+    Workbook workbook = transformer.getWorkbook();
+    for (int n = sheetNames.size() + 2; ; n++) {
+      String suffix = " (" + n + ")";
+      String base = templateSheet.length() + suffix.length() > MAX_SHEET_NAME_LENGTH
+        ? templateSheet.substring(0, MAX_SHEET_NAME_LENGTH - suffix.length()) : templateSheet;
+      String name = base + suffix;
+      if (workbook.getSheet(name) == null) return name;
+    }
+  }
+
+  /**
+   * Move the spilled sheets right after the main sheet.
+   *
+   * @param mainSheet the final name of the first part
+   */
+  void placeSheets(String mainSheet) {
+    Workbook workbook = transformer.getWorkbook();
+    int index = workbook.getSheetIndex(mainSheet);
+    for (int i = 0; i < sheetNames.size(); i++) workbook.setSheetOrder(sheetNames.get(i), index + 1 + i);
+  }
+
+  /**
+   * @return the template sheet, also the final name of the first part
+   */
+  String getTemplateSheet() {
+    return templateSheet;
+  }
+
+  /**
+   * @return the names of the spilled sheets, in order
+   */
+  List<String> getSheetNames() {
+    return sheetNames;
+  }
+
+  @Override
+  public void beforeApplyAtCell(CellRef cellRef, Context context) {
+  }
+
+  @Override
+  public void afterApplyAtCell(CellRef cellRef, Context context) {
+  }
+
+  @Override
+  public void beforeTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+  }
+
+  @Override
+  public void afterTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+    if (targetCell.getRow() > lastRow && targetCell.getSheetName().equals(sheetName)) lastRow = targetCell.getRow();
+  }
+
+  /**
+   * Keep the row the top area is applied at.
+   */
+  private final class AreaStart implements AreaListener {
+    private int row = areaRow;
+
+    @Override
+    public void beforeApplyAtCell(CellRef cellRef, Context context) {
+      row = cellRef.getRow();
+    }
+
+    @Override
+    public void afterApplyAtCell(CellRef cellRef, Context context) {
+    }
+
+    @Override
+    public void beforeTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+    }
+
+    @Override
+    public void afterTransformCell(CellRef srcCell, CellRef targetCell, Context context) {
+    }
+  }
+}
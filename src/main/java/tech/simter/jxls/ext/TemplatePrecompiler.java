@@ -0,0 +1,156 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompile the templates to plan files at build time, to skip the comment parsing on the first render.
+ * <p>
+ * A plan file holds the template bytes and its {@link RenderPlan}: the area tree, the commands with their
+ * attributes and the expressions. {@link #load(Path)} reads it to a {@link CompiledTemplate} and compiles its
+ * expressions, so the first render of a new process only loads the workbook.
+ * <p>
+ * Run as {@code java tech.simter.jxls.ext.TemplatePrecompiler <outputDir> <template or dir>...},
+ * such as by the exec-maven-plugin at the prepare-package phase.
+ *
+ * @author RJ
+ */
+public final class TemplatePrecompiler {
+  private static Logger logger = LoggerFactory.getLogger(TemplatePrecompiler.class);
+  public static final String PLAN_SUFFIX = ".jxplan";
+  private static final int MAGIC = 0x4A58504C; // "JXPL"
+
+  private TemplatePrecompiler() {
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 2) {
+      System.err.println("Usage: TemplatePrecompiler <outputDir> <template or dir>...");
+      System.exit(2);
+    }
+    Path outputDir = Paths.get(args[0]);
+    try {
+      Files.createDirectories(outputDir);
+      List<Path> templates = new ArrayList<>();
+      for (int i = 1; i < args.length; i++) collectTemplates(Paths.get(args[i]), templates);
+      for (Path template : templates) {
+        Path plan = outputDir.resolve(template.getFileName() + PLAN_SUFFIX);
+        precompile(template, plan);
+        logger.info("precompiled {} to {}", template, plan);
+      }
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Failed to precompile the templates: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static void collectTemplates(Path path, List<Path> templates) throws IOException {
+    if (!Files.isDirectory(path)) {
+      templates.add(path);
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.{xls,xlsx}")) {
+      for (Path file : files) templates.add(file);
+    }
+  }
+
+  /**
+   * Precompile the template file to the plan file, keyed by the template file name.
+   *
+   * @param template the excel template file, can be xlsx or xls format
+   * @param plan     the plan file, created or truncated
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the template has a command the plan not supports
+   */
+  public static void precompile(Path template, Path plan) {
+    try (OutputStream out = Files.newOutputStream(plan)) {
+      precompile(template.getFileName().toString(), Files.readAllBytes(template), out);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Precompile the template to the plan output.
+   *
+   * @param key      the template key
+   * @param template the excel template bytes, can be xlsx or xls format
+   * @param plan     the plan output, not closed
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the template has a command the plan not supports
+   */
+  public static void precompile(String key, byte[] template, OutputStream plan) {
+    RenderPlan renderPlan;
+    try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(template))) {
+      renderPlan = RenderPlan.of(workbook);
+    } catch (IOException | InvalidFormatException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(plan));
+      out.writeInt(MAGIC);
+      out.writeUTF(key);
+      out.writeUTF(CompiledTemplate.hash(template));
+      out.writeInt(template.length);
+      out.write(template);
+      renderPlan.write(out);
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Load the plan file to a compiled template, and compile its expressions to the shared expression cache.
+   *
+   * @param plan the plan file
+   * @return the compiled template with its render plan
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the file is not a valid plan
+   */
+  public static CompiledTemplate load(Path plan) {
+    try (InputStream in = Files.newInputStream(plan)) {
+      return load(in);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Load the plan to a compiled template, and compile its expressions to the shared expression cache.
+   *
+   * @param plan the plan input, not closed
+   * @return the compiled template with its render plan
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the input is not a valid plan
+   */
+  public static CompiledTemplate load(InputStream plan) {
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(plan));
+      if (in.readInt() != MAGIC) throw new IllegalArgumentException("Not a render plan");
+      String key = in.readUTF();
+      String hash = in.readUTF();
+      byte[] template = new byte[in.readInt()];
+      in.readFully(template);
+      if (!hash.equals(CompiledTemplate.hash(template)))
+        throw new IllegalArgumentException("The template of the render plan " + key + " is corrupted");
+      RenderPlan renderPlan = RenderPlan.read(in);
+      renderPlan.warmUp(CachingExpressionEvaluator.getSingleton());
+      return new CompiledTemplate(key, template, renderPlan);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package tech.simter.jxls.ext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded LRU cache of {@link CompiledTemplate}s.
+ * <p>
+ * Templates are keyed by a caller supplied id or by the hash of their content.
+ * When the cache is full the least recently used template is evicted.
+ *
+ * @author RJ
+ */
+public class TemplateRegistry {
+  private static Logger logger = LoggerFactory.getLogger(TemplateRegistry.class);
+  public static final int DEFAULT_MAX_SIZE = 64;
+  private static TemplateRegistry singleton = new TemplateRegistry(DEFAULT_MAX_SIZE);
+
+  public static TemplateRegistry getSingleton() {
+    return singleton;
+  }
+
+  private final int maxSize;
+  private final LinkedHashMap<String, CompiledTemplate> templates;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+  private volatile Consumer<CompiledTemplate> evictionListener;
+
+  /**
+   * @param maxSize the max number of templates to keep
+   */
+  public TemplateRegistry(int maxSize) {
+    if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be greater than 0");
+    this.maxSize = maxSize;
+    this.templates = new LinkedHashMap<String, CompiledTemplate>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CompiledTemplate> eldest) {
+        if (size() <= TemplateRegistry.this.maxSize) return false;
+        evictionCount++;
+        logger.debug("evict template {}", eldest.getKey());
+        Consumer<CompiledTemplate> listener = evictionListener;
+        if (listener != null) listener.accept(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Get the template with the specified id, load and cache it if it is not cached yet.
+   *
+   * @param id     the template id
+   * @param loader the template loader, only invoked on cache miss
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public CompiledTemplate get(String id, Supplier<InputStream> loader) {
+    synchronized (this) {
+      CompiledTemplate template = templates.get(id);
+      if (template != null) {
+        hitCount++;
+        return template;
+      }
+      missCount++;
+    }
+
+    // read out of the lock, so a slow loader never blocks other lookups
+    CompiledTemplate template = CompiledTemplate.of(id, loader.get());
+    return putIfAbsent(template);
+  }
+
+  /**
+   * Get the template of the file, read and cache it if it is not cached yet, see {@link CompiledTemplate#of(Path)}.
+   * <p>
+   * The template is keyed by the file path, size and last modified time,
+   * so a modified file is read again and the stale one is evicted in time.
+   *
+   * @param template the excel template file, can be xlsx or xls format
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public CompiledTemplate get(Path template) {
+    String id;
+    try {
+      Path path = template.toAbsolutePath();
+      id = path + "@" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+    synchronized (this) {
+      CompiledTemplate cached = templates.get(id);
+      if (cached != null) {
+        hitCount++;
+        return cached;
+      }
+      missCount++;
+    }
+    return putIfAbsent(CompiledTemplate.of(id, template));
+  }
+
+  /**
+   * Load the plan file of {@link TemplatePrecompiler} and register its template by its key,
+   * replace the old one if exists.
+   *
+   * @param plan the plan file
+   * @return the compiled template with its render plan
+   * @throws RuntimeException         if has IOException inner
+   * @throws IllegalArgumentException if the file is not a valid plan
+   */
+  public CompiledTemplate load(Path plan) {
+    return register(TemplatePrecompiler.load(plan));
+  }
+
+  /**
+   * Get the cached template with the specified id.
+   *
+   * @param id the template id
+   * @return the compiled template or null if it is not cached
+   */
+  public synchronized CompiledTemplate get(String id) {
+    CompiledTemplate template = templates.get(id);
+    if (template != null) hitCount++;
+    else missCount++;
+    return template;
+  }
+
+  /**
+   * Register the template with the specified id, replace the old one if exists.
+   *
+   * @param id       the template id
+   * @param template the excel template, can be xlsx or xls format
+   * @return the compiled template
+   * @throws RuntimeException if has IOException inner
+   */
+  public CompiledTemplate register(String id, InputStream template) {
+    return register(CompiledTemplate.of(id, template));
+  }
+
+  /**
+   * Register the compiled template by its key, replace the old one if exists.
+   *
+   * @param template the compiled template
+   * @return the compiled template
+   */
+  public synchronized CompiledTemplate register(CompiledTemplate template) {
+    templates.put(template.getKey(), template);
+    return template;
+  }
+
+  /**
+   * Get the cached template with the same content, cache it if it is not cached yet.
+   *
+   * @param template the excel template, can be xlsx or xls format
+   * @return the compiled template keyed by the hash of its content
+   * @throws RuntimeException if has IOException inner
+   */
+  public CompiledTemplate compile(InputStream template) {
+    byte[] bytes = CompiledTemplate.readAll(template);
+    String key = CompiledTemplate.hash(bytes);
+    synchronized (this) {
+      CompiledTemplate cached = templates.get(key);
+      if (cached != null) {
+        hitCount++;
+        return cached;
+      }
+      missCount++;
+    }
+    return putIfAbsent(new CompiledTemplate(key, bytes));
+  }
+
+  private synchronized CompiledTemplate putIfAbsent(CompiledTemplate template) {
+    CompiledTemplate cached = templates.get(template.getKey());
+    if (cached != null) return cached;
+    templates.put(template.getKey(), template);
+    return template;
+  }
+
+  /**
+   * Remove the template with the specified key.
+   *
+   * @param key the template id or content hash
+   * @return true if the template was cached
+   */
+  public synchronized boolean evict(String key) {
+    return templates.remove(key) != null;
+  }
+
+  /**
+   * Remove all cached templates.
+   */
+  public synchronized void clear() {
+    templates.clear();
+  }
+
+  /**
+   * @return the number of cached templates
+   */
+  public synchronized int size() {
+    return templates.size();
+  }
+
+  /**
+   * @return the max number of cached templates
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return a snapshot of the cache statistics
+   */
+  public synchronized CacheStats getStats() {
+    return new CacheStats(hitCount, missCount, evictionCount, templates.size());
+  }
+
+  /**
+   * Set the listener to be notified when a template is evicted because the cache is full.
+   *
+   * @param evictionListener the listener, null to remove
+   */
+  public void setEvictionListener(Consumer<CompiledTemplate> evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+}
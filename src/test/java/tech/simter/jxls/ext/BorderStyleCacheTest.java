@@ -0,0 +1,58 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The border style cache test.
+ *
+ * @author RJ
+ */
+public class BorderStyleCacheTest {
+  @Test
+  public void setBorders() throws Exception {
+    try (Workbook workbook = new HSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet();
+      CellRangeAddress region = new CellRangeAddress(0, 2, 0, 0);
+      BorderStyleCache.of(workbook).setBorders(sheet, region,
+        BorderStyle.THIN, BorderStyle.MEDIUM, BorderStyle.DASHED, BorderStyle.DOTTED);
+
+      Cell top = sheet.getRow(0).getCell(0);
+      Cell middle = sheet.getRow(1).getCell(0);
+      Cell bottom = sheet.getRow(2).getCell(0);
+      assertThat(top.getCellStyle().getBorderTopEnum(), is(BorderStyle.THIN));
+      assertThat(top.getCellStyle().getBorderBottomEnum(), is(BorderStyle.NONE));
+      assertThat(middle.getCellStyle().getBorderTopEnum(), is(BorderStyle.NONE));
+      assertThat(middle.getCellStyle().getBorderRightEnum(), is(BorderStyle.MEDIUM));
+      assertThat(middle.getCellStyle().getBorderLeftEnum(), is(BorderStyle.DOTTED));
+      assertThat(bottom.getCellStyle().getBorderBottomEnum(), is(BorderStyle.DASHED));
+    }
+  }
+
+  // xls has a 4000 styles limit
+  @Test
+  public void shareStyles() throws Exception {
+    try (Workbook workbook = new HSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet();
+      int styles = workbook.getNumCellStyles();
+      BorderStyleCache cache = BorderStyleCache.of(workbook);
+      for (int i = 0; i < 10000; i++) {
+        int row = (i / 200) * 3;
+        int col = i % 200;
+        cache.setBorders(sheet, new CellRangeAddress(row, row + 2, col, col),
+          BorderStyle.THIN, BorderStyle.THIN, BorderStyle.THIN, BorderStyle.THIN);
+      }
+
+      // top, middle and bottom cells
+      assertThat(workbook.getNumCellStyles() - styles, is(3));
+    }
+  }
+}
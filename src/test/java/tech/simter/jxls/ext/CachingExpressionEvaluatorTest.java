@@ -0,0 +1,106 @@
+package tech.simter.jxls.ext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The caching expression evaluator test.
+ *
+ * @author RJ
+ */
+public class CachingExpressionEvaluatorTest {
+  @Test
+  public void evaluate() {
+    CachingExpressionEvaluator evaluator = new CachingExpressionEvaluator(16);
+    Map<String, Object> context = new HashMap<>();
+    Map<String, Object> row = new HashMap<>();
+    row.put("name", "row1");
+    context.put("r", row);
+    context.put("fn", CommonFunctions.getSingleton());
+
+    assertThat(evaluator.evaluate("r.name", context), is("row1"));
+    assertThat(evaluator.evaluate("fn.toInt('12')", context), is(12));
+    assertThat(evaluator.evaluate("r.name", context), is("row1"));
+    assertThat(evaluator.bind("r.name").evaluate(context), is("row1"));
+
+    assertThat(evaluator.getStats().getMissCount(), is(2L));
+    assertThat(evaluator.getStats().getHitCount(), is(3L));
+    assertThat(evaluator.getStats().getSize(), is(2));
+  }
+
+  @Test
+  public void evict() {
+    CachingExpressionEvaluator evaluator = new CachingExpressionEvaluator(2);
+    Map<String, Object> context = Collections.singletonMap("a", 1);
+    evaluator.evaluate("a + 1", context);
+    evaluator.evaluate("a + 2", context);
+    evaluator.evaluate("a + 1", context); // the recently used one is kept
+    evaluator.evaluate("a + 3", context);
+
+    assertThat(evaluator.getStats().getEvictionCount(), is(1L));
+    assertThat(evaluator.getStats().getSize(), is(2));
+    evaluator.evaluate("a + 1", context);
+    assertThat(evaluator.getStats().getMissCount(), is(3L));
+  }
+
+  @Test
+  public void evaluateConcurrently() throws Exception {
+    CachingExpressionEvaluator evaluator = new CachingExpressionEvaluator(16);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 10000; i++) {
+            Map<String, Object> context = Collections.singletonMap("i", i);
+            if (!Integer.valueOf(i * 2).equals(evaluator.evaluate("i * 2", context))) return false;
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> future : futures) assertThat(future.get(), is(true));
+      assertThat(evaluator.getStats().getSize(), is(1));
+      assertThat(evaluator.getStats().getMissCount(), is(1L));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // JxlsUtils installs the singleton, so the second render compiles nothing
+  @Test
+  public void sharedAcrossRenders() {
+    CachingExpressionEvaluator evaluator = CachingExpressionEvaluator.getSingleton();
+    render();
+    long misses = evaluator.getStats().getMissCount();
+    render();
+    assertThat(evaluator.getStats().getMissCount(), is(misses));
+  }
+
+  private void render() {
+    InputStream template = getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx");
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "caching expression evaluator test");
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      Map<String, Object> sub = new HashMap<>();
+      sub.put("sn", i + "-1");
+      sub.put("name", "row" + i + "sub1");
+      row.put("subs", Collections.singletonList(sub));
+      rows.add(row);
+    }
+    data.put("rows", rows);
+    JxlsUtils.renderTemplate(template, data, new ByteArrayOutputStream());
+  }
+}
@@ -11,6 +11,10 @@ import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.*;
 import java.time.temporal.TemporalAccessor;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
@@ -48,6 +52,61 @@ public class CommonFunctionsTest {
     assertThat(fn.round(123456789.456, 2), is(new BigDecimal("123456789.46")));
   }
 
+  @Test
+  public void roundByType() {
+    assertThat(fn.round(5, 2), is(new BigDecimal("5.00")));
+    assertThat(fn.round(125L, -1), is(new BigDecimal("1.3E+2")));
+    assertThat(fn.round(1.005, 2), is(new BigDecimal("1.01"))); // by the decimal form, not the binary one
+    assertThat(fn.round(1.005f, 2), is(new BigDecimal("1.01")));
+    assertThat(fn.round(new BigDecimal("-2.5"), 0), is(new BigDecimal("-3")));
+  }
+
+  @Test
+  public void aggregate() {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 1; i <= 4; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("qty", i);
+      row.put("price", new BigDecimal("1.10"));
+      row.put("rate", i == 4 ? null : 0.5);
+      rows.add(row);
+    }
+
+    assertThat(fn.sum(rows, "qty"), is(10L));
+    assertThat(fn.sum(rows, "price"), is(new BigDecimal("4.40")));
+    assertThat(fn.sum(rows, "rate"), is(1.5));
+    assertThat(fn.avg(rows, "qty"), is(2.5));
+    assertThat(fn.avg(rows, "price"), is(new BigDecimal("1.10")));
+    assertThat(fn.avg(rows, "rate"), is(0.5));
+    assertThat(fn.count(rows), is(4L));
+    assertThat(fn.count(rows, "rate"), is(3L));
+
+    assertThat(fn.sum(new Object[]{1, 2L, null, 3.5}), is(6.5));
+    assertThat(fn.sum(Arrays.asList(Long.MAX_VALUE, 1L)), is(new BigDecimal(Long.MAX_VALUE).add(BigDecimal.ONE)));
+    assertThat(fn.avg(new ArrayList<>()), nullValue());
+    assertThat(fn.sum(null, "qty"), nullValue());
+    assertThat(fn.count(null), is(0L));
+  }
+
+  @Test
+  public void aggregateBeans() {
+    List<Item> items = Arrays.asList(new Item(2), new Item(3));
+    assertThat(fn.sum(items, "amount"), is(5L));
+    assertThat(fn.count(items, "amount"), is(2L));
+  }
+
+  public static class Item {
+    private final int amount;
+
+    Item(int amount) {
+      this.amount = amount;
+    }
+
+    public int getAmount() {
+      return amount;
+    }
+  }
+
   @Test
   public void toInt() {
     assertThat(fn.toInt(null), nullValue());
@@ -73,6 +132,48 @@ public class CommonFunctionsTest {
     assertThat(fn.format(LocalTime.of(13, 20, 30), "HH:mm:ss"), is("13:20:30"));
   }
 
+  @Test
+  public void formatWithLocale() {
+    assertThat(fn.format(1234.5, "#,##0.00", Locale.GERMANY), is("1.234,50"));
+    assertThat(fn.format(1234.5, "#,##0.00", Locale.US), is("1,234.50"));
+    assertThat(fn.format(LocalDate.of(2017, 1, 2), "MMM", Locale.US), is("Jan"));
+  }
+
+  @Test
+  public void cacheCompiledFormats() {
+    String pattern = "yyyy-MM-dd'cache-test'";
+    long dateTimeMisses = fn.getDateTimeFormatterStats().getMissCount();
+    long numberMisses = fn.getNumberFormatStats().getMissCount();
+    for (int i = 0; i < 100; i++) {
+      fn.format(LocalDate.of(2017, 1, 2), pattern);
+      fn.format(i, "#,##0.000'cache-test'");
+    }
+    assertThat(fn.getDateTimeFormatterStats().getMissCount() - dateTimeMisses, is(1L));
+    assertThat(fn.getNumberFormatStats().getMissCount() - numberMisses, is(1L));
+  }
+
+  @Test
+  public void formatConcurrently() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 10000; i++) {
+            if (!fn.format(123456789.125 + i, "#,###.00").equals(new java.text.DecimalFormat("#,###.00")
+              .format(123456789.125 + i))) return false;
+            if (!fn.format(LocalDate.of(2017, 1, 1).plusDays(i % 365), "yyyy-MM-dd")
+              .equals(LocalDate.of(2017, 1, 1).plusDays(i % 365).toString())) return false;
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> future : futures) assertThat(future.get(), is(true));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void renderTemplate() throws Exception {
     // template
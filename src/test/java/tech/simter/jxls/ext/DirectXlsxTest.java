@@ -0,0 +1,170 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The direct render test, compare with the POI render cell by cell.
+ *
+ * @author RJ
+ */
+public class DirectXlsxTest {
+  @Test
+  public void twoSubList() throws Exception {
+    compare("two-sub-list.xlsx");
+  }
+
+  @Test
+  public void commonFunctions() throws Exception {
+    compare("common-functions.xlsx");
+  }
+
+  // jx:grid is not a supported command, see RenderOptions.setDirect
+  @Test(expected = IllegalArgumentException.class)
+  public void gridNotSupported() throws Exception {
+    JxlsUtils.renderTemplate(load("dynamic-column.xlsx"), generateData(), new ByteArrayOutputStream(),
+      RenderOptions.direct());
+  }
+
+  // the merged cells of jx:each-merge take new bordered styles, see RenderOptions.setDirect
+  @Test(expected = IllegalArgumentException.class)
+  public void eachMergeNotSupported() throws Exception {
+    JxlsUtils.renderTemplate(load("each-merge.xlsx"), generateData(), new ByteArrayOutputStream(),
+      RenderOptions.direct());
+  }
+
+  // the rendered strings are inline, not added to the shared strings
+  @Test
+  public void inlineStrings() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JxlsUtils.renderTemplate(load("two-sub-list.xlsx"), generateData(), out, RenderOptions.direct());
+    String sheet = null;
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+          sheet = new String(CompiledTemplate.readAll(zip), StandardCharsets.UTF_8); // closes the zip
+          break;
+        }
+      }
+    }
+    assertThat(sheet.contains(" t=\"inlineStr\""), is(true));
+    assertThat(sheet.contains(" t=\"s\""), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void spillOverNotSupported() throws Exception {
+    JxlsUtils.renderTemplate(load("two-sub-list.xlsx"), generateData(), new ByteArrayOutputStream(),
+      RenderOptions.direct().setSpillRowThreshold(10));
+  }
+
+  private void compare(String name) throws Exception {
+    // render by POI
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    JxlsUtils.renderTemplate(load(name), generateData(), expected);
+
+    // render direct
+    File out = new File("target/direct-" + name);
+    if (out.exists()) out.delete();
+    try (OutputStream output = new FileOutputStream(out)) {
+      JxlsUtils.renderTemplate(load(name), generateData(), output, RenderOptions.direct());
+    }
+
+    // verify
+    DataFormatter formatter = new DataFormatter();
+    try (Workbook poi = WorkbookFactory.create(new ByteArrayInputStream(expected.toByteArray()));
+         Workbook direct = WorkbookFactory.create(out)) {
+      assertThat(direct.getNumberOfSheets(), is(poi.getNumberOfSheets()));
+      for (int i = 0; i < poi.getNumberOfSheets(); i++) {
+        Sheet poiSheet = poi.getSheetAt(i);
+        Sheet directSheet = direct.getSheetAt(i);
+        assertThat(directSheet.getSheetName(), is(poiSheet.getSheetName()));
+        assertThat(name, regions(directSheet), is(regions(poiSheet)));
+
+        int lastRow = Math.max(poiSheet.getLastRowNum(), directSheet.getLastRowNum());
+        for (int r = 0; r <= lastRow; r++) {
+          Row poiRow = poiSheet.getRow(r);
+          Row directRow = directSheet.getRow(r);
+          int lastCol = Math.max(poiRow == null ? 0 : poiRow.getLastCellNum(),
+            directRow == null ? 0 : directRow.getLastCellNum());
+          for (int c = 0; c < lastCol; c++) {
+            Cell poiCell = poiRow == null ? null : poiRow.getCell(c);
+            Cell directCell = directRow == null ? null : directRow.getCell(c);
+            String at = name + " cell " + r + "," + c;
+            assertThat(at, directCell == null ? "" : formatter.formatCellValue(directCell),
+              is(poiCell == null ? "" : formatter.formatCellValue(poiCell)));
+            if (poiCell != null && directCell != null)
+              assertThat(at, directCell.getCellStyle().getIndex(), is(poiCell.getCellStyle().getIndex()));
+          }
+        }
+      }
+    }
+  }
+
+  private static List<String> regions(Sheet sheet) {
+    List<String> regions = new ArrayList<>();
+    for (CellRangeAddress region : sheet.getMergedRegions()) regions.add(region.formatAsString());
+    Collections.sort(regions);
+    return regions;
+  }
+
+  private InputStream load(String name) {
+    return getClass().getClassLoader().getResourceAsStream("templates/" + name);
+  }
+
+  private static Map<String, Object> generateData() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS direct render test");
+    data.put("ts", OffsetDateTime.of(2017, 12, 12, 10, 20, 30, 0, ZoneOffset.ofHours(8)));
+    data.put("num", new BigDecimal("123.456"));
+    data.put("datetime", LocalDateTime.of(2017, 12, 12, 10, 20, 30));
+    data.put("date", LocalDate.of(2017, 12, 12));
+    data.put("time", LocalTime.of(10, 20, 30));
+    data.put("str", "123");
+
+    List<Map<String, Object>> rows = new ArrayList<>();
+    data.put("rows", rows);
+    int[][] counts = {{2, 2}, {2, 1}, {1, 1}, {1, 3}};
+    for (int i = 0; i < counts.length; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i + 1);
+      row.put("name", "row" + (i + 1));
+      row.put("subs", createSubs(i + 1, 0, counts[i][0]));
+      row.put("subs1", createSubs(i + 1, 1, counts[i][0]));
+      row.put("subs2", createSubs(i + 1, 2, counts[i][1]));
+      rows.add(row);
+    }
+    return data;
+  }
+
+  private static List<Map<String, Object>> createSubs(int rowNumber, int subNumber, int count) {
+    List<Map<String, Object>> subs = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      Map<String, Object> sub = new HashMap<>();
+      sub.put("sn", rowNumber + "-" + i);
+      sub.put("name", "row" + rowNumber + "sub" + subNumber + "-" + i);
+      subs.add(sub);
+    }
+    return subs;
+  }
+}
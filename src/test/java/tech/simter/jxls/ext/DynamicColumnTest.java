@@ -1,15 +1,17 @@
 package tech.simter.jxls.ext;
 
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Test;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.util.*;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
 
 /**
  * The Jxls test.
@@ -67,4 +69,89 @@ public class DynamicColumnTest {
 
     return row;
   }
-}
\ No newline at end of file
+
+  // a header of the item names and a row of double values by jx:dynamic-column
+  @Test
+  public void writeRowVectors() throws Exception {
+    Map<String, Object> data = new HashMap<>();
+    data.put("itemNames", new Object[]{"Item1", "Item2", "Item3"});
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("values", new double[]{i + 0.1, i + 0.2, i + 0.3});
+      rows.add(row);
+    }
+    data.put("rows", rows);
+
+    byte[] template = createTemplate(new String[][]{
+      {"A1", "jx:area(lastCell=\"B2\")"},
+      {"B1", "jx:dynamic-column(values=\"itemNames\" lastCell=\"B1\")"},
+      {"A2", "jx:each(items=\"rows\" var=\"r\" lastCell=\"B2\")"},
+      {"B2", "jx:dynamic-column(values=\"r.values\" lastCell=\"B2\")"}
+    }, new String[][]{{"SN", "-"}, {"${r.sn}", "-"}});
+    try (Workbook workbook = render(template, data, "target/dynamic-column-vector-result.xlsx")) {
+      Sheet sheet = workbook.getSheetAt(0);
+      assertThat(sheet.getRow(0).getCell(3).getStringCellValue(), is("Item3"));
+      assertThat(sheet.getRow(3).getCell(0).getNumericCellValue(), is(3d));
+      assertThat(sheet.getRow(3).getCell(3).getNumericCellValue(), is(3.3));
+      assertThat(sheet.getRow(1).getCell(1).getCellStyle().getDataFormatString(), is("0.00"));
+      assertThat(sheet.getRow(1).getCell(3).getCellStyle().getDataFormatString(), is("0.00"));
+    }
+  }
+
+  // a list of long column vectors and a shorter linked list column
+  @Test
+  public void writeColumnMajorMatrix() throws Exception {
+    Map<String, Object> data = new HashMap<>();
+    data.put("columns", Arrays.asList(new long[]{1, 2, 3}, new long[]{4, 5, 6},
+      new LinkedList<>(Arrays.asList("a", "b"))));
+
+    byte[] template = createTemplate(new String[][]{
+      {"A1", "jx:area(lastCell=\"A1\")"},
+      {"A1", "jx:dynamic-column(values=\"columns\" columnMajor=\"true\" lastCell=\"A1\")"}
+    }, new String[][]{{"-"}});
+    try (Workbook workbook = render(template, data, "target/dynamic-column-matrix-result.xlsx")) {
+      Sheet sheet = workbook.getSheetAt(0);
+      assertThat(sheet.getRow(2).getCell(0).getNumericCellValue(), is(3d));
+      assertThat(sheet.getRow(0).getCell(1).getNumericCellValue(), is(4d));
+      assertThat(sheet.getRow(2).getCell(1).getNumericCellValue(), is(6d));
+      assertThat(sheet.getRow(1).getCell(2).getStringCellValue(), is("b"));
+      assertThat(sheet.getRow(2).getCell(2), nullValue());
+    }
+  }
+
+  private static Workbook render(byte[] template, Map<String, Object> data, String out) throws Exception {
+    File file = new File(out);
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, output);
+    }
+    return WorkbookFactory.create(file);
+  }
+
+  // the cells of the second column are formatted by "0.00", the comments are joined by a new line
+  private static byte[] createTemplate(String[][] comments, String[][] values) throws IOException {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      CellStyle style = workbook.createCellStyle();
+      style.setDataFormat(workbook.createDataFormat().getFormat("0.00"));
+      for (int r = 0; r < values.length; r++) {
+        Row row = sheet.createRow(r);
+        for (int c = 0; c < values[r].length; c++) {
+          Cell cell = row.createCell(c);
+          cell.setCellValue(values[r][c]);
+          if (c == 1 && r > 0) cell.setCellStyle(style);
+        }
+      }
+
+      Map<String, String> texts = new LinkedHashMap<>();
+      for (String[] comment : comments) texts.merge(comment[0], comment[1], (a, b) -> a + "\n" + b);
+      texts.forEach((ref, text) -> {
+        org.apache.poi.ss.util.CellReference cellRef = new org.apache.poi.ss.util.CellReference(ref);
+        addComment(sheet.getRow(cellRef.getRow()).getCell(cellRef.getCol()), text);
+      });
+
+      return toBytes(workbook);
+    }
+  }
+}
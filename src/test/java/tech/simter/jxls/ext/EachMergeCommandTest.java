@@ -1,10 +1,17 @@
 package tech.simter.jxls.ext;
 
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Test;
 import org.jxls.builder.xls.XlsCommentAreaBuilder;
 import org.jxls.common.Context;
 import org.jxls.util.JxlsHelper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
@@ -13,10 +20,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static tech.simter.jxls.ext.JxlsUtils.convert2Context;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
 
 /**
  * The each-merge command test.
@@ -93,6 +103,105 @@ public class EachMergeCommandTest {
     assertThat(out.getTotalSpace() > 0, is(true));
   }
 
+  // render through the windowed SXSSF workbook
+  @Test
+  public void mergeWithStreaming() throws Exception {
+    // template
+    InputStream template = getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx");
+
+    // output to
+    File out = new File("target/each-merge-streaming-result.xlsx");
+    if (out.exists()) out.delete();
+    OutputStream output = new FileOutputStream(out);
+
+    // generate template data
+    Map<String, Object> data = generateData();
+
+    // render
+    JxlsUtils.renderTemplate(template, data, output, RenderOptions.streaming().setRowAccessWindowSize(10));
+
+    // verify
+    try (Workbook templateWorkbook = WorkbookFactory.create(
+      getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx"));
+         Workbook workbook = WorkbookFactory.create(out)) {
+      assertThat(workbook.getNumberOfSheets(), is(templateWorkbook.getNumberOfSheets()));
+      assertThat(workbook.getSheetName(0), is(templateWorkbook.getSheetName(0)));
+      assertThat(workbook.getSheetAt(0).getNumMergedRegions() > 0, is(true));
+    }
+  }
+
+  // items of unknown size
+  @Test
+  @SuppressWarnings("unchecked")
+  public void mergeWithLazyItems() throws Exception {
+    for (String type : new String[]{"stream", "iterator", "iterable"}) {
+      // template
+      InputStream template = getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx");
+
+      // output to
+      File out = new File("target/each-merge-" + type + "-result.xlsx");
+      if (out.exists()) out.delete();
+      OutputStream output = new FileOutputStream(out);
+
+      // generate template data
+      Map<String, Object> data = generateData();
+      List<Map<String, Object>> rows = (List<Map<String, Object>>) data.get("rows");
+      AtomicBoolean closed = new AtomicBoolean();
+      if (type.equals("stream")) data.put("rows", rows.stream().onClose(() -> closed.set(true)));
+      else if (type.equals("iterator")) data.put("rows", rows.iterator());
+      else data.put("rows", (Iterable<Map<String, Object>>) rows::iterator);
+
+      // render
+      JxlsUtils.renderTemplate(template, data, output);
+
+      // verify
+      try (Workbook workbook = WorkbookFactory.create(out)) {
+        assertThat(workbook.getSheetAt(0).getNumMergedRegions() > 0, is(true));
+      }
+      if (type.equals("stream")) assertThat(closed.get(), is(true));
+    }
+  }
+
+  // the items expression is evaluated once, not again by the standard each
+  @Test
+  public void evaluateItemsOnce() throws Exception {
+    byte[] template;
+    try (Workbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      header.createCell(0).setCellValue("SN");
+      header.createCell(1).setCellValue("Name");
+      Row row = sheet.createRow(1);
+      row.createCell(0).setCellValue("${row.sn}");
+      row.createCell(1).setCellValue("${row.name}");
+      addComment(header.getCell(0), "jx:area(lastCell=\"B2\")");
+      addComment(row.getCell(0), "jx:each-merge(items=\"source.rows\" var=\"row\" lastCell=\"B2\")");
+      template = toBytes(workbook);
+    }
+    RowSource source = new RowSource(generateData());
+    Map<String, Object> data = new HashMap<>();
+    data.put("source", source);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, output);
+    assertThat(source.count, is(1));
+  }
+
+  // counts the evaluations of its rows
+  public static final class RowSource {
+    private final Object rows;
+    private int count;
+
+    RowSource(Map<String, Object> data) {
+      this.rows = data.get("rows");
+    }
+
+    public Object getRows() {
+      count++;
+      return rows;
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private void copySubsToSubs1(Map<String, Object> data) {
     ((List<Map<String, Object>>) data.get("rows")).forEach(row -> {
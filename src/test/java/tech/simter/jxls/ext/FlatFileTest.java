@@ -0,0 +1,154 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
+
+/**
+ * The flat file render test.
+ *
+ * @author RJ
+ */
+public class FlatFileTest {
+  @Test
+  public void eachMergeBlank() throws Exception {
+    String csv = render(createEachMergeTemplate(), eachMergeData(), FlatFileOptions.csv());
+    assertThat(csv, is("Name,Sub,Day\r\n"
+      + "n0,n0-0,2017-12-12\r\n"
+      + ",n0-1,\r\n"
+      + "\"a,\"\"b\"\"\",a-0,2017-12-13\r\n"));
+  }
+
+  @Test
+  public void eachMergeRepeat() throws Exception {
+    FlatFileOptions options = FlatFileOptions.tsv().setRepeatMergedCells(true).setLineSeparator("\n");
+    String tsv = render(createEachMergeTemplate(), eachMergeData(), options);
+    assertThat(tsv, is("Name\tSub\tDay\n"
+      + "n0\tn0-0\t2017-12-12\n"
+      + "n0\tn0-1\t2017-12-12\n"
+      + "\"a,\"\"b\"\"\"\ta-0\t2017-12-13\n"));
+  }
+
+  @Test
+  public void groupMergeBlank() throws Exception {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    rows.add(createRow("x", "x1", 1.0));
+    rows.add(createRow("x", "x1", 2.5));
+    rows.add(createRow("x", "x2", new BigDecimal("1E+3")));
+    rows.add(createRow("y", "x2", 4L));
+    Map<String, Object> data = new HashMap<>();
+    data.put("rows", rows);
+
+    assertThat(render(createGroupMergeTemplate(), data, FlatFileOptions.csv()), is("x,x1,1\r\n"
+      + ",,2.5\r\n"
+      + ",x2,1000\r\n"
+      + "y,x2,4\r\n"));
+    assertThat(render(createGroupMergeTemplate(), data, FlatFileOptions.csv().setRepeatMergedCells(true)),
+      is("x,x1,1\r\n"
+        + "x,x1,2.5\r\n"
+        + "x,x2,1000\r\n"
+        + "y,x2,4\r\n"));
+  }
+
+  // a date of a date styled cell by the style format, the others by the option patterns
+  @Test
+  public void cellDateFormat() throws Exception {
+    byte[] template;
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row row = sheet.createRow(0);
+      row.createCell(0).setCellValue("${r.day}");
+      row.createCell(1).setCellValue("${r.day}");
+      CellStyle style = workbook.createCellStyle();
+      style.setDataFormat(workbook.createDataFormat().getFormat("yyyy/mm/dd"));
+      row.getCell(0).setCellStyle(style);
+      addComment(row.getCell(0), "jx:area(lastCell=\"B1\")\n"
+        + "jx:each(items=\"rows\" var=\"r\" lastCell=\"B1\")");
+      template = toBytes(workbook);
+    }
+    LocalDateTime day = LocalDateTime.of(2017, 12, 12, 10, 20, 30);
+    Map<String, Object> data = new HashMap<>();
+    data.put("rows", Arrays.asList(Collections.singletonMap("day", Date.from(day.atZone(ZoneId.systemDefault())
+      .toInstant())), Collections.singletonMap("day", day)));
+
+    assertThat(render(template, data, FlatFileOptions.csv()), is("2017/12/12,2017-12-12 10:20:30\r\n"
+      + "2017/12/12,2017-12-12 10:20:30\r\n"));
+  }
+
+  private static String render(byte[] template, Map<String, Object> data, FlatFileOptions options) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JxlsUtils.renderTemplate2FlatFile(new ByteArrayInputStream(template), data, out, options);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, Object> eachMergeData() {
+    Map<String, Object> first = new HashMap<>();
+    first.put("name", "n0");
+    first.put("day", LocalDate.of(2017, 12, 12));
+    first.put("subs", Arrays.asList(Collections.singletonMap("name", "n0-0"),
+      Collections.singletonMap("name", "n0-1")));
+    Map<String, Object> second = new HashMap<>();
+    second.put("name", "a,\"b\"");
+    second.put("day", LocalDate.of(2017, 12, 13));
+    second.put("subs", Collections.singletonList(Collections.singletonMap("name", "a-0")));
+    Map<String, Object> data = new HashMap<>();
+    data.put("rows", Arrays.asList(first, second));
+    return data;
+  }
+
+  private static Map<String, Object> createRow(String a, String b, Number value) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("a", a);
+    row.put("b", b);
+    row.put("value", value);
+    return row;
+  }
+
+  // a header row and an each-merge row of the name, the sub names and the formatted day
+  private static byte[] createEachMergeTemplate() throws IOException {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      header.createCell(0).setCellValue("Name");
+      header.createCell(1).setCellValue("Sub");
+      header.createCell(2).setCellValue("Day");
+      Row row = sheet.createRow(1);
+      row.createCell(0).setCellValue("${r.name}");
+      row.createCell(1).setCellValue("${s.name}");
+      row.createCell(2).setCellValue("${fn.format(r.day, 'yyyy-MM-dd')}");
+      addComment(header.getCell(0), "jx:area(lastCell=\"C2\")");
+      addComment(row.getCell(0), "jx:each-merge(items=\"rows\" var=\"r\" lastCell=\"C2\")");
+      addComment(row.getCell(1), "jx:each(items=\"r.subs\" var=\"s\" lastCell=\"B2\")");
+      return toBytes(workbook);
+    }
+  }
+
+  // a group-merge row of the columns a, b and value, merged by the column A then B
+  private static byte[] createGroupMergeTemplate() throws IOException {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row row = sheet.createRow(0);
+      row.createCell(0).setCellValue("${r.a}");
+      row.createCell(1).setCellValue("${r.b}");
+      row.createCell(2).setCellValue("${r.value}");
+      addComment(row.getCell(0), "jx:area(lastCell=\"C1\")\n"
+        + "jx:group-merge(items=\"rows\" var=\"r\" lastCell=\"C1\" mergeColumns=\"A,B\")");
+      return toBytes(workbook);
+    }
+  }
+}
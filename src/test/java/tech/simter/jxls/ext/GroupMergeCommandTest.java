@@ -0,0 +1,112 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
+
+/**
+ * The group-merge command test.
+ *
+ * @author RJ
+ */
+public class GroupMergeCommandTest {
+  @Test
+  public void mergeSortedRows() throws Exception {
+    Set<String> regions = render(generateData(), null, "target/group-merge-result.xlsx");
+    assertThat(regions, is(expectedRegions()));
+  }
+
+  @Test
+  public void mergeSortedStream() throws Exception {
+    Map<String, Object> data = generateData();
+    data.put("rows", ((List<?>) data.get("rows")).stream());
+    Set<String> regions = render(data, RenderOptions.streaming(), "target/group-merge-stream-result.xlsx");
+    assertThat(regions, is(expectedRegions()));
+  }
+
+  // the run is longer than the row window, its borders are set before its first rows are flushed
+  @Test
+  public void mergeRunLongerThanWindow() throws Exception {
+    Map<String, Object> data = new HashMap<>();
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 250; i++) rows.add(createRow("D1", "T1", "n" + i));
+    rows.add(createRow("D2", "T2", "e"));
+    data.put("rows", rows);
+    Set<String> regions = render(data, RenderOptions.streaming().setRowAccessWindowSize(10),
+      "target/group-merge-long-run-result.xlsx");
+    assertThat(regions, is(new HashSet<>(Arrays.asList("A2:A251", "B2:B251"))));
+  }
+
+  // the team T2 of D1 and the team T2 of D2 are not merged together
+  private static Set<String> expectedRegions() {
+    return new HashSet<>(Arrays.asList("A2:A4", "A5:A6", "B2:B3", "B5:B6"));
+  }
+
+  private static Set<String> render(Map<String, Object> data, RenderOptions options, String out) throws Exception {
+    byte[] template = createTemplate();
+    File file = new File(out);
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, output, options);
+    }
+
+    Set<String> regions = new HashSet<>();
+    try (Workbook workbook = WorkbookFactory.create(file)) {
+      Sheet sheet = workbook.getSheetAt(0);
+      assertThat(sheet.getRow(sheet.getLastRowNum()).getCell(2).getStringCellValue(), is("e"));
+      for (CellRangeAddress region : sheet.getMergedRegions()) regions.add(region.formatAsString());
+    }
+    return regions;
+  }
+
+  private static Map<String, Object> generateData() {
+    Map<String, Object> data = new HashMap<>();
+    List<Map<String, Object>> rows = new ArrayList<>();
+    data.put("rows", rows);
+    rows.add(createRow("D1", "T1", "a"));
+    rows.add(createRow("D1", "T1", "b"));
+    rows.add(createRow("D1", "T2", "c"));
+    rows.add(createRow("D2", "T2", "d"));
+    rows.add(createRow("D2", "T2", "e"));
+    return data;
+  }
+
+  private static Map<String, Object> createRow(String dept, String team, String name) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("dept", dept);
+    row.put("team", team);
+    row.put("name", name);
+    return row;
+  }
+
+  // a header row and a group-merge row of the department, team and name
+  private static byte[] createTemplate() throws IOException {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      Row row = sheet.createRow(1);
+      String[] titles = {"Dept", "Team", "Name"};
+      String[] fields = {"dept", "team", "name"};
+      for (int i = 0; i < titles.length; i++) {
+        header.createCell(i).setCellValue(titles[i]);
+        row.createCell(i).setCellValue("${r." + fields[i] + "}");
+      }
+      addComment(header.getCell(0), "jx:area(lastCell=\"C2\")");
+      addComment(row.getCell(0), "jx:group-merge(items=\"rows\" var=\"r\" lastCell=\"C2\" mergeColumns=\"A,B\")");
+
+      return toBytes(workbook);
+    }
+  }
+}
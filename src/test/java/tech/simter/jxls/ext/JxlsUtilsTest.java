@@ -1,21 +1,33 @@
 package tech.simter.jxls.ext;
 
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Test;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
 import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
 
 /**
  * The Excel Utils test.
@@ -65,6 +77,152 @@ public class JxlsUtilsTest {
     assertThat(out.getTotalSpace() > 0, is(true));
   }
 
+  @Test
+  public void renderBatch() throws Exception {
+    CompiledTemplate template = CompiledTemplate.of("common-functions-complex.xlsx",
+      getClass().getClassLoader().getResourceAsStream("templates/common-functions-complex.xlsx"));
+
+    // template data
+    List<Map<String, Object>> dataList = new ArrayList<>();
+    for (int i = 0; i < 10; i++) dataList.add(generateData());
+
+    // render
+    File dir = new File("target/batch");
+    dir.mkdirs();
+    BatchResult result = JxlsUtils.renderBatch(template, dataList, index -> {
+      if (index == 3) throw new IllegalStateException("target 3 is not writable"); // the failed item
+      try {
+        return new FileOutputStream(new File(dir, "common-functions-complex-result-" + index + ".xlsx"));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }, 4);
+
+    // verify
+    assertThat(result.getTotal(), is(10));
+    assertThat(result.getSucceeded(), is(9));
+    assertThat(result.getFailures().keySet().iterator().next(), is(3));
+    assertThat(new File(dir, "common-functions-complex-result-0.xlsx").length() > 0, is(true));
+  }
+
+  @Test
+  public void renderBatchWithOptions() throws Exception {
+    CompiledTemplate template = CompiledTemplate.of("common-functions-complex.xls",
+      getClass().getClassLoader().getResourceAsStream("templates/common-functions-complex.xls"));
+    List<Map<String, Object>> dataList = new ArrayList<>();
+    for (int i = 0; i < 4; i++) dataList.add(generateData());
+
+    // every item gets the options: streaming render only support xlsx template
+    BatchResult result = JxlsUtils.renderBatch(template, dataList, index -> new ByteArrayOutputStream(), 2,
+      RenderOptions.streaming());
+
+    // verify
+    assertThat(result.getSucceeded(), is(0));
+    assertThat(result.getFailures().size(), is(4));
+    assertThat(result.getFailures().get(0) instanceof IllegalArgumentException, is(true));
+  }
+
+  // the streaming result sheet only has the areas of its template sheet, so a cell out of them is rejected
+  @Test(expected = IllegalArgumentException.class)
+  public void streamingRejectsCellsOutOfAreas() throws Exception {
+    byte[] template;
+    try (Workbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      header.createCell(0).setCellValue("SN");
+      Row row = sheet.createRow(1);
+      row.createCell(0).setCellValue("${row.sn}");
+      sheet.createRow(5).createCell(0).setCellValue("Footnote");
+      addComment(header.getCell(0), "jx:area(lastCell=\"A2\")");
+      addComment(row.getCell(0), "jx:each(items=\"rows\" var=\"row\" lastCell=\"A2\")");
+      template = toBytes(workbook);
+    }
+    Map<String, Object> data = new HashMap<>();
+    data.put("rows", Collections.singletonList(Collections.singletonMap("sn", 1)));
+
+    JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, new ByteArrayOutputStream(),
+      RenderOptions.streaming());
+  }
+
+  @Test
+  public void renderPathToPath() throws Exception {
+    Path template = Paths.get(getClass().getClassLoader().getResource("templates/common-functions-complex.xlsx").toURI());
+    Path out = Paths.get("target/common-functions-complex-path-result.xlsx");
+
+    // render twice with the same cached template
+    JxlsUtils.renderTemplate(template, generateData(), out);
+    JxlsUtils.renderTemplate(template, generateData(), out);
+
+    // verify
+    assertThat(TemplateRegistry.getSingleton().get(template).isXlsx(), is(true));
+    try (InputStream in = Files.newInputStream(out); Workbook workbook = WorkbookFactory.create(in)) {
+      assertThat(workbook.getNumberOfSheets() > 0, is(true));
+    }
+  }
+
+  @Test
+  public void renderChannelToChannel() throws Exception {
+    InputStream template = getClass().getClassLoader().getResourceAsStream("templates/common-functions-complex.xls");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ReadableByteChannel in = Channels.newChannel(template)) {
+      WritableByteChannel channel = Channels.newChannel(out);
+      JxlsUtils.renderTemplate(in, generateData(), channel, null);
+
+      // the channels are kept open
+      assertThat(in.isOpen(), is(true));
+      assertThat(channel.isOpen(), is(true));
+    }
+
+    // verify
+    try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(out.toByteArray()))) {
+      assertThat(workbook.getNumberOfSheets() > 0, is(true));
+    }
+  }
+
+  @Test
+  public void renderPathToChannel() throws Exception {
+    Path template = Paths.get(getClass().getClassLoader().getResource("templates/common-functions-complex.xlsx").toURI());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WritableByteChannel channel = Channels.newChannel(out);
+    JxlsUtils.renderTemplate(template, generateData(), channel, null);
+    assertThat(channel.isOpen(), is(true));
+
+    // verify
+    try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(out.toByteArray()))) {
+      assertThat(workbook.getNumberOfSheets() > 0, is(true));
+    }
+  }
+
+  @Test
+  public void renderChannelToPath() throws Exception {
+    InputStream template = getClass().getClassLoader().getResourceAsStream("templates/common-functions-complex.xlsx");
+    Path out = Paths.get("target/common-functions-complex-channel-result.xlsx");
+    try (ReadableByteChannel in = Channels.newChannel(template)) {
+      JxlsUtils.renderTemplate(in, generateData(), out, null);
+      assertThat(in.isOpen(), is(true));
+    }
+
+    // verify
+    try (InputStream in = Files.newInputStream(out); Workbook workbook = WorkbookFactory.create(in)) {
+      assertThat(workbook.getNumberOfSheets() > 0, is(true));
+    }
+  }
+
+  @Test
+  public void fileChangedAfterRead() throws Exception {
+    Path file = Paths.get("target/common-functions-complex-changed.xlsx");
+    Files.copy(getClass().getClassLoader().getResourceAsStream("templates/common-functions-complex.xlsx"), file,
+      StandardCopyOption.REPLACE_EXISTING);
+    CompiledTemplate template = CompiledTemplate.of(file);
+    Files.write(file, new byte[]{1, 2, 3});
+
+    // the instance keeps the content it has read
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JxlsUtils.renderTemplate(template, generateData(), out);
+    assertThat(template.isXlsx(), is(true));
+    assertThat(out.size() > 0, is(true));
+  }
+
   // generate test data
   private Map<String, Object> generateData() {
     Map<String, Object> data = new HashMap<>();
@@ -0,0 +1,121 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+import org.jxls.common.AreaRef;
+import org.jxls.common.CellRef;
+import org.jxls.common.Context;
+import org.jxls.transform.poi.PoiTransformer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The {@link EachMergeCommand.MergeCellListener} test.
+ *
+ * @author RJ
+ */
+public class MergeCellListenerTest {
+  // the per-cell path must not allocate: no streams, no lambdas, no boxing and no varargs for logging
+  @Test
+  public void afterTransformCellAllocatesNothing() throws Exception {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      workbook.createSheet("Sheet1");
+      PoiTransformer transformer = PoiTransformer.createTransformer(workbook);
+      AreaRef parent = new AreaRef(new CellRef("Sheet1", 0, 0), new CellRef("Sheet1", 0, 3));
+      AreaRef child = new AreaRef(new CellRef("Sheet1", 0, 2), new CellRef("Sheet1", 0, 3));
+      EachMergeCommand.MergeCellListener listener = new EachMergeCommand.MergeCellListener(transformer, parent,
+        Collections.singletonList(child), false);
+
+      // one sub row for each parent row, so no merge record is added
+      CellRef src = new CellRef("Sheet1", 0, 0);
+      CellRef[] parentCells = new CellRef[100];
+      CellRef[] childCells = new CellRef[100];
+      CellRef[] otherCells = new CellRef[100];
+      for (int i = 0; i < 100; i++) {
+        parentCells[i] = new CellRef("Sheet1", i, 0);
+        childCells[i] = new CellRef("Sheet1", i, 2);
+        otherCells[i] = new CellRef("Sheet1", i, 3);
+      }
+      Context context = new Context();
+
+      // warm up to let the JIT compile the path
+      transform(listener, src, parentCells, childCells, otherCells, context, 20000);
+
+      long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      transform(listener, src, parentCells, childCells, otherCells, context, 10000);
+      long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+      // 3 million calls, leave some bytes for the measurement itself
+      assertThat("allocated " + allocated + " bytes", allocated < 1024, is(true));
+    }
+  }
+
+  @Test
+  public void mergeAtTheEnd() throws Exception {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      EachMergeCommand.MergeCellListener listener = createListener(workbook, false);
+      transformGroup(listener, 0, 3);
+      transformGroup(listener, 3, 2);
+      assertThat(workbook.getSheet("Sheet1").getNumMergedRegions(), is(0));
+
+      listener.finish();
+      assertThat(workbook.getSheet("Sheet1").getNumMergedRegions(), is(4)); // 2 groups x 2 columns
+    }
+  }
+
+  @Test
+  public void mergeIncrementally() throws Exception {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      EachMergeCommand.MergeCellListener listener = createListener(workbook, true);
+      transformGroup(listener, 0, 3);
+      assertThat(workbook.getSheet("Sheet1").getNumMergedRegions(), is(2));
+      transformGroup(listener, 3, 2);
+      assertThat(workbook.getSheet("Sheet1").getNumMergedRegions(), is(4));
+
+      listener.finish();
+      assertThat(workbook.getSheet("Sheet1").getNumMergedRegions(), is(4));
+    }
+  }
+
+  // parent area A1:D1, sub area C1:D1, so A and B are merged
+  private static EachMergeCommand.MergeCellListener createListener(XSSFWorkbook workbook, boolean incremental) {
+    workbook.createSheet("Sheet1");
+    PoiTransformer transformer = PoiTransformer.createTransformer(workbook);
+    AreaRef parent = new AreaRef(new CellRef("Sheet1", 0, 0), new CellRef("Sheet1", 0, 3));
+    AreaRef child = new AreaRef(new CellRef("Sheet1", 0, 2), new CellRef("Sheet1", 0, 3));
+    return new EachMergeCommand.MergeCellListener(transformer, parent, Collections.singletonList(child), incremental);
+  }
+
+  // the sub rows are transformed before their parent row
+  private static void transformGroup(EachMergeCommand.MergeCellListener listener, int parentRow, int subCount) {
+    CellRef src = new CellRef("Sheet1", 0, 0);
+    Context context = new Context();
+    for (int i = 0; i < subCount; i++) {
+      listener.afterTransformCell(new CellRef("Sheet1", 0, 2), new CellRef("Sheet1", parentRow + i, 2), context);
+      listener.afterTransformCell(new CellRef("Sheet1", 0, 3), new CellRef("Sheet1", parentRow + i, 3), context);
+    }
+    listener.afterTransformCell(src, new CellRef("Sheet1", parentRow, 0), context);
+    listener.afterTransformCell(new CellRef("Sheet1", 0, 1), new CellRef("Sheet1", parentRow, 1), context);
+  }
+
+  private static void transform(EachMergeCommand.MergeCellListener listener, CellRef src, CellRef[] parentCells,
+                                CellRef[] childCells, CellRef[] otherCells, Context context, int times) {
+    for (int t = 0; t < times; t++) {
+      for (int i = 0; i < parentCells.length; i++) {
+        listener.afterTransformCell(src, childCells[i], context);
+        listener.afterTransformCell(src, otherCells[i], context);
+        listener.afterTransformCell(src, parentCells[i], context);
+      }
+    }
+  }
+}
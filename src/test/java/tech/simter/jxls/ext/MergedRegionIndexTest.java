@@ -0,0 +1,99 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * The merged region index test.
+ *
+ * @author RJ
+ */
+public class MergedRegionIndexTest {
+  @Test
+  public void addAll() throws Exception {
+    try (Workbook workbook = new HSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet();
+      MergedRegionIndex.addAll(sheet, createRegions(10));
+      assertThat(sheet.getNumMergedRegions(), is(10));
+    }
+  }
+
+  @Test
+  public void rejectOverlap() throws Exception {
+    try (Workbook workbook = new HSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet();
+      MergedRegionIndex.addAll(sheet, Collections.singletonList(new CellRangeAddress(0, 5, 0, 0)));
+      try {
+        MergedRegionIndex.addAll(sheet, Collections.singletonList(new CellRangeAddress(5, 6, 0, 1)));
+        fail("should reject the overlap region");
+      } catch (IllegalStateException e) {
+        assertThat(sheet.getNumMergedRegions(), is(1));
+      }
+    }
+  }
+
+  @Test
+  public void rejectOverlapWithRegionAddedByOthers() throws Exception {
+    try (Workbook workbook = new HSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet();
+      MergedRegionIndex.addAll(sheet, Collections.singletonList(new CellRangeAddress(0, 1, 0, 0)));
+      sheet.addMergedRegion(new CellRangeAddress(10, 20, 2, 3));
+      try {
+        MergedRegionIndex.addAll(sheet, Collections.singletonList(new CellRangeAddress(15, 16, 3, 3)));
+        fail("should reject the overlap region");
+      } catch (IllegalStateException e) {
+        assertThat(sheet.getNumMergedRegions(), is(2));
+      }
+    }
+  }
+
+  // 10k and 100k parent rows with one merged column each, 10 times the time if linear, 100 times if quadratic
+  @Test
+  public void linearScaling() throws Exception {
+    addRegions(10000); // warm up
+    long t10k = fastest(10000);
+    long t100k = fastest(100000);
+    assertThat("10k=" + t10k + "ns, 100k=" + t100k + "ns", t100k < Math.max(t10k, 1000000L) * 30, is(true));
+  }
+
+  // the fastest of three runs, to keep a GC pause out of the ratio
+  private static long fastest(int count) throws Exception {
+    long time = Long.MAX_VALUE;
+    for (int i = 0; i < 3; i++) time = Math.min(time, addRegions(count));
+    return time;
+  }
+
+  private static long addRegions(int count) throws Exception {
+    List<CellRangeAddress> regions = createRegions(count);
+    try (Workbook workbook = new HSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet();
+      long start = System.nanoTime();
+      MergedRegionIndex.addAll(sheet, regions);
+      long time = System.nanoTime() - start;
+      assertThat(sheet.getNumMergedRegions(), is(count));
+      return time;
+    }
+  }
+
+  // two rows for each region, spread to all the 256 columns to stay in the xls row limit
+  private static List<CellRangeAddress> createRegions(int count) {
+    List<CellRangeAddress> regions = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int row = (i / 256) * 2;
+      int col = i % 256;
+      regions.add(new CellRangeAddress(row, row + 1, col, col));
+    }
+    return regions;
+  }
+}
@@ -0,0 +1,112 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
+
+/**
+ * The three levels nested each-merge test: order &gt; line &gt; lot.
+ *
+ * @author RJ
+ */
+public class NestedEachMergeTest {
+  @Test
+  public void mergeThreeLevels() throws Exception {
+    Set<String> regions = render(generateData(), null, "target/nested-each-merge-result.xlsx");
+    assertThat(regions, is(expectedRegions()));
+  }
+
+  @Test
+  public void mergeThreeLevelsStreaming() throws Exception {
+    Set<String> regions = render(generateData(), RenderOptions.streaming(),
+      "target/nested-each-merge-stream-result.xlsx");
+    assertThat(regions, is(expectedRegions()));
+  }
+
+  // the order spans the lots of all its lines, the line spans its own lots
+  private static Set<String> expectedRegions() {
+    return new HashSet<>(Arrays.asList("A2:A6", "B2:B4", "C2:C4", "B5:B6", "C5:C6"));
+  }
+
+  private static Set<String> render(Map<String, Object> data, RenderOptions options, String out) throws Exception {
+    byte[] template = createTemplate();
+    File file = new File(out);
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, output, options);
+    }
+
+    Set<String> regions = new HashSet<>();
+    try (Workbook workbook = WorkbookFactory.create(file)) {
+      Sheet sheet = workbook.getSheetAt(0);
+      assertThat(sheet.getRow(6).getCell(3).getStringCellValue(), is("t6"));
+      for (CellRangeAddress region : sheet.getMergedRegions()) regions.add(region.formatAsString());
+    }
+    return regions;
+  }
+
+  // order o1 has line l1 with 3 lots and line l2 with 2 lots, order o2 has line l3 with 1 lot
+  private static Map<String, Object> generateData() {
+    List<Map<String, Object>> orders = new ArrayList<>();
+    orders.add(createNode("o1", Arrays.asList(
+      createNode("l1", createLots(1, 3)),
+      createNode("l2", createLots(4, 2)))));
+    orders.add(createNode("o2", Collections.singletonList(createNode("l3", createLots(6, 1)))));
+
+    Map<String, Object> data = new HashMap<>();
+    data.put("orders", orders);
+    return data;
+  }
+
+  private static Map<String, Object> createNode(String name, List<Map<String, Object>> subs) {
+    Map<String, Object> node = new HashMap<>();
+    node.put("name", name);
+    node.put("qty", subs.size());
+    node.put("subs", subs);
+    return node;
+  }
+
+  private static List<Map<String, Object>> createLots(int from, int count) {
+    List<Map<String, Object>> lots = new ArrayList<>();
+    for (int i = from; i < from + count; i++) {
+      Map<String, Object> lot = new HashMap<>();
+      lot.put("name", "t" + i);
+      lot.put("qty", i);
+      lots.add(lot);
+    }
+    return lots;
+  }
+
+  // order A2:E2 > line B2:E2 > lot D2:E2
+  private static byte[] createTemplate() throws IOException {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      Row row = sheet.createRow(1);
+      String[] titles = {"Order", "Line", "Lots", "Lot", "Qty"};
+      String[] fields = {"o.name", "l.name", "l.qty", "t.name", "t.qty"};
+      for (int i = 0; i < titles.length; i++) {
+        header.createCell(i).setCellValue(titles[i]);
+        row.createCell(i).setCellValue("${" + fields[i] + "}");
+      }
+      addComment(header.getCell(0), "jx:area(lastCell=\"E2\")");
+      addComment(row.getCell(0), "jx:each-merge(items=\"orders\" var=\"o\" lastCell=\"E2\")");
+      addComment(row.getCell(1), "jx:each-merge(items=\"o.subs\" var=\"l\" lastCell=\"E2\")");
+      addComment(row.getCell(3), "jx:each(items=\"l.subs\" var=\"t\" lastCell=\"E2\")");
+
+      return toBytes(workbook);
+    }
+  }
+}
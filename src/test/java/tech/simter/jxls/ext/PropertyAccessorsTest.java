@@ -0,0 +1,121 @@
+package tech.simter.jxls.ext;
+
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The property accessors test.
+ *
+ * @author RJ
+ */
+public class PropertyAccessorsTest {
+  @Test
+  public void readBean() {
+    PublicRow row = new PublicRow(1, "row1", true);
+    assertThat(PropertyAccessors.get(row, "sn"), is(1));
+    assertThat(PropertyAccessors.get(row, "name"), is("row1"));
+    assertThat(PropertyAccessors.get(row, "leaf"), is(true));
+    assertThat(PropertyAccessors.find(PublicRow.class, "sn") == PropertyAccessors.find(PublicRow.class, "sn"), is(true));
+    assertThat(PropertyAccessors.find(PublicRow.class, "missing"), nullValue());
+  }
+
+  @Test
+  public void readNonPublicBean() {
+    assertThat(PropertyAccessors.get(new HiddenRow("hidden"), "name"), is("hidden"));
+  }
+
+  @Test
+  public void readBeanOfChildClassLoader() throws Exception {
+    Class<?> type = isolate(PublicRow.class);
+    assertThat(type == PublicRow.class, is(false));
+    Constructor<?> constructor = type.getDeclaredConstructor(int.class, String.class, boolean.class);
+    constructor.setAccessible(true);
+    Object row = constructor.newInstance(1, "row1", true);
+    assertThat(PropertyAccessors.get(row, "sn"), is(1));
+    assertThat(PropertyAccessors.get(row, "name"), is("row1"));
+  }
+
+  @Test
+  public void readMap() {
+    assertThat(PropertyAccessors.get(Collections.singletonMap("name", "row1"), "name"), is("row1"));
+    assertThat(PropertyAccessors.get(Collections.emptyMap(), "name"), nullValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void readMissing() {
+    PropertyAccessors.get(new PublicRow(1, "row1", true), "missing");
+  }
+
+  @Test
+  public void evaluate() {
+    CachingExpressionEvaluator evaluator = new CachingExpressionEvaluator(16);
+    Map<String, Object> context = new HashMap<>();
+    Map<String, Object> map = new HashMap<>();
+    map.put("class", "by key"); // a map key first, not the getClass() getter
+    for (int i = 1; i <= 3; i++) {
+      context.put("r", new PublicRow(i, "row" + i, false));
+      assertThat(evaluator.evaluate("r.name", context), is("row" + i));
+      context.put("r", new HiddenRow("hidden" + i));
+      assertThat(evaluator.evaluate("r.name", context), is("hidden" + i));
+      context.put("r", map);
+      assertThat(evaluator.evaluate("r.class", context), is("by key"));
+    }
+  }
+
+  // define the class again in a class loader that the accessors could not see
+  private static Class<?> isolate(Class<?> type) throws Exception {
+    byte[] bytes = CompiledTemplate.readAll(type.getClassLoader()
+      .getResourceAsStream(type.getName().replace('.', '/') + ".class"));
+    return new ClassLoader(null) {
+      @Override
+      protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (!name.equals(type.getName())) throw new ClassNotFoundException(name);
+        return defineClass(name, bytes, 0, bytes.length);
+      }
+    }.loadClass(type.getName());
+  }
+
+  public static class PublicRow {
+    private final int sn;
+    private final String name;
+    private final boolean leaf;
+
+    PublicRow(int sn, String name, boolean leaf) {
+      this.sn = sn;
+      this.name = name;
+      this.leaf = leaf;
+    }
+
+    public int getSn() {
+      return sn;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isLeaf() {
+      return leaf;
+    }
+  }
+
+  static class HiddenRow {
+    private final String name;
+
+    HiddenRow(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,378 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.Test;
+
+import javax.ws.rs.core.*;
+import javax.ws.rs.ext.RuntimeDelegate;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The rendered output cache test.
+ *
+ * @author RJ
+ */
+public class RenderCacheTest {
+  private final CompiledTemplate template = CompiledTemplate.of(
+    getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx"));
+
+  @Test
+  public void etag() {
+    RenderCache cache = new RenderCache(1024);
+    assertThat(cache.etag(template, "a"), is(cache.etag(template, "a")));
+    assertThat(cache.etag(template, "a"), not(cache.etag(template, "b")));
+
+    // a changed template under the same key
+    CompiledTemplate changed = CompiledTemplate.of(template.getKey(),
+      getClass().getClassLoader().getResourceAsStream("templates/each-merge2.xlsx"));
+    assertThat(cache.etag(changed, "a"), not(cache.etag(template, "a")));
+  }
+
+  @Test
+  public void heapHit() {
+    RenderCache cache = new RenderCache(10 * 1024 * 1024);
+    byte[] first = render(cache, "a", 3);
+    byte[] second = render(cache, "a", 5); // the data is not used on a hit
+    assertThat(second, is(first));
+    assertThat(cache.getHeapBytes(), is((long) first.length));
+    assertThat(cache.getStats().getHitCount(), is(1L));
+    assertThat(cache.getStats().getMissCount(), is(1L));
+
+    render(cache, "b", 5);
+    assertThat(cache.getStats().getMissCount(), is(2L));
+    assertThat(cache.getStats().getSize(), is(2));
+
+    assertThat(cache.evict(cache.etag(template, "a")), is(true));
+    assertThat(cache.getStats().getSize(), is(1));
+  }
+
+  @Test
+  public void spillToDisk() throws Exception {
+    Path directory = Paths.get("target/render-cache");
+    RenderCache cache = new RenderCache(0, directory, 10 * 1024 * 1024);
+    byte[] first = render(cache, "a", 3);
+    assertThat(cache.getHeapBytes(), is(0L));
+    assertThat(cache.getDiskBytes(), is((long) first.length));
+    Path file = directory.resolve(cache.etag(template, "a") + ".cache");
+    assertThat(Files.exists(file), is(true));
+
+    assertThat(render(cache, "a", 5), is(first));
+    assertThat(cache.getStats().getHitCount(), is(1L));
+
+    cache.clear();
+    assertThat(Files.exists(file), is(false));
+    assertThat(cache.getStats().getSize(), is(0));
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() throws Exception {
+    Path directory = Paths.get("target/render-cache-lru");
+    int size = render(new RenderCache(0), "x", 3).length + 1024; // room for one output only
+
+    // one output on the heap and one on the disk
+    RenderCache cache = new RenderCache(size, directory, size);
+    render(cache, "a", 3);
+    render(cache, "b", 3); // a is moved to the disk
+    assertThat(cache.getHeapBytes() > 0, is(true));
+    assertThat(cache.getDiskBytes() > 0, is(true));
+    assertThat(Files.exists(directory.resolve(cache.etag(template, "a") + ".cache")), is(true));
+
+    render(cache, "c", 3); // b is moved to the disk, a is deleted
+    assertThat(cache.getStats().getSize(), is(2));
+    assertThat(cache.getStats().getEvictionCount(), is(1L));
+    assertThat(Files.exists(directory.resolve(cache.etag(template, "a") + ".cache")), is(false));
+    assertThat(Files.exists(directory.resolve(cache.etag(template, "b") + ".cache")), is(true));
+    cache.clear();
+  }
+
+  @Test
+  public void notCacheLargerThanBoth() throws Exception {
+    Path directory = Paths.get("target/render-cache-large");
+    RenderCache cache = new RenderCache(1024, directory, 2048);
+    byte[] bytes = render(cache, "a", 3);
+    try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(bytes))) {
+      assertThat(workbook.getNumberOfSheets() > 0, is(true));
+    }
+    assertThat(cache.getStats().getSize(), is(0));
+    assertThat(cache.getStats().getEvictionCount(), is(1L));
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count(), is(0L));
+    }
+  }
+
+  @Test
+  public void cleanDirectory() throws Exception {
+    Path directory = Paths.get("target/render-cache-clean");
+    Files.createDirectories(directory);
+    Path left = Files.write(directory.resolve("left.cache"), new byte[]{1});
+    new RenderCache(0, directory, 1024);
+    assertThat(Files.exists(left), is(false));
+  }
+
+  @Test
+  public void response() throws Exception {
+    RuntimeDelegate.setInstance(new StubRuntimeDelegate());
+    try {
+      RenderCache cache = new RenderCache(10 * 1024 * 1024);
+      String etag = cache.etag(template, "a");
+
+      // a miss renders on write
+      StubResponseBuilder ok = (StubResponseBuilder) JxlsUtils.renderTemplate2Response(template, generateData(3),
+        "a.xlsx", cache, "a", new StubRequest(null));
+      assertThat(ok.status, is(200));
+      assertThat(ok.tag.getValue(), is(etag));
+      assertThat(cache.getStats().getMissCount(), is(0L));
+      ((StreamingOutput) ok.entity).write(new ByteArrayOutputStream());
+      assertThat(cache.getStats().getMissCount(), is(1L));
+
+      // a matched If-None-Match is 304 without render
+      StubResponseBuilder notModified = (StubResponseBuilder) JxlsUtils.renderTemplate2Response(template,
+        generateData(3), "a.xlsx", cache, "a", new StubRequest(etag));
+      assertThat(notModified.status, is(304));
+      assertThat(notModified.entity, nullValue());
+      assertThat(cache.getStats().getHitCount(), is(0L));
+    } finally {
+      RuntimeDelegate.setInstance(null);
+    }
+  }
+
+  // the plain response records the metrics of the options too
+  @Test
+  public void responseWithOptions() throws Exception {
+    RuntimeDelegate.setInstance(new StubRuntimeDelegate());
+    try {
+      List<RenderStats> stats = new ArrayList<>();
+      StubResponseBuilder ok = (StubResponseBuilder) JxlsUtils.renderTemplate2Response(template, generateData(3),
+        "a.xlsx", new RenderOptions().setMetrics(stats::add));
+      assertThat(stats.size(), is(0));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ((StreamingOutput) ok.entity).write(out);
+      assertThat(stats.size(), is(1));
+      assertThat(stats.get(0).getBytesWritten(), is((long) out.size()));
+    } finally {
+      RuntimeDelegate.setInstance(null);
+    }
+  }
+
+  private byte[] render(RenderCache cache, String fingerprint, int rowCount) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cache.render(template, generateData(rowCount), fingerprint, null, out);
+    return out.toByteArray();
+  }
+
+  private static Map<String, Object> generateData(int rowCount) {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 1; i <= rowCount; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      row.put("subs", Collections.singletonList(Collections.singletonMap("name", "row" + i + "sub1")));
+      rows.add(row);
+    }
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS render cache test");
+    data.put("ts", "2017-12-12 10:20:30");
+    data.put("rows", rows);
+    return data;
+  }
+
+  // evaluates the If-None-Match of the request
+  private static final class StubRequest implements Request {
+    private final String ifNoneMatch;
+
+    StubRequest(String ifNoneMatch) {
+      this.ifNoneMatch = ifNoneMatch;
+    }
+
+    public String getMethod() {
+      return "GET";
+    }
+
+    public Variant selectVariant(List<Variant> variants) {
+      return null;
+    }
+
+    public Response.ResponseBuilder evaluatePreconditions(EntityTag eTag) {
+      return eTag.getValue().equals(ifNoneMatch) ? Response.notModified(eTag) : null;
+    }
+
+    public Response.ResponseBuilder evaluatePreconditions(Date lastModified) {
+      return null;
+    }
+
+    public Response.ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag) {
+      return evaluatePreconditions(eTag);
+    }
+
+    public Response.ResponseBuilder evaluatePreconditions() {
+      return null;
+    }
+  }
+
+  // no JAX-RS runtime in the tests, only the response builders are needed
+  private static final class StubRuntimeDelegate extends RuntimeDelegate {
+    public UriBuilder createUriBuilder() {
+      throw new UnsupportedOperationException();
+    }
+
+    public Response.ResponseBuilder createResponseBuilder() {
+      return new StubResponseBuilder();
+    }
+
+    public Variant.VariantListBuilder createVariantListBuilder() {
+      throw new UnsupportedOperationException();
+    }
+
+    public <T> T createEndpoint(Application application, Class<T> endpointType) {
+      throw new UnsupportedOperationException();
+    }
+
+    public <T> HeaderDelegate<T> createHeaderDelegate(Class<T> type) {
+      return null;
+    }
+
+    public Link.Builder createLinkBuilder() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // records the status, the entity and the tag
+  private static final class StubResponseBuilder extends Response.ResponseBuilder {
+    int status;
+    Object entity;
+    EntityTag tag;
+
+    public Response build() {
+      throw new UnsupportedOperationException();
+    }
+
+    public Response.ResponseBuilder clone() {
+      throw new UnsupportedOperationException();
+    }
+
+    public Response.ResponseBuilder status(int status) {
+      this.status = status;
+      return this;
+    }
+
+    public Response.ResponseBuilder status(int status, String reasonPhrase) {
+      return status(status);
+    }
+
+    public Response.ResponseBuilder entity(Object entity) {
+      this.entity = entity;
+      return this;
+    }
+
+    public Response.ResponseBuilder entity(Object entity, Annotation[] annotations) {
+      return entity(entity);
+    }
+
+    public Response.ResponseBuilder allow(String... methods) {
+      return this;
+    }
+
+    public Response.ResponseBuilder allow(Set<String> methods) {
+      return this;
+    }
+
+    public Response.ResponseBuilder cacheControl(CacheControl cacheControl) {
+      return this;
+    }
+
+    public Response.ResponseBuilder encoding(String encoding) {
+      return this;
+    }
+
+    public Response.ResponseBuilder header(String name, Object value) {
+      return this;
+    }
+
+    public Response.ResponseBuilder replaceAll(MultivaluedMap<String, Object> headers) {
+      return this;
+    }
+
+    public Response.ResponseBuilder language(String language) {
+      return this;
+    }
+
+    public Response.ResponseBuilder language(Locale language) {
+      return this;
+    }
+
+    public Response.ResponseBuilder type(MediaType type) {
+      return this;
+    }
+
+    public Response.ResponseBuilder type(String type) {
+      return this;
+    }
+
+    public Response.ResponseBuilder variant(Variant variant) {
+      return this;
+    }
+
+    public Response.ResponseBuilder contentLocation(URI location) {
+      return this;
+    }
+
+    public Response.ResponseBuilder cookie(NewCookie... cookies) {
+      return this;
+    }
+
+    public Response.ResponseBuilder expires(Date expires) {
+      return this;
+    }
+
+    public Response.ResponseBuilder lastModified(Date lastModified) {
+      return this;
+    }
+
+    public Response.ResponseBuilder location(URI location) {
+      return this;
+    }
+
+    public Response.ResponseBuilder tag(EntityTag tag) {
+      this.tag = tag;
+      return this;
+    }
+
+    public Response.ResponseBuilder tag(String tag) {
+      return tag(new EntityTag(tag));
+    }
+
+    public Response.ResponseBuilder variants(Variant... variants) {
+      return this;
+    }
+
+    public Response.ResponseBuilder variants(List<Variant> variants) {
+      return this;
+    }
+
+    public Response.ResponseBuilder links(Link... links) {
+      return this;
+    }
+
+    public Response.ResponseBuilder link(URI uri, String rel) {
+      return this;
+    }
+
+    public Response.ResponseBuilder link(String uri, String rel) {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * The render executor test.
+ *
+ * @author RJ
+ */
+public class RenderExecutorTest {
+  private final CompiledTemplate template = CompiledTemplate.of(
+    getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx"));
+
+  @Test
+  public void render() throws Exception {
+    try (RenderExecutor executor = new RenderExecutor(2, 4)) {
+      Path file = executor.render(template, generateData(null), null).get(30, TimeUnit.SECONDS);
+      try (InputStream in = Files.newInputStream(file); Workbook workbook = WorkbookFactory.create(in)) {
+        assertThat(workbook.getSheetAt(0).getNumMergedRegions() > 0, is(true));
+      } finally {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  public void rejectWhenFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try (RenderExecutor executor = new RenderExecutor(1, 1)) {
+      CompletableFuture<Path> running = executor.render(template, generateData(release), null);
+      CompletableFuture<Path> queued = executor.render(template, generateData(null), null);
+      CompletableFuture<Path> rejected = executor.render(template, generateData(null), null);
+
+      try {
+        rejected.get();
+        fail("The render should be rejected");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+      }
+
+      release.countDown();
+      Files.delete(running.get(30, TimeUnit.SECONDS));
+      Files.delete(queued.get(30, TimeUnit.SECONDS));
+    }
+  }
+
+  // the rows of the data wait for the release latch before they are iterated
+  private static Map<String, Object> generateData(CountDownLatch release) {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "render executor test");
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      Map<String, Object> sub = new HashMap<>();
+      sub.put("sn", i + "-1");
+      sub.put("name", "row" + i + "sub1");
+      row.put("subs", Arrays.asList(sub, new HashMap<>(sub)));
+      rows.add(row);
+    }
+    if (release == null) data.put("rows", rows);
+    else data.put("rows", (Iterable<Map<String, Object>>) () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return rows.iterator();
+    });
+    return data;
+  }
+}
@@ -0,0 +1,89 @@
+package tech.simter.jxls.ext;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The render metrics test.
+ *
+ * @author RJ
+ */
+public class RenderMetricsTest {
+  @Test
+  public void recordRender() {
+    for (boolean streaming : new boolean[]{false, true}) {
+      List<RenderStats> list = new ArrayList<>();
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      render(output, new RenderOptions().setStreaming(streaming).setMetrics(list::add));
+
+      assertThat(list.size(), is(1));
+      RenderStats stats = list.get(0);
+      assertThat(stats.isStreaming(), is(streaming));
+      for (RenderStats.Phase phase : RenderStats.Phase.values())
+        assertThat(phase + "=" + stats.getNanos(phase), stats.getNanos(phase) > 0, is(true));
+      assertThat(stats.getRows() >= 6, is(true));    // 3 rows with 6 sub rows
+      assertThat(stats.getCells() > 0, is(true));
+      assertThat(stats.getMergedRegions() > 0, is(true));
+      assertThat(stats.getBytesWritten(), is((long) output.size()));
+      assertThat(stats.getPeakRowsInMemory() <= stats.getRows(), is(true));
+    }
+  }
+
+  @Test
+  public void aggregate() {
+    HistogramRenderMetrics metrics = new HistogramRenderMetrics();
+    RenderOptions options = new RenderOptions().setMetrics(metrics);
+    for (int i = 0; i < 3; i++) render(new ByteArrayOutputStream(), options);
+
+    assertThat(metrics.getRenderCount(), is(3L));
+    assertThat(metrics.getNanos(RenderStats.Phase.WRITE).getCount(), is(3L));
+    assertThat(metrics.getCells().getMin(), is(metrics.getCells().getMax()));
+    assertThat(metrics.getBytesWritten().getSum() > 0, is(true));
+
+    metrics.reset();
+    assertThat(metrics.getRenderCount(), is(0L));
+  }
+
+  @Test
+  public void histogram() {
+    HistogramRenderMetrics.Histogram histogram = new HistogramRenderMetrics.Histogram();
+    assertThat(histogram.getPercentile(50), is(0L));
+    for (long i = 1; i <= 100; i++) histogram.record(i);
+
+    assertThat(histogram.getCount(), is(100L));
+    assertThat(histogram.getSum(), is(5050L));
+    assertThat(histogram.getMin(), is(1L));
+    assertThat(histogram.getMax(), is(100L));
+    assertThat(histogram.getPercentile(50), is(63L));  // the bucket [32, 63]
+    assertThat(histogram.getPercentile(99), is(100L)); // capped by the max
+  }
+
+  private void render(ByteArrayOutputStream output, RenderOptions options) {
+    InputStream template = getClass().getClassLoader().getResourceAsStream("templates/each-merge.xlsx");
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "render metrics test");
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      List<Map<String, Object>> subs = new ArrayList<>();
+      for (int j = 1; j <= 2; j++) {
+        Map<String, Object> sub = new HashMap<>();
+        sub.put("sn", i + "-" + j);
+        sub.put("name", "row" + i + "sub" + j);
+        subs.add(sub);
+      }
+      row.put("subs", subs);
+      rows.add(row);
+    }
+    data.put("rows", rows);
+    JxlsUtils.renderTemplate(template, data, output, options);
+  }
+}
@@ -0,0 +1,173 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
+
+/**
+ * The sheet spill-over test.
+ *
+ * @author RJ
+ */
+public class SpillOverTest {
+  @Test
+  public void spillEach() throws Exception {
+    spillEach(new RenderOptions(), "target/spill-over-result.xlsx");
+  }
+
+  @Test
+  public void spillEachStreaming() throws Exception {
+    spillEach(RenderOptions.streaming(), "target/spill-over-stream-result.xlsx");
+  }
+
+  // 4 items a sheet, the header row is repeated
+  private static void spillEach(RenderOptions options, String out) throws Exception {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 10; i++) rows.add(createRow("n" + i, 0));
+    byte[] template = createTemplate(false);
+    try (Workbook workbook = render(template, rows, options.setSpillRowThreshold(5), out)) {
+      assertThat(workbook.getNumberOfSheets(), is(3));
+      assertThat(workbook.getSheetName(1), is("Sheet1 (2)"));
+      assertThat(workbook.getSheetName(2), is("Sheet1 (3)"));
+      assertThat(workbook.getSheetAt(0).getRow(4).getCell(0).getStringCellValue(), is("n3"));
+      assertThat(workbook.getSheetAt(1).getRow(0).getCell(0).getStringCellValue(), is("Name"));
+      assertThat(workbook.getSheetAt(1).getRow(1).getCell(0).getStringCellValue(), is("n4"));
+      assertThat(workbook.getSheetAt(2).getRow(2).getCell(0).getStringCellValue(), is("n9"));
+      assertThat(workbook.getSheetAt(2).getLastRowNum(), is(2));
+    }
+  }
+
+  // 3 sub rows an item, an item is never split, so 2 items a sheet
+  @Test
+  public void spillEachMergeStreaming() throws Exception {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 5; i++) rows.add(createRow("n" + i, 3));
+    byte[] template = createTemplate(true);
+    RenderOptions options = RenderOptions.streaming().setSpillRowThreshold(5);
+    try (Workbook workbook = render(template, rows, options, "target/spill-over-merge-result.xlsx")) {
+      assertThat(workbook.getNumberOfSheets(), is(3));
+      Set<String> twoItems = new HashSet<>(Arrays.asList("A2:A4", "A5:A7"));
+      assertThat(regions(workbook.getSheetAt(0)), is(twoItems));
+      assertThat(regions(workbook.getSheetAt(1)), is(twoItems));
+      assertThat(regions(workbook.getSheetAt(2)), is(Collections.singleton("A2:A4")));
+      assertThat(workbook.getSheetAt(1).getRow(1).getCell(0).getStringCellValue(), is("n2"));
+    }
+  }
+
+  // a footer below the command would be overwritten by the items
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectFooter() throws Exception {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 10; i++) rows.add(createRow("n" + i, 0));
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      sheet.createRow(0).createCell(0).setCellValue("Name");
+      sheet.createRow(1).createCell(0).setCellValue("${r.name}");
+      sheet.createRow(2).createCell(0).setCellValue("Total");
+      addComment(sheet.getRow(0).getCell(0), "jx:area(lastCell=\"A3\")");
+      addComment(sheet.getRow(1).getCell(0), "jx:each(items=\"rows\" var=\"r\" lastCell=\"A2\")");
+      render(toBytes(workbook), rows, new RenderOptions().setSpillRowThreshold(5), "target/spill-over-footer.xlsx");
+    }
+  }
+
+  // the header each expands to 2 rows, the items start below the rows it expanded to
+  @Test
+  public void expandedHeader() throws Exception {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 5; i++) rows.add(createRow("n" + i, 0));
+    byte[] template;
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      sheet.createRow(0).createCell(0).setCellValue("${n}");
+      sheet.createRow(1).createCell(0).setCellValue("Name");
+      sheet.createRow(2).createCell(0).setCellValue("${r.name}");
+      addComment(sheet.getRow(0).getCell(0), "jx:area(lastCell=\"A3\")\n"
+        + "jx:each(items=\"notes\" var=\"n\" lastCell=\"A1\")");
+      addComment(sheet.getRow(2).getCell(0), "jx:each(items=\"rows\" var=\"r\" lastCell=\"A3\")");
+      template = toBytes(workbook);
+    }
+
+    Map<String, Object> data = new HashMap<>();
+    data.put("rows", rows);
+    data.put("notes", Arrays.asList("note1", "note2"));
+    File file = new File("target/spill-over-header-result.xlsx");
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, output,
+        new RenderOptions().setSpillRowThreshold(6));
+    }
+    try (Workbook workbook = WorkbookFactory.create(file)) {
+      assertThat(workbook.getNumberOfSheets(), is(2));
+      Sheet first = workbook.getSheetAt(0);
+      assertThat(first.getRow(1).getCell(0).getStringCellValue(), is("note2"));
+      assertThat(first.getRow(2).getCell(0).getStringCellValue(), is("Name"));
+      assertThat(first.getRow(3).getCell(0).getStringCellValue(), is("n0"));
+      assertThat(first.getRow(5).getCell(0).getStringCellValue(), is("n2"));
+      Sheet second = workbook.getSheetAt(1);
+      assertThat(second.getRow(2).getCell(0).getStringCellValue(), is("Name"));
+      assertThat(second.getRow(3).getCell(0).getStringCellValue(), is("n3"));
+      assertThat(second.getRow(4).getCell(0).getStringCellValue(), is("n4"));
+    }
+  }
+
+  private static Set<String> regions(Sheet sheet) {
+    Set<String> regions = new HashSet<>();
+    for (CellRangeAddress region : sheet.getMergedRegions()) regions.add(region.formatAsString());
+    return regions;
+  }
+
+  private static Workbook render(byte[] template, List<Map<String, Object>> rows, RenderOptions options,
+                                 String out) throws Exception {
+    Map<String, Object> data = new HashMap<>();
+    data.put("rows", rows);
+    File file = new File(out);
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(new ByteArrayInputStream(template), data, output, options);
+    }
+    return WorkbookFactory.create(file);
+  }
+
+  private static Map<String, Object> createRow(String name, int subCount) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("name", name);
+    List<Map<String, Object>> subs = new ArrayList<>();
+    for (int i = 0; i < subCount; i++) subs.add(Collections.singletonMap("name", name + "-" + i));
+    row.put("subs", subs);
+    return row;
+  }
+
+  // a header row and an each row of the name, or an each-merge row of the name and the sub names
+  private static byte[] createTemplate(boolean merge) throws IOException {
+    try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      Row row = sheet.createRow(1);
+      header.createCell(0).setCellValue("Name");
+      row.createCell(0).setCellValue("${r.name}");
+      if (merge) {
+        header.createCell(1).setCellValue("Sub");
+        row.createCell(1).setCellValue("${s.name}");
+        addComment(header.getCell(0), "jx:area(lastCell=\"B2\")");
+        addComment(row.getCell(0), "jx:each-merge(items=\"rows\" var=\"r\" lastCell=\"B2\")");
+        addComment(row.getCell(1), "jx:each(items=\"r.subs\" var=\"s\" lastCell=\"B2\")");
+      } else {
+        addComment(header.getCell(0), "jx:area(lastCell=\"A2\")");
+        addComment(row.getCell(0), "jx:each(items=\"rows\" var=\"r\" lastCell=\"A2\")");
+      }
+
+      return toBytes(workbook);
+    }
+  }
+}
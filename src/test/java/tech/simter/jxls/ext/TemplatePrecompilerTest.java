@@ -0,0 +1,227 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static tech.simter.jxls.ext.TestTemplates.addComment;
+import static tech.simter.jxls.ext.TestTemplates.toBytes;
+
+/**
+ * The template precompiler test.
+ *
+ * @author RJ
+ */
+public class TemplatePrecompilerTest {
+  @Test
+  public void renderByPlan() throws Exception {
+    byte[] template = CompiledTemplate.readAll(getClass().getClassLoader()
+      .getResourceAsStream("templates/each-merge.xlsx"));
+    ByteArrayOutputStream plan = new ByteArrayOutputStream();
+    TemplatePrecompiler.precompile("each-merge.xlsx", template, plan);
+
+    CompiledTemplate precompiled = TemplatePrecompiler.load(new ByteArrayInputStream(plan.toByteArray()));
+    assertThat(precompiled.getKey(), is("each-merge.xlsx"));
+    assertThat(precompiled.getPlan(), notNullValue());
+    assertThat(precompiled.getPlan().getExpressions().contains("rows"), is(true));
+
+    // the same result as building the areas from the comments
+    List<String> expected = render(new ByteArrayInputStream(template), generateData(),
+      "target/each-merge-result.xlsx");
+    List<String> actual = render(precompiled, generateData(), "target/each-merge-plan-result.xlsx");
+    assertThat(actual, is(expected));
+  }
+
+  // every bundled template renders the same by its plan as by its comments
+  @Test
+  public void sameAsComments() throws Exception {
+    String[] names = {"common-functions.xlsx", "common-functions-complex.xlsx", "common-functions-complex.xls",
+      "dynamic-column.xlsx", "each-merge.xlsx", "each-merge2.xlsx", "two-sub-list.xlsx", "two-sub-list-merge.xlsx"};
+    for (String name : names) {
+      CompiledTemplate template = CompiledTemplate.of(name, load(name));
+      assertThat(name, template.getPlan(), notNullValue());
+      List<String> expected = render(load(name), generateMixedData(), "target/comments-" + name);
+      List<String> actual = render(template, generateMixedData(), "target/plan-" + name);
+      assertThat(name, actual, is(expected));
+    }
+  }
+
+  @Test
+  public void singleQuotedAttributes() throws Exception {
+    byte[] template = createTemplate("jx:each(items='rows' var='row' lastCell='B2')");
+    RenderPlan plan = CompiledTemplate.of("single-quoted.xlsx", new ByteArrayInputStream(template)).getPlan();
+    assertThat(plan, notNullValue());
+    assertThat(plan.getExpressions().contains("rows"), is(true));
+
+    List<String> expected = render(new ByteArrayInputStream(template), generateData(),
+      "target/single-quoted-result.xlsx");
+    List<String> actual = render(CompiledTemplate.of("single-quoted.xlsx", new ByteArrayInputStream(template)),
+      generateData(), "target/single-quoted-plan-result.xlsx");
+    assertThat(actual, is(expected));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectUnquotedAttribute() throws Exception {
+    byte[] template = createTemplate("jx:each(items=rows var=\"row\" lastCell=\"B2\")");
+    try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(template))) {
+      RenderPlan.of(workbook);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectCorruptedPlan() throws Exception {
+    byte[] template = CompiledTemplate.readAll(getClass().getClassLoader()
+      .getResourceAsStream("templates/each-merge.xlsx"));
+    ByteArrayOutputStream plan = new ByteArrayOutputStream();
+    TemplatePrecompiler.precompile("each-merge.xlsx", template, plan);
+
+    byte[] bytes = plan.toByteArray();
+    bytes[bytes.length / 2] ^= 0x01; // somewhere in the template bytes
+    TemplatePrecompiler.load(new ByteArrayInputStream(bytes));
+  }
+
+  // a two rows template of the each command, with the specified comment
+  private static byte[] createTemplate(String each) throws Exception {
+    try (Workbook workbook = new XSSFWorkbook()) {
+      Sheet sheet = workbook.createSheet("Sheet1");
+      Row header = sheet.createRow(0);
+      header.createCell(0).setCellValue("SN");
+      header.createCell(1).setCellValue("Name");
+      Row row = sheet.createRow(1);
+      row.createCell(0).setCellValue("${row.sn}");
+      row.createCell(1).setCellValue("${row.name}");
+      addComment(header.getCell(0), "jx:area(lastCell='B2')");
+      addComment(row.getCell(0), each);
+      return toBytes(workbook);
+    }
+  }
+
+  private InputStream load(String name) {
+    return getClass().getClassLoader().getResourceAsStream("templates/" + name);
+  }
+
+  // render the areas built from the comments
+  private static List<String> render(InputStream template, Map<String, Object> data, String out) throws Exception {
+    File file = new File(out);
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(template, data, output);
+    }
+    return read(file);
+  }
+
+  // render the areas built from the plan
+  private static List<String> render(CompiledTemplate template, Map<String, Object> data, String out)
+    throws Exception {
+    File file = new File(out);
+    try (OutputStream output = new FileOutputStream(file)) {
+      JxlsUtils.renderTemplate(template, data, output);
+    }
+    return read(file);
+  }
+
+  // the merged regions and the cell values of the first sheet
+  private static List<String> read(File file) throws Exception {
+
+    List<String> result = new ArrayList<>();
+    try (Workbook workbook = WorkbookFactory.create(file)) {
+      Sheet sheet = workbook.getSheetAt(0);
+      Set<String> regions = new TreeSet<>();
+      for (CellRangeAddress region : sheet.getMergedRegions()) regions.add(region.formatAsString());
+      result.addAll(regions);
+      DataFormatter formatter = new DataFormatter();
+      for (Row row : sheet) {
+        for (Cell cell : row) result.add(cell.getAddress() + "=" + formatter.formatCellValue(cell));
+      }
+    }
+    return result;
+  }
+
+  private static Map<String, Object> generateData() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS precompiled plan test");
+    List<Map<String, Object>> rows = new ArrayList<>();
+    data.put("rows", rows);
+    for (int sn = 1; sn <= 3; sn++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", sn);
+      row.put("name", "row" + sn);
+      List<Map<String, Object>> subs = new ArrayList<>();
+      for (int i = 1; i <= sn; i++) {
+        Map<String, Object> sub = new HashMap<>();
+        sub.put("sn", sn + "-" + i);
+        sub.put("name", "row" + sn + "sub" + i);
+        subs.add(sub);
+      }
+      row.put("subs", subs);
+      rows.add(row);
+    }
+    return data;
+  }
+
+  // the data of all the bundled templates, with fixed times to render the same twice
+  private static Map<String, Object> generateMixedData() {
+    LocalDateTime now = LocalDateTime.of(2017, 12, 12, 10, 20, 30);
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS plan and comments test");
+    data.put("ts", now);
+    data.put("stage", 0);
+    Map<Integer, Object> stageLabels = new HashMap<>();
+    stageLabels.put(0, "TODO");
+    stageLabels.put(1, "ALLOW");
+    data.put("stageLabels", stageLabels);
+    data.put("num", new BigDecimal("123.456"));
+    data.put("datetime", now);
+    data.put("date", LocalDate.of(2017, 12, 12));
+    data.put("time", LocalTime.of(10, 20, 30));
+    data.put("str", "123");
+    data.put("itemNames", Arrays.asList("Item1", "Item2", "Item3"));
+
+    List<Map<String, Object>> rows = new ArrayList<>();
+    data.put("rows", rows);
+    for (int sn = 1; sn <= 4; sn++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", sn);
+      row.put("name", "row" + sn);
+      row.put("subs", createSubs(sn, 0, sn));
+      row.put("subs1", createSubs(sn, 1, sn));
+      row.put("subs2", createSubs(sn, 2, 5 - sn));
+      row.put("itemValues", Arrays.asList(sn + 0.1, sn + 0.2, sn + 0.3));
+      row.put("yearMonth", YearMonth.of(2017, sn));
+      row.put("dateTime", now.plusDays(sn));
+      row.put("str", "test");
+      row.put("money", new BigDecimal("100.01").add(new BigDecimal(sn)));
+      row.put("stage", sn % 2);
+      if (sn % 2 == 0) row.put("remark", "remark" + sn);
+      rows.add(row);
+    }
+    return data;
+  }
+
+  private static List<Map<String, Object>> createSubs(int sn, int subNumber, int count) {
+    List<Map<String, Object>> subs = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      Map<String, Object> sub = new HashMap<>();
+      sub.put("sn", sn + "-" + i);
+      sub.put("name", "row" + sn + "sub" + subNumber + "-" + i);
+      subs.add(sub);
+    }
+    return subs;
+  }
+}
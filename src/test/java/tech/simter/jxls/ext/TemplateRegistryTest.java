@@ -0,0 +1,119 @@
+package tech.simter.jxls.ext;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The template registry test.
+ *
+ * @author RJ
+ */
+public class TemplateRegistryTest {
+  private InputStream load(String name) {
+    return getClass().getClassLoader().getResourceAsStream("templates/" + name);
+  }
+
+  @Test
+  public void hitAndMiss() {
+    TemplateRegistry registry = new TemplateRegistry(4);
+
+    CompiledTemplate first = registry.get("each-merge", () -> load("each-merge.xlsx"));
+    CompiledTemplate second = registry.get("each-merge", () -> load("each-merge.xlsx"));
+
+    assertThat(second, sameInstance(first));
+    assertThat(first.isXlsx(), is(true));
+    assertThat(registry.getStats().getHitCount(), is(1L));
+    assertThat(registry.getStats().getMissCount(), is(1L));
+    assertThat(registry.size(), is(1));
+  }
+
+  @Test
+  public void compileByContentHash() {
+    TemplateRegistry registry = new TemplateRegistry(4);
+
+    CompiledTemplate first = registry.compile(load("common-functions-complex.xls"));
+    CompiledTemplate second = registry.compile(load("common-functions-complex.xls"));
+
+    assertThat(second, sameInstance(first));
+    assertThat(first.isXlsx(), is(false));
+    assertThat(first.getKey().length(), is(64));
+    assertThat(registry.getStats().getHitCount(), is(1L));
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() {
+    TemplateRegistry registry = new TemplateRegistry(2);
+    List<String> evicted = new ArrayList<>();
+    registry.setEvictionListener(t -> evicted.add(t.getKey()));
+
+    registry.get("a", () -> load("each-merge.xlsx"));
+    registry.get("b", () -> load("each-merge2.xlsx"));
+    registry.get("a", () -> load("each-merge.xlsx")); // a is the most recently used now
+    registry.get("c", () -> load("two-sub-list.xlsx"));
+
+    assertThat(evicted.size(), is(1));
+    assertThat(evicted.get(0), is("b"));
+    assertThat(registry.get("b"), nullValue());
+    assertThat(registry.getStats().getEvictionCount(), is(1L));
+
+    assertThat(registry.evict("a"), is(true));
+    assertThat(registry.size(), is(1));
+  }
+
+  @Test
+  public void renderManyTimes() throws Exception {
+    TemplateRegistry registry = new TemplateRegistry(4);
+    for (int i = 0; i < 3; i++) {
+      CompiledTemplate template = registry.get("two-sub-list", () -> load("two-sub-list.xlsx"));
+
+      // output to
+      File out = new File("target/template-registry-result-" + i + ".xlsx");
+      if (out.exists()) out.delete();
+      OutputStream output = new FileOutputStream(out);
+
+      // render
+      JxlsUtils.renderTemplate(template, generateData(), output);
+
+      // verify
+      assertThat(out.length() > 0, is(true));
+    }
+    assertThat(registry.getStats().getHitCount(), is(2L));
+  }
+
+  private Map<String, Object> generateData() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("subject", "JXLS template registry test");
+
+    List<Map<String, Object>> rows = new ArrayList<>();
+    data.put("rows", rows);
+    for (int i = 1; i <= 3; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("sn", i);
+      row.put("name", "row" + i);
+      row.put("subs1", createSubs(i));
+      row.put("subs2", createSubs(i));
+      rows.add(row);
+    }
+    return data;
+  }
+
+  private List<Map<String, Object>> createSubs(int rowNumber) {
+    List<Map<String, Object>> subs = new ArrayList<>();
+    Map<String, Object> sub = new HashMap<>();
+    sub.put("sn", rowNumber + "-1");
+    sub.put("name", "row" + rowNumber + "sub");
+    subs.add(sub);
+    return subs;
+  }
+}
@@ -0,0 +1,45 @@
+package tech.simter.jxls.ext;
+
+import org.apache.poi.ss.usermodel.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * The helpers of the tests that build their templates in code.
+ *
+ * @author RJ
+ */
+final class TestTemplates {
+  private TestTemplates() {
+  }
+
+  /**
+   * Add the command comment to the cell, the comments of a cell are joined by a new line.
+   *
+   * @param cell the cell
+   * @param text the comment text
+   */
+  static void addComment(Cell cell, String text) {
+    Workbook workbook = cell.getSheet().getWorkbook();
+    CreationHelper factory = workbook.getCreationHelper();
+    ClientAnchor anchor = factory.createClientAnchor();
+    anchor.setCol1(cell.getColumnIndex());
+    anchor.setCol2(cell.getColumnIndex() + 3);
+    anchor.setRow1(cell.getRowIndex());
+    anchor.setRow2(cell.getRowIndex() + 3);
+    Comment comment = cell.getSheet().createDrawingPatriarch().createCellComment(anchor);
+    comment.setString(factory.createRichTextString(text));
+    cell.setCellComment(comment);
+  }
+
+  /**
+   * @param workbook the template workbook
+   * @return the bytes of the workbook
+   */
+  static byte[] toBytes(Workbook workbook) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    workbook.write(out);
+    return out.toByteArray();
+  }
+}
@@ -1,5 +1,9 @@
 package tech.simter.jxls.ext;
 
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.junit.Test;
 
 import java.io.File;
@@ -31,7 +35,7 @@ public class TwoSubListTest {
     OutputStream output = new FileOutputStream(out);
 
     // template data
-    Map<String, Object> data = generateData();
+    Map<String, Object> data = generateData(true);
 
     // render
     JxlsUtils.renderTemplate(template, data, output);
@@ -40,14 +44,43 @@ public class TwoSubListTest {
     assertThat(out.getTotalSpace() > 0, is(true));
   }
 
-  private Map<String, Object> generateData() {
+  // each-merge pads the shorter sub list itself, without the empty placeholder items
+  @Test
+  public void padUnevenSubLists() throws Exception {
+    // template
+    InputStream template = getClass().getClassLoader().getResourceAsStream("templates/two-sub-list-merge.xlsx");
+
+    // output to
+    File out = new File("target/two-sub-list-merge-result.xlsx");
+    if (out.exists()) out.delete();
+
+    // render
+    try (OutputStream output = new FileOutputStream(out)) {
+      JxlsUtils.renderTemplate(template, generateData(false), output);
+    }
+
+    // verify: the 13 sub rows have the styled cells of the template sub row
+    try (Workbook workbook = WorkbookFactory.create(out)) {
+      Sheet sheet = workbook.getSheetAt(0);
+      for (int r = 3; r < 3 + 13; r++) {
+        for (int c = 2; c <= 5; c++) {
+          Cell cell = sheet.getRow(r).getCell(c);
+          assertThat("cell " + r + "," + c, cell != null, is(true));
+          assertThat("cell " + r + "," + c, cell.getCellStyle().getIndex(),
+            is(sheet.getRow(3).getCell(c).getCellStyle().getIndex()));
+        }
+      }
+      assertThat(sheet.getNumMergedRegions() > 0, is(true));
+    }
+  }
+
+  private Map<String, Object> generateData(boolean align) {
     Map<String, Object> data = new HashMap<>();
     data.put("subject", "JXLS two-sub-list test");
 
     List<Map<String, Object>> rows = new ArrayList<>();
     data.put("rows", rows);
     int rowNumber = 0;
-    boolean align = true;
     rows.add(createRow(++rowNumber, 2, 2, align));
     rows.add(createRow(++rowNumber, 2, 1, align));
     rows.add(createRow(++rowNumber, 2, 0, align)); // 0 代表空的集合（不是 null 而是 size = 0）